@@ -21,12 +21,15 @@ import carpet.commands.TestCommand;
 import carpet.network.ServerNetworkHandler;
 import carpet.helpers.HopperCounter;
 import carpet.logging.LoggerRegistry;
+import carpet.logging.logHelpers.PacketCounter;
 import carpet.script.CarpetScriptServer;
 import carpet.api.settings.SettingsManager;
 import carpet.logging.HUDController;
 import carpet.script.external.Carpet;
 import carpet.script.external.Vanilla;
 import carpet.script.utils.ParticleParser;
+import carpet.utils.CarpetProfiler;
+import carpet.utils.MetricsExporter;
 import carpet.utils.MobAI;
 import carpet.utils.SpawnReporter;
 import com.mojang.brigadier.CommandDispatcher;
@@ -78,6 +81,11 @@ public class CarpetServer // static for now - easier to handle all around the co
         extensions.forEach(CarpetExtension::onGameStarted);
         //FabricAPIHooks.initialize();
         CarpetScriptServer.parseFunctionClasses();
+        HUDController.registerMetrics();
+        CarpetProfiler.registerMetrics();
+        SpawnReporter.registerMetrics();
+        HopperCounter.registerMetrics();
+        PacketCounter.registerMetrics();
     }
 
     public static void onServerLoaded(MinecraftServer server)
@@ -108,6 +116,7 @@ public class CarpetServer // static for now - easier to handle all around the co
     {
         HUDController.update_hud(server, null);
         if (scriptServer != null) scriptServer.tick();
+        MetricsExporter.tick(server);
 
         //in case something happens
         CarpetSettings.impendingFillSkipUpdates.set(false);
@@ -192,6 +201,7 @@ public class CarpetServer // static for now - easier to handle all around the co
             LoggerRegistry.stopLoggers();
             HUDController.resetScarpetHUDs();
             ParticleParser.resetCache();
+            MetricsExporter.stop();
             extensions.forEach(e -> e.onServerClosed(server));
             minecraft_server = null;
         }
@@ -360,7 +360,8 @@ public class CarpetSettings
                     "Use /counter <color?> reset to reset the counter, and /counter <color?> to query",
                     "In survival, place green carpet on same color wool to query, red to reset the counters",
                     "Counters are global and shared between players, 16 channels available",
-                    "Items counted are destroyed, count up to one stack per tick per hopper"
+                    "Items counted are destroyed, count up to one stack per tick per hopper",
+                    "Use /counter <color> rates for rates over the last minute, 10 minutes and hour, and /counter <color> export to save them"
             },
             category = {COMMAND, CREATIVE, FEATURE}
     )
@@ -421,6 +422,60 @@ public class CarpetSettings
     )
     public static String commandProfile = "true";
 
+    @Rule(
+            desc = "Keeps timing game sections all the time to show their recent latencies",
+            extra = {
+                    "Latency percentiles for the last 1, 5 and 15 minutes are shown with /profile latency",
+                    "and available to scarpet apps with system_info('server_section_latency')"
+            },
+            category = COMMAND
+    )
+    public static boolean continuousProfiler = false;
+
+    @Rule(
+            desc = "Saves timings of the last 100 ticks when a tick takes longer than that many milliseconds",
+            extra = {
+                    "Reports include game sections, entity types, scarpet apps and samples of the server thread stack,",
+                    "and are saved in lag_spikes folder of the world, at most once a minute. Set to 0 to disable"
+            },
+            options = {"0", "100", "250", "500", "1000"},
+            category = COMMAND,
+            strict = false,
+            validate = Validators.NonNegativeNumber.class
+    )
+    public static int lagSpikeThreshold = 0;
+
+    @Rule(
+            desc = "Periodically writes server metrics to carpet_metrics.prom in the world folder",
+            extra = "Tick times, profiler sections, mobcaps, counters, packets and scarpet apps, in Prometheus text format",
+            category = COMMAND
+    )
+    public static boolean metricsFile = false;
+
+    private static class MetricsPortValidator extends Validator<Integer>
+    {
+        @Override public Integer validate(CommandSourceStack source, CarpetRule<Integer> currentRule, Integer newValue, String string)
+        {
+            return newValue >= 0 && newValue <= 65535 ? newValue : null;
+        }
+
+        @Override
+        public String description()
+        {
+            return "Must be a port number, or 0 to disable";
+        }
+    }
+
+    @Rule(
+            desc = "Serves server metrics for Prometheus on http://localhost:<port>/metrics",
+            extra = {"Only reachable from the same machine. Set to 0 to disable"},
+            options = {"0", "9225"},
+            category = COMMAND,
+            strict = false,
+            validate = MetricsPortValidator.class
+    )
+    public static int metricsPort = 0;
+
     @Rule(
             desc = "Required permission level for /perf command",
             options = {"2", "4"},
@@ -9,6 +9,9 @@ import net.minecraft.commands.CommandBuildContext;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.network.chat.Component;
 import net.minecraft.world.item.DyeColor;
+import net.minecraft.world.level.storage.LevelResource;
+
+import java.nio.file.Path;
 
 import static net.minecraft.commands.Commands.literal;
 
@@ -37,6 +40,10 @@ public class CounterCommand
                                     .executes(c -> resetCounter(c.getSource(), dyeColor)))
                             .then(literal("realtime")
                                     .executes(c -> displayCounter(c.getSource(), dyeColor, true)))
+                            .then(literal("rates")
+                                    .executes(c -> displayRates(c.getSource(), dyeColor)))
+                            .then(literal("export")
+                                    .executes(c -> exportCounter(c.getSource(), dyeColor)))
                     );
         }
         dispatcher.register(commandBuilder);
@@ -60,6 +67,35 @@ public class CounterCommand
         return 1;
     }
 
+    /**
+     * A method to display the counter's item rates over the last minute, 10 minutes and hour, with their peaks
+     * @param color The counter colour whose rates we are querying.
+     */
+    private static int displayRates(CommandSourceStack source, DyeColor color)
+    {
+        for (Component message: HopperCounter.getCounter(color).formatRates(source.getServer()))
+        {
+            source.sendSuccess(() -> message, false);
+        }
+        return 1;
+    }
+
+    /**
+     * A method to save the items counted per second in the last hour to a CSV file in the world folder
+     * @param color The counter colour whose history we are saving.
+     */
+    private static int exportCounter(CommandSourceStack source, DyeColor color)
+    {
+        Path file = HopperCounter.getCounter(color).exportHistory(source.getServer());
+        if (file == null)
+        {
+            Messenger.m(source, "r The " + color + " counter hasn't started counting yet");
+            return 0;
+        }
+        Messenger.m(source, "w Saving " + color + " counter history to ", "c " + source.getServer().getWorldPath(LevelResource.ROOT).relativize(file));
+        return 1;
+    }
+
     private static int resetCounters(CommandSourceStack source)
     {
         HopperCounter.resetAll(source.getServer(), false);
@@ -28,7 +28,16 @@ public class ProfileCommand
                 then(literal("entities").
                         executes((c) -> healthEntities(c.getSource(), 100)).
                         then(argument("ticks", integer(20,24000)).
-                                executes((c) -> healthEntities(c.getSource(), getInteger(c, "ticks")))));
+                                executes((c) -> healthEntities(c.getSource(), getInteger(c, "ticks"))))).
+                then(literal("chunks").
+                        executes((c) -> healthChunks(c.getSource(), 100)).
+                        then(argument("ticks", integer(20,24000)).
+                                executes((c) -> healthChunks(c.getSource(), getInteger(c, "ticks"))))).
+                then(literal("latency").
+                        executes((c) -> latencyReport(c.getSource(), 1)).
+                        then(literal("1m").executes((c) -> latencyReport(c.getSource(), 1))).
+                        then(literal("5m").executes((c) -> latencyReport(c.getSource(), 5))).
+                        then(literal("15m").executes((c) -> latencyReport(c.getSource(), 15))));
         dispatcher.register(literalargumentbuilder);
     }
 
@@ -43,4 +52,16 @@ public class ProfileCommand
         CarpetProfiler.prepare_entity_report(source, ticks);
         return 1;
     }
+
+    public static int healthChunks(CommandSourceStack source, int ticks)
+    {
+        CarpetProfiler.prepare_chunk_report(source, ticks);
+        return 1;
+    }
+
+    public static int latencyReport(CommandSourceStack source, int minutes)
+    {
+        CarpetProfiler.latency_report(source, minutes);
+        return 1;
+    }
 }
@@ -210,10 +210,7 @@ public class SpawnCommand
 
     private static int resetSpawnRates(CommandSourceStack source)
     {
-        for (MobCategory s: SpawnReporter.spawn_tries.keySet())
-        {
-            SpawnReporter.spawn_tries.put(s,1);
-        }
+        Arrays.fill(SpawnReporter.spawn_tries, 1);
         Messenger.m(source, "gi Spawn rates brought to 1 round per tick for all groups.");
 
         return 1;
@@ -222,7 +219,7 @@ public class SpawnCommand
     private static int setSpawnRates(CommandSourceStack source, String mobtype, int rounds) throws CommandSyntaxException
     {
         MobCategory cat = getCategory(mobtype);
-        SpawnReporter.spawn_tries.put(cat, rounds);
+        SpawnReporter.spawn_tries[cat.ordinal()] = rounds;
         Messenger.m(source, "gi "+mobtype+" mobs will now spawn "+rounds+" times per tick");
         return 1;
     }
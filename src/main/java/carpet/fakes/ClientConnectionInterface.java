@@ -4,4 +4,6 @@ import io.netty.channel.Channel;
 
 public interface ClientConnectionInterface {
     void setChannel(Channel channel);
+
+    Channel getChannel();
 }
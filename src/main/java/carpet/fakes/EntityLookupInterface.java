@@ -0,0 +1,8 @@
+package carpet.fakes;
+
+import carpet.utils.EntityTypeIndex;
+
+public interface EntityLookupInterface
+{
+    EntityTypeIndex getTypeIndexCM();
+}
@@ -1,5 +1,6 @@
 package carpet.fakes;
 
+import carpet.utils.EntityTypeIndex;
 import net.minecraft.world.level.redstone.CollectingNeighborUpdater;
 import net.minecraft.world.level.redstone.NeighborUpdater;
 import org.jetbrains.annotations.Nullable;
@@ -20,7 +21,12 @@ public interface LevelInterface
     
     boolean setBlockStateWithBlockEntity(BlockPos blockPos, BlockState blockState, BlockEntity newBlockEntity, int int1);
 
-    List<Entity> getOtherEntitiesLimited(@Nullable Entity except, AABB box, Predicate<? super Entity> predicate, int limit);
+    /**
+     * Adds entities in the box to the result, checking at most about {@code limit} entities.
+     */
+    void getOtherEntitiesLimited(@Nullable Entity except, AABB box, Predicate<? super Entity> predicate, int limit, List<Entity> result);
 
     CollectingNeighborUpdater getNeighborUpdater();
+
+    EntityTypeIndex getEntityTypeIndexCM();
 }
@@ -1,5 +1,7 @@
 package carpet.fakes;
 
+import carpet.utils.EntityTypeIndex;
+
 import java.util.List;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.entity.EntityAccess;
@@ -7,4 +9,6 @@ import net.minecraft.world.level.entity.EntityAccess;
 public interface SimpleEntityLookupInterface<T extends EntityAccess>
 {
     List<T> getChunkEntities(ChunkPos chpos);
+
+    EntityTypeIndex getTypeIndex();
 }
@@ -1,8 +1,10 @@
 package carpet.helpers;
 
 import carpet.CarpetServer;
+import carpet.CarpetSettings;
 import carpet.script.utils.RecipeHelper;
 import carpet.utils.Messenger;
+import carpet.utils.Metrics;
 import it.unimi.dsi.fastutil.objects.Object2LongLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2LongMap;
 import net.minecraft.ChatFormatting;
@@ -17,6 +19,7 @@ import net.minecraft.network.chat.Style;
 import net.minecraft.network.chat.TextColor;
 import net.minecraft.resources.Identifier;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.Util;
 import net.minecraft.world.item.BlockItem;
 import net.minecraft.world.item.DyeColor;
 import net.minecraft.world.item.DyeItem;
@@ -31,8 +34,16 @@ import net.minecraft.world.level.block.BeaconBeamBlock;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.Blocks;
 import net.minecraft.world.level.material.MapColor;
+import net.minecraft.world.level.storage.LevelResource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.List;
@@ -61,6 +72,29 @@ public class HopperCounter
 
     public static final TextColor WHITE = TextColor.fromLegacyFormat(ChatFormatting.WHITE);
 
+    /**
+     * How long item counts are kept for rates, peaks and exports
+     */
+    public static final int HISTORY_SECONDS = 3600;
+    /**
+     * Windows of the rates shown by {@code /counter <color> rates}, in seconds
+     */
+    public static final int[] RATE_WINDOWS = {60, 600, 3600};
+    private static final DateTimeFormatter FILE_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+
+    /**
+     * Item rate over the complete seconds of a window, with the busiest second in it. Seconds are measured in game time,
+     * 20 ticks each, also for counters shown in {@code realtime}
+     *
+     * @param seconds   how many seconds the rate was measured over, less than the window when the counter started later
+     * @param perHour   average items per hour
+     * @param peak      items counted in the busiest second
+     * @param peakAge   how many seconds ago the busiest second was
+     */
+    public record Rate(int seconds, double perHour, long peak, int peakAge)
+    {
+    }
+
     static
     {
         EnumMap<DyeColor, HopperCounter> counterMap = new EnumMap<>(DyeColor.class);
@@ -80,6 +114,10 @@ public class HopperCounter
      * that counter.
      */
     private final String coloredName;
+    /**
+     * The brief format of the counter, shown every second by the counter HUD logger
+     */
+    private final Messenger.Template briefFormat;
     /**
      * All the items stored within the counter, as a map of {@link Item} mapped to a {@code long} of the amount of items
      * stored thus far of that item type.
@@ -95,6 +133,14 @@ public class HopperCounter
      * the counter
      */
     private long startMillis;
+    /**
+     * Items counted in each second of game time, for the last hour and the current second, as a ring indexed by the game second
+     */
+    private final long[] perSecond = new long[HISTORY_SECONDS + 1];
+    /**
+     * The newest game second stored in {@link HopperCounter#perSecond}, or -1 when it's empty
+     */
+    private long lastSecond = -1;
     // private PubSubInfoProvider<Long> pubSubProvider;
 
     private HopperCounter(DyeColor color)
@@ -107,6 +153,7 @@ public class HopperCounter
             hexColor = "0".repeat(6 - hexColor.length()) + hexColor;
         }
         this.coloredName = '#' + hexColor + ' ' + color.getName();
+        this.briefFormat = Messenger.template("b" + coloredName, "w : ", "wb {}", "w , ", "wb {}", "w /h, ", "wb {}", "w  min");
     }
 
     /**
@@ -123,15 +170,145 @@ public class HopperCounter
         }
         Item item = stack.getItem();
         counter.put(item, counter.getLong(item) + stack.getCount());
+        long second = server.overworld().getGameTime() / 20;
+        advance(second);
+        perSecond[(int) (second % perSecond.length)] += stack.getCount();
         // pubSubProvider.publish();
     }
 
+    /**
+     * Moves the newest second of the item history forward, clearing the seconds skipped since.
+     */
+    private void advance(long second)
+    {
+        if (lastSecond < 0 || second - lastSecond >= perSecond.length)
+        {
+            Arrays.fill(perSecond, 0L);
+        }
+        else
+        {
+            for (long s = lastSecond + 1; s <= second; s++)
+            {
+                perSecond[(int) (s % perSecond.length)] = 0L;
+            }
+        }
+        lastSecond = Math.max(lastSecond, second);
+    }
+
+    /**
+     * Items counted in a game second of the history. Only reads the history, so it is safe to call off the server thread,
+     * like from scarpet tasks, and seconds that weren't counted yet, or dropped from the history, are empty.
+     */
+    private long countAt(long second)
+    {
+        long last = lastSecond;
+        if (second > last || last - second >= perSecond.length)
+        {
+            return 0L;
+        }
+        return perSecond[(int) (second % perSecond.length)];
+    }
+
+    /**
+     * Gets the item rate over the last complete seconds, up to the given window, since the counter started.
+     */
+    public Rate getRate(MinecraftServer server, int window)
+    {
+        long now = server.overworld().getGameTime() / 20;
+        int seconds = startTick < 0 ? 0 : (int) Math.min(Math.min(window, HISTORY_SECONDS), now - startTick / 20);
+        if (seconds <= 0)
+        {
+            return new Rate(0, 0.0, 0L, 0);
+        }
+        long total = 0L;
+        long peak = 0L;
+        int peakAge = 0;
+        for (int age = 1; age <= seconds; age++)
+        {
+            long count = countAt(now - age);
+            total += count;
+            if (count > peak)
+            {
+                peak = count;
+                peakAge = age;
+            }
+        }
+        return new Rate(seconds, total * 3600.0 / seconds, peak, peakAge);
+    }
+
+    /**
+     * Saves items counted per second, for the last hour, to a CSV file in the world folder.
+     *
+     * @return The file the history is being written to, or {@code null} when the counter has not started yet
+     */
+    public Path exportHistory(MinecraftServer server)
+    {
+        long now = server.overworld().getGameTime() / 20;
+        if (startTick < 0)
+        {
+            return null;
+        }
+        long first = Math.max(startTick / 20, now - HISTORY_SECONDS);
+        StringBuilder csv = new StringBuilder("game_tick,items\n");
+        for (long second = first; second <= now; second++)
+        {
+            csv.append(second * 20).append(',').append(countAt(second)).append('\n');
+        }
+        String text = csv.toString();
+        Path file = server.getWorldPath(LevelResource.ROOT).resolve("counters").resolve(color.getName() + "-" + LocalDateTime.now().format(FILE_DATE) + ".csv");
+        Util.backgroundExecutor().execute(() -> {
+            try
+            {
+                Files.createDirectories(file.getParent());
+                Files.writeString(file, text);
+            }
+            catch (IOException e)
+            {
+                CarpetSettings.LOG.error("Failed to export {} counter to {}", color.getName(), file, e);
+            }
+        });
+        return file;
+    }
+
+    /**
+     * Prints the item rates of the counter over its {@link HopperCounter#RATE_WINDOWS}, with the busiest second of each.
+     */
+    public List<Component> formatRates(MinecraftServer server)
+    {
+        if (startTick < 0)
+        {
+            return Collections.singletonList(Messenger.c(coloredName, "w  hasn't started counting yet"));
+        }
+        List<Component> lines = new ArrayList<>();
+        lines.add(Messenger.c("w Rates for ", coloredName, "w  in game time:"));
+        for (int window : RATE_WINDOWS)
+        {
+            Rate rate = getRate(server, window);
+            lines.add(Messenger.c(String.format("w  %d min: ", window / 60),
+                    String.format("wb %.1f", rate.perHour()), "w /h",
+                    rate.seconds() < window ? String.format("gi  (%d s)", rate.seconds()) : "w ",
+                    rate.peak() > 0 ? Messenger.c("g , peak ", "wb " + rate.peak(), "g /s", String.format("gi  (%d s ago)", rate.peakAge())) : "w "
+            ));
+        }
+        return lines;
+    }
+
+    /**
+     * Whether an item entered the counter since it was reset with clocks stopped.
+     */
+    public boolean isStarted()
+    {
+        return startTick >= 0;
+    }
+
     /**
      * Resets the counter, clearing its items but keeping the clock running.
      */
     public void reset(MinecraftServer server)
     {
         counter.clear();
+        Arrays.fill(perSecond, 0L);
+        lastSecond = -1;
         startTick = server.overworld().getGameTime();
         startMillis = System.currentTimeMillis();
         // pubSubProvider.publish();
@@ -200,7 +377,7 @@ public class HopperCounter
         {
             if (brief)
             {
-                return Collections.singletonList(Messenger.c("b" + coloredName, "w : ", "wb 0", "w , ", "wb 0", "w /h, ", String.format("wb %.1f ", ticks / (20.0 * 60.0)), "w min"));
+                return Collections.singletonList(briefFormat.apply(0, 0, String.format("%.1f", ticks / (20.0 * 60.0))));
             }
             return Collections.singletonList(Messenger.c("w No items for ", coloredName, String.format("w  yet (%.2f min.%s)",
                             ticks / (20.0 * 60.0), (realTime ? " - real time" : "")),
@@ -208,11 +385,7 @@ public class HopperCounter
         }
         if (brief)
         {
-            return Collections.singletonList(Messenger.c("b" + coloredName, "w : ",
-                    "wb " + total, "w , ",
-                    "wb " + (total * (20 * 60 * 60) / ticks), "w /h, ",
-                    String.format("wb %.1f ", ticks / (20.0 * 60.0)), "w min"
-            ));
+            return Collections.singletonList(briefFormat.apply(total, total * (20 * 60 * 60) / ticks, String.format("%.1f", ticks / (20.0 * 60.0))));
         }
         List<Component> items = new ArrayList<>();
         items.add(Messenger.c("w Items for ", coloredName,
@@ -433,6 +606,12 @@ public class HopperCounter
         return null;
     }
 
+    public static void registerMetrics()
+    {
+        Metrics.register("carpet_hopper_counter_items_total", Metrics.Type.COUNTER, "Items counted by hopper counters",
+                (server, samples) -> COUNTERS.forEach((color, counter) -> samples.add(counter.getTotalItems(), "color", color.getName())));
+    }
+
     /**
      * Returns the hopper counter for the given color
      */
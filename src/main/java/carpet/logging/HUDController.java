@@ -1,10 +1,15 @@
 package carpet.logging;
 
 import carpet.CarpetServer;
+import carpet.fakes.ClientConnectionInterface;
+import carpet.fakes.ServerGamePacketListenerImplInterface;
 import carpet.helpers.HopperCounter;
 import carpet.logging.logHelpers.PacketCounter;
+import carpet.patches.EntityPlayerMPFake;
 import carpet.utils.Messenger;
+import carpet.utils.Metrics;
 import carpet.utils.SpawnReporter;
+import io.netty.channel.Channel;
 import net.minecraft.network.chat.Component;
 import net.minecraft.network.protocol.game.ClientboundTabListPacket;
 import net.minecraft.resources.ResourceKey;
@@ -14,6 +19,7 @@ import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.util.TimeUtil;
 import net.minecraft.world.level.Level;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -25,6 +31,10 @@ import java.util.function.Consumer;
 public class HUDController
 {
     private static final List<Consumer<MinecraftServer>> HUDListeners = new ArrayList<>();
+    private static final int PACKET_TYPES_SHOWN = 8;
+    private static final Messenger.Template TPS_FORMAT = Messenger.template("g TPS: ", "w {}", "g  MSPT: ", "w {}");
+    private static final Messenger.Template TRAFFIC_FORMAT = Messenger.template("w {}", "g  I/", "g {}", "g  ", "g {}", "g /s O/", "g {}", "g  ", "g {}", "g /s");
+    private static final Messenger.Template PACKET_TYPE_FORMAT = Messenger.template("w {}", "g : ", "g {}", "g /s ", "g {}", "g /s");
 
     /**
      * Adds listener to be called when HUD is updated for logging information
@@ -41,6 +51,13 @@ public class HUDController
 
     public static final Map<String, Component> scarpet_footers = new HashMap<>();
 
+    private record TabList(Component header, Component footer)
+    {
+    }
+
+    // last tab list sent to each player, so unchanged ones are not sent again
+    private static final Map<ServerPlayer, TabList> sent_huds = new HashMap<>();
+
     public static void resetScarpetHUDs() {
         scarpet_headers.clear();
         scarpet_footers.clear();
@@ -62,6 +79,7 @@ public class HUDController
 
     public static void clearPlayer(ServerPlayer player)
     {
+        sent_huds.remove(player);
         ClientboundTabListPacket packet = new ClientboundTabListPacket(Component.literal(""), Component.literal(""));
         player.connection.send(packet);
     }
@@ -83,6 +101,9 @@ public class HUDController
             LoggerRegistry.getLogger("tps").log(()-> send_tps_display(server));
 
         if (LoggerRegistry.__mobcaps)
+        {
+            // shared by all players seeing the same dimension
+            Map<ResourceKey<Level>, Component[]> mobcaps = new HashMap<>();
             LoggerRegistry.getLogger("mobcaps").log((option, player) -> {
                 ResourceKey<Level> dim = switch (option) {
                     case "overworld" -> Level.OVERWORLD;
@@ -90,42 +111,76 @@ public class HUDController
                     case "end" -> Level.END;
                     default -> player.level().dimension();
                 };
-                return new Component[]{SpawnReporter.printMobcapsForDimension(server.getLevel(dim), false).get(0)};
+                return mobcaps.computeIfAbsent(dim, d -> new Component[]{SpawnReporter.printMobcapsForDimension(server.getLevel(d), false).get(0)});
             });
+        }
 
         if(LoggerRegistry.__counter)
             LoggerRegistry.getLogger("counter").log((option)->send_counter_info(server, option));
 
         if (LoggerRegistry.__packets)
-            LoggerRegistry.getLogger("packets").log(HUDController::packetCounter);
+        {
+            long now = System.nanoTime();
+            PacketCounter.sample(now);
+            LoggerRegistry.getLogger("packets").log((option) -> packetCounter(server, option, now));
+        }
 
         // extensions have time to pitch in.
         HUDListeners.forEach(l -> l.accept(server));
 
+        // players that were sent a HUD before get an empty one when it is gone
+        sent_huds.keySet().retainAll(new HashSet<>(server.getPlayerList().getPlayers()));
         Set<ServerPlayer> targets = new HashSet<>(player_huds.keySet());
+        targets.addAll(sent_huds.keySet());
         if (force!= null) targets.addAll(force);
         for (ServerPlayer player: targets)
         {
-            ClientboundTabListPacket packet = new ClientboundTabListPacket(
-                        scarpet_headers.getOrDefault(player.getScoreboardName(), Component.literal("")),
-                        Messenger.c(player_huds.getOrDefault(player, List.of()).toArray(new Object[0]))
-                    );
-            player.connection.send(packet);
+            TabList tabList = new TabList(
+                    scarpet_headers.getOrDefault(player.getScoreboardName(), Component.literal("")),
+                    Messenger.c(player_huds.getOrDefault(player, List.of()).toArray(new Object[0]))
+            );
+            // forced players get their HUD even if it didn't change, like after scarpet set their header
+            if (tabList.equals(sent_huds.put(player, tabList)) && (force == null || !force.contains(player)))
+            {
+                continue;
+            }
+            player.connection.send(new ClientboundTabListPacket(tabList.header(), tabList.footer()));
         }
     }
-    private static Component [] send_tps_display(MinecraftServer server)
+
+    public static void registerMetrics()
     {
-        double MSPT = ((double)server.getAverageTickTimeNanos())/ TimeUtil.NANOSECONDS_PER_MILLISECOND;
-        ServerTickRateManager trm = server.tickRateManager();
+        Metrics.register("carpet_tick_mspt", Metrics.Type.GAUGE, "Average milliseconds per tick",
+                (server, samples) -> samples.add(getMSPT(server)));
+        Metrics.register("carpet_tick_tps", Metrics.Type.GAUGE, "Ticks per second",
+                (server, samples) -> samples.add(getTPS(server)));
+        Metrics.register("carpet_tick_count_total", Metrics.Type.COUNTER, "Ticks run by the server",
+                (server, samples) -> samples.add(server.getTickCount()));
+    }
 
-        double TPS = 1000.0D / Math.max(trm.isSprinting()?0.0:trm.millisecondsPerTick(), MSPT);
+    public static double getMSPT(MinecraftServer server)
+    {
+        return ((double)server.getAverageTickTimeNanos())/ TimeUtil.NANOSECONDS_PER_MILLISECOND;
+    }
+
+    public static double getTPS(MinecraftServer server)
+    {
+        ServerTickRateManager trm = server.tickRateManager();
         if (trm.isFrozen()) {
-            TPS = 0;
+            return 0;
         }
+        return 1000.0D / Math.max(trm.isSprinting()?0.0:trm.millisecondsPerTick(), getMSPT(server));
+    }
+
+    private static Component [] send_tps_display(MinecraftServer server)
+    {
+        double MSPT = getMSPT(server);
+        ServerTickRateManager trm = server.tickRateManager();
+        double TPS = getTPS(server);
         String color = Messenger.heatmap_color(MSPT,trm.millisecondsPerTick());
-        return new Component[]{Messenger.c(
-                "g TPS: ", String.format(Locale.US, "%s %.1f",color, TPS),
-                "g  MSPT: ", String.format(Locale.US,"%s %.1f", color, MSPT))};
+        return new Component[]{TPS_FORMAT.apply(
+                Messenger.s(String.format(Locale.US, "%.1f", TPS), color),
+                Messenger.s(String.format(Locale.US, "%.1f", MSPT), color))};
     }
 
     private static Component[] send_counter_info(MinecraftServer server, String colors)
@@ -138,12 +193,59 @@ public class HUDController
         }
         return res.toArray(new Component[0]);
     }
-    private static Component [] packetCounter()
+    private static Component [] packetCounter(MinecraftServer server, String option, long now)
     {
-        Component [] ret =  new Component[]{
-                Messenger.c("w I/" + PacketCounter.totalIn + " O/" + PacketCounter.totalOut),
+        return switch (option)
+        {
+            case "types" -> packetTypes();
+            case "players" -> packetPlayers(server, now);
+            default -> new Component[]{trafficLine("Total", PacketCounter.IN, PacketCounter.OUT)};
         };
-        PacketCounter.reset();
-        return ret;
+    }
+
+    private static Component [] packetTypes()
+    {
+        List<Map.Entry<String, PacketCounter.Traffic>> types = new ArrayList<>();
+        PacketCounter.IN_BY_TYPE.forEach((type, traffic) -> types.add(Map.entry("I " + PacketCounter.typeName(type), traffic)));
+        PacketCounter.OUT_BY_TYPE.forEach((type, traffic) -> types.add(Map.entry("O " + PacketCounter.typeName(type), traffic)));
+        types.removeIf(e -> e.getValue().packetRate() <= 0.0);
+        types.sort(Comparator.comparingDouble((Map.Entry<String, PacketCounter.Traffic> e) -> e.getValue().byteRate())
+                .thenComparingDouble(e -> e.getValue().packetRate()).reversed());
+        List<Component> lines = new ArrayList<>();
+        for (Map.Entry<String, PacketCounter.Traffic> type : types.subList(0, Math.min(PACKET_TYPES_SHOWN, types.size())))
+        {
+            PacketCounter.Traffic traffic = type.getValue();
+            lines.add(PACKET_TYPE_FORMAT.apply(type.getKey(), Math.round(traffic.packetRate()), PacketCounter.formatBytes(traffic.byteRate())));
+        }
+        return lines.toArray(new Component[0]);
+    }
+
+    private static Component [] packetPlayers(MinecraftServer server, long now)
+    {
+        List<Component> lines = new ArrayList<>();
+        for (ServerPlayer player : server.getPlayerList().getPlayers())
+        {
+            if (player instanceof EntityPlayerMPFake)
+            {
+                continue;
+            }
+            Channel channel = ((ClientConnectionInterface) ((ServerGamePacketListenerImplInterface) player.connection).getConnection()).getChannel();
+            if (channel == null)
+            {
+                continue;
+            }
+            PacketCounter.ConnectionTraffic traffic = PacketCounter.of(channel);
+            traffic.in().sample(now);
+            traffic.out().sample(now);
+            lines.add(trafficLine(player.getScoreboardName(), traffic.in(), traffic.out()));
+        }
+        return lines.toArray(new Component[0]);
+    }
+
+    private static Component trafficLine(String name, PacketCounter.Traffic in, PacketCounter.Traffic out)
+    {
+        return TRAFFIC_FORMAT.apply(name,
+                Math.round(in.packetRate()), PacketCounter.formatBytes(in.byteRate()),
+                Math.round(out.packetRate()), PacketCounter.formatBytes(out.byteRate()));
     }
 }
@@ -3,9 +3,12 @@ package carpet.logging;
 import carpet.CarpetServer;
 import carpet.CarpetSettings;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Supplier;
@@ -33,6 +36,9 @@ public class Logger
 
     private boolean strictOptions;
 
+    // Online subscribers grouped by option, null when it needs rebuilding.
+    private volatile Map<String, ServerPlayer[]> subscribersByOption = null;
+
     static Logger stardardLogger(String logName, String def, String [] options)
     {
         return stardardLogger(logName, def, options, false);
@@ -94,6 +100,7 @@ public class Logger
         {
             subscribedOfflinePlayers.put(playerName, option);
         }
+        subscribersByOption = null;
         LoggerRegistry.setAccess(this);
     }
 
@@ -104,6 +111,7 @@ public class Logger
     {
         subscribedOnlinePlayers.remove(playerName);
         subscribedOfflinePlayers.remove(playerName);
+        subscribersByOption = null;
         LoggerRegistry.setAccess(this);
     }
 
@@ -119,6 +127,7 @@ public class Logger
     {
         subscribedOnlinePlayers.clear();
         subscribedOfflinePlayers.clear();
+        subscribersByOption = null;
     }
 
     public Field getField()
@@ -134,12 +143,11 @@ public class Logger
     public interface lMessage { Component [] get(String playerOption, Player player);}
     public void log(lMessage messagePromise)
     {
-        for (Map.Entry<String,String> en : subscribedOnlinePlayers.entrySet())
+        for (Map.Entry<String, ServerPlayer[]> en : subscribers().entrySet())
         {
-            ServerPlayer player = playerFromName(en.getKey());
-            if (player != null)
+            for (ServerPlayer player : en.getValue())
             {
-                Component [] messages = messagePromise.get(en.getValue(),player);
+                Component [] messages = messagePromise.get(en.getKey(),player);
                 if (messages != null)
                     sendPlayerMessage(player, messages);
             }
@@ -154,19 +162,12 @@ public class Logger
     public interface lMessageIgnorePlayer { Component [] get(String playerOption);}
     public void log(lMessageIgnorePlayer messagePromise)
     {
-        Map<String, Component[]> cannedMessages = new HashMap<>();
-        for (Map.Entry<String,String> en : subscribedOnlinePlayers.entrySet())
+        for (Map.Entry<String, ServerPlayer[]> en : subscribers().entrySet())
         {
-            ServerPlayer player = playerFromName(en.getKey());
-            if (player != null)
+            Component [] messages = messagePromise.get(en.getKey());
+            if (messages != null)
             {
-                String option = en.getValue();
-                if (!cannedMessages.containsKey(option))
-                {
-                    cannedMessages.put(option,messagePromise.get(option));
-                }
-                Component [] messages = cannedMessages.get(option);
-                if (messages != null)
+                for (ServerPlayer player : en.getValue())
                     sendPlayerMessage(player, messages);
             }
         }
@@ -177,15 +178,52 @@ public class Logger
     public void log(Supplier<Component[]> messagePromise)
     {
         Component [] cannedMessages = null;
+        for (ServerPlayer[] players : subscribers().values())
+        {
+            for (ServerPlayer player : players)
+            {
+                if (cannedMessages == null) cannedMessages = messagePromise.get();
+                sendPlayerMessage(player, cannedMessages);
+            }
+        }
+    }
+
+    /**
+     * Online subscribers grouped by option, rebuilt after subscriptions change or a subscribed player is replaced
+     * by a new entity, like when respawning
+     */
+    private Map<String, ServerPlayer[]> subscribers()
+    {
+        Map<String, ServerPlayer[]> snapshot = subscribersByOption;
+        if (snapshot != null && !hasRemovedPlayer(snapshot))
+        {
+            return snapshot;
+        }
+        Map<String, List<ServerPlayer>> grouped = new HashMap<>();
         for (Map.Entry<String,String> en : subscribedOnlinePlayers.entrySet())
         {
             ServerPlayer player = playerFromName(en.getKey());
             if (player != null)
+                grouped.computeIfAbsent(en.getValue(), option -> new ArrayList<>()).add(player);
+        }
+        Map<String, ServerPlayer[]> rebuilt = new HashMap<>();
+        grouped.forEach((option, players) -> rebuilt.put(option, players.toArray(new ServerPlayer[0])));
+        snapshot = Collections.unmodifiableMap(rebuilt);
+        subscribersByOption = snapshot;
+        return snapshot;
+    }
+
+    private static boolean hasRemovedPlayer(Map<String, ServerPlayer[]> snapshot)
+    {
+        for (ServerPlayer[] players : snapshot.values())
+        {
+            for (ServerPlayer player : players)
             {
-                if (cannedMessages == null) cannedMessages = messagePromise.get();
-                sendPlayerMessage(player, cannedMessages);
+                if (player.isRemoved())
+                    return true;
             }
         }
+        return false;
     }
 
     public void sendPlayerMessage(ServerPlayer player, Component ... messages)
@@ -224,6 +262,7 @@ public class Logger
                 }
             }
         }
+        subscribersByOption = null;
         LoggerRegistry.setAccess(this);
     }
 
@@ -236,6 +275,7 @@ public class Logger
             subscribedOfflinePlayers.put(playerName, subscribedOnlinePlayers.get(playerName));
             subscribedOnlinePlayers.remove(playerName);
         }
+        subscribersByOption = null;
         LoggerRegistry.setAccess(this);
     }
 
@@ -1,8 +1,260 @@
 package carpet.logging.logHelpers;
 
+import carpet.network.CarpetClient;
+import carpet.utils.Metrics;
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.PacketType;
+import net.minecraft.network.protocol.common.ClientboundCustomPayloadPacket;
+import net.minecraft.network.protocol.common.ServerboundCustomPayloadPacket;
+import net.minecraft.network.protocol.common.custom.CustomPacketPayload;
+import net.minecraft.network.protocol.common.custom.DiscardedPayload;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts network traffic in total, by packet type and by connection, with serialized packet sizes.
+ * <p>
+ * Packets are counted when connections receive or send them, and their bytes when they are decoded or encoded,
+ * so bytes are only known for remote connections, and are attributed to the packets inside bundles.
+ * Custom payloads are counted by payload, payloads of channels the game doesn't know together,
+ * and carpet payloads by the feature they carry.
+ */
 public class PacketCounter
 {
-    public static long totalOut=0;
-    public static long totalIn=0;
-    public static void reset() {totalIn = 0L; totalOut = 0L; }
+    // rates are averaged over that many last samples, taken every second while the packets logger is active
+    public static final int WINDOW = 5;
+    private static final AttributeKey<ConnectionTraffic> CONNECTION_TRAFFIC = AttributeKey.valueOf("carpet_traffic");
+
+    public static final Traffic IN = new Traffic();
+    public static final Traffic OUT = new Traffic();
+    public static final Map<Object, Traffic> IN_BY_TYPE = new ConcurrentHashMap<>();
+    public static final Map<Object, Traffic> OUT_BY_TYPE = new ConcurrentHashMap<>();
+
+    private static final String UNKNOWN_PAYLOAD = "payload/unknown";
+    private static final String OTHER_CARPET_FEATURE = "carpet/other";
+    // payloads can carry several features, so the first one found in this order names it
+    private static final Map<String, String> CARPET_FEATURES = new LinkedHashMap<>();
+
+    static
+    {
+        CARPET_FEATURES.put(CarpetClient.HI, "carpet/hi");
+        CARPET_FEATURES.put(CarpetClient.HELLO, "carpet/hello");
+        CARPET_FEATURES.put("Rules", "carpet/rules");
+        CARPET_FEATURES.put("scShapesBin", "carpet/shapes");
+        CARPET_FEATURES.put("scShapes", "carpet/shapes");
+        CARPET_FEATURES.put("scShape", "carpet/shapes");
+        CARPET_FEATURES.put("clientCommand", "carpet/client_command");
+    }
+
+    public static final class Traffic
+    {
+        private final LongAdder packets = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final long[] sampleTimes = new long[WINDOW + 1];
+        private final long[] samplePackets = new long[WINDOW + 1];
+        private final long[] sampleBytes = new long[WINDOW + 1];
+        private int samples = 0;
+
+        public long packets()
+        {
+            return packets.sum();
+        }
+
+        public long bytes()
+        {
+            return bytes.sum();
+        }
+
+        public double packetRate()
+        {
+            return rate(samplePackets);
+        }
+
+        public double byteRate()
+        {
+            return rate(sampleBytes);
+        }
+
+        public void sample(long now)
+        {
+            int slot = samples % sampleTimes.length;
+            sampleTimes[slot] = now;
+            samplePackets[slot] = packets.sum();
+            sampleBytes[slot] = bytes.sum();
+            samples++;
+        }
+
+        private double rate(long[] values)
+        {
+            if (samples < 2)
+            {
+                return 0.0;
+            }
+            int newest = (samples - 1) % sampleTimes.length;
+            int oldest = samples > sampleTimes.length ? samples % sampleTimes.length : 0;
+            long elapsed = sampleTimes[newest] - sampleTimes[oldest];
+            return elapsed <= 0 ? 0.0 : (values[newest] - values[oldest]) * 1.0e9 / elapsed;
+        }
+    }
+
+    public record ConnectionTraffic(Traffic in, Traffic out)
+    {
+    }
+
+    public static ConnectionTraffic of(Channel channel)
+    {
+        Attribute<ConnectionTraffic> attribute = channel.attr(CONNECTION_TRAFFIC);
+        ConnectionTraffic traffic = attribute.get();
+        if (traffic == null)
+        {
+            ConnectionTraffic created = new ConnectionTraffic(new Traffic(), new Traffic());
+            traffic = attribute.setIfAbsent(created);
+            if (traffic == null)
+            {
+                traffic = created;
+            }
+        }
+        return traffic;
+    }
+
+    public static void received(Channel channel, Packet<?> packet)
+    {
+        IN.packets.increment();
+        byType(IN_BY_TYPE, packet).packets.increment();
+        if (channel != null)
+        {
+            of(channel).in().packets.increment();
+        }
+    }
+
+    public static void sent(Channel channel, Packet<?> packet)
+    {
+        OUT.packets.increment();
+        byType(OUT_BY_TYPE, packet).packets.increment();
+        if (channel != null)
+        {
+            of(channel).out().packets.increment();
+        }
+    }
+
+    public static void decoded(Channel channel, Packet<?> packet, int size)
+    {
+        IN.bytes.add(size);
+        byType(IN_BY_TYPE, packet).bytes.add(size);
+        of(channel).in().bytes.add(size);
+    }
+
+    public static void encoded(Channel channel, Packet<?> packet, int size)
+    {
+        OUT.bytes.add(size);
+        byType(OUT_BY_TYPE, packet).bytes.add(size);
+        of(channel).out().bytes.add(size);
+    }
+
+    /**
+     * Samples totals and packet types for rolling rates, connections are sampled by their users
+     */
+    public static void sample(long now)
+    {
+        IN.sample(now);
+        OUT.sample(now);
+        IN_BY_TYPE.values().forEach(traffic -> traffic.sample(now));
+        OUT_BY_TYPE.values().forEach(traffic -> traffic.sample(now));
+    }
+
+    public static void registerMetrics()
+    {
+        Metrics.register("carpet_packets_received_total", Metrics.Type.COUNTER, "Packets received",
+                (server, samples) -> samples.add(IN.packets()));
+        Metrics.register("carpet_packets_sent_total", Metrics.Type.COUNTER, "Packets sent",
+                (server, samples) -> samples.add(OUT.packets()));
+        Metrics.register("carpet_packets_received_bytes_total", Metrics.Type.COUNTER, "Serialized bytes of packets received by remote connections",
+                (server, samples) -> samples.add(IN.bytes()));
+        Metrics.register("carpet_packets_sent_bytes_total", Metrics.Type.COUNTER, "Serialized bytes of packets sent to remote connections",
+                (server, samples) -> samples.add(OUT.bytes()));
+        Metrics.register("carpet_packet_type_packets_total", Metrics.Type.COUNTER, "Packets by type",
+                (server, samples) -> {
+                    IN_BY_TYPE.forEach((type, traffic) -> samples.add(traffic.packets(), "direction", "in", "type", typeName(type)));
+                    OUT_BY_TYPE.forEach((type, traffic) -> samples.add(traffic.packets(), "direction", "out", "type", typeName(type)));
+                });
+        Metrics.register("carpet_packet_type_bytes_total", Metrics.Type.COUNTER, "Serialized bytes of packets by type",
+                (server, samples) -> {
+                    IN_BY_TYPE.forEach((type, traffic) -> samples.add(traffic.bytes(), "direction", "in", "type", typeName(type)));
+                    OUT_BY_TYPE.forEach((type, traffic) -> samples.add(traffic.bytes(), "direction", "out", "type", typeName(type)));
+                });
+    }
+
+    public static String typeName(Object type)
+    {
+        if (type instanceof PacketType<?> packetType)
+        {
+            return packetType.id().toString();
+        }
+        if (type instanceof CustomPacketPayload.Type<?> payloadType)
+        {
+            return "payload/" + payloadType.id();
+        }
+        return type.toString();
+    }
+
+    public static String formatBytes(double bytes)
+    {
+        if (bytes < 1024)
+        {
+            return String.format(Locale.ROOT, "%.0fB", bytes);
+        }
+        if (bytes < 1024 * 1024)
+        {
+            return String.format(Locale.ROOT, "%.1fkB", bytes / 1024);
+        }
+        return String.format(Locale.ROOT, "%.1fMB", bytes / (1024 * 1024));
+    }
+
+    private static Traffic byType(Map<Object, Traffic> types, Packet<?> packet)
+    {
+        Object type = typeOf(packet);
+        Traffic traffic = types.get(type);
+        return traffic != null ? traffic : types.computeIfAbsent(type, t -> new Traffic());
+    }
+
+    private static Object typeOf(Packet<?> packet)
+    {
+        CustomPacketPayload payload;
+        if (packet instanceof ClientboundCustomPayloadPacket custom)
+        {
+            payload = custom.payload();
+        }
+        else if (packet instanceof ServerboundCustomPayloadPacket custom)
+        {
+            payload = custom.payload();
+        }
+        else
+        {
+            return packet.type();
+        }
+        if (payload instanceof DiscardedPayload)
+        {
+            // ids of those come from the other side, so they are not kept apart
+            return UNKNOWN_PAYLOAD;
+        }
+        if (payload instanceof CarpetClient.CarpetPayload carpetPayload)
+        {
+            for (Map.Entry<String, String> feature : CARPET_FEATURES.entrySet())
+            {
+                if (carpetPayload.data().contains(feature.getKey()))
+                {
+                    return feature.getValue();
+                }
+            }
+            return OTHER_CARPET_FEATURE;
+        }
+        return payload.type();
+    }
 }
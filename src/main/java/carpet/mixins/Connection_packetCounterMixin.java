@@ -12,6 +12,7 @@ import net.minecraft.network.PacketSendListener;
 import net.minecraft.network.protocol.Packet;
 import org.jetbrains.annotations.Nullable;
 import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.gen.Accessor;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
@@ -20,21 +21,29 @@ import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 @Mixin(Connection.class)
 public abstract class Connection_packetCounterMixin implements ClientConnectionInterface
 {
+    @Shadow private Channel channel;
+
     // Add to the packet counter whenever a packet is received.
     @Inject(method = "channelRead0", at = @At("HEAD"))
     private void packetInCount(ChannelHandlerContext channelHandlerContext_1, Packet<?> packet_1, CallbackInfo ci)
     {
-        PacketCounter.totalIn++;
+        PacketCounter.received(channel, packet_1);
     }
     
     // Add to the packet counter whenever a packet is sent.
     @Inject(method = "sendPacket", at = @At("HEAD"))
     private void packetOutCount(Packet<?> packet, ChannelFutureListener channelFutureListener, boolean bl, CallbackInfo ci)
     {
-        PacketCounter.totalOut++;
+        PacketCounter.sent(channel, packet);
     }
 
     @Override
     @Accessor //Compat with adventure-platform-fabric
     public abstract void setChannel(Channel channel);
+
+    @Override
+    public Channel getChannel()
+    {
+        return channel;
+    }
 }
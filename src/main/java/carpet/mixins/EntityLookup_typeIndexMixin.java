@@ -0,0 +1,52 @@
+package carpet.mixins;
+
+import carpet.fakes.EntityLookupInterface;
+import carpet.utils.EntityTypeIndex;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.level.entity.EntityAccess;
+import net.minecraft.world.level.entity.EntityLookup;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import java.util.Map;
+import java.util.UUID;
+
+@Mixin(EntityLookup.class)
+public class EntityLookup_typeIndexMixin<T extends EntityAccess> implements EntityLookupInterface
+{
+    @Shadow @Final private Map<UUID, T> byUuid;
+
+    @Unique
+    private final EntityTypeIndex typeIndex = new EntityTypeIndex();
+
+    @Inject(method = "add", at = @At("RETURN"))
+    private void indexAddedEntity(T entity, CallbackInfo ci)
+    {
+        // entities with duplicate uuids are not added
+        if (entity instanceof Entity added && byUuid.get(entity.getUUID()) == entity)
+        {
+            typeIndex.add(added);
+        }
+    }
+
+    @Inject(method = "remove", at = @At("HEAD"))
+    private void unindexRemovedEntity(T entity, CallbackInfo ci)
+    {
+        // lookup removes whatever is stored under the uuid
+        if (byUuid.get(entity.getUUID()) instanceof Entity removed)
+        {
+            typeIndex.remove(removed);
+        }
+    }
+
+    @Override
+    public EntityTypeIndex getTypeIndexCM()
+    {
+        return typeIndex;
+    }
+}
@@ -1,6 +1,8 @@
 package carpet.mixins;
 
+import carpet.fakes.EntityLookupInterface;
 import carpet.fakes.SimpleEntityLookupInterface;
+import carpet.utils.EntityTypeIndex;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
@@ -9,6 +11,7 @@ import java.util.List;
 import java.util.stream.Collectors;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.entity.EntityAccess;
+import net.minecraft.world.level.entity.EntityLookup;
 import net.minecraft.world.level.entity.EntitySection;
 import net.minecraft.world.level.entity.EntitySectionStorage;
 import net.minecraft.world.level.entity.LevelEntityGetterAdapter;
@@ -19,10 +22,15 @@ public class LevelEntityGetterAdapter_scarpetMixin<T extends EntityAccess> imple
 
     @Shadow @Final private EntitySectionStorage<T> sectionStorage;
 
+    @Shadow @Final private EntityLookup<T> visibleEntities;
+
     @Override
     public List<T> getChunkEntities(ChunkPos chpos) {
         return this.sectionStorage.getExistingSectionsInChunk(chpos.pack()).flatMap(EntitySection::getEntities).collect(Collectors.toList());
     }
-}
-
 
+    @Override
+    public EntityTypeIndex getTypeIndex() {
+        return ((EntityLookupInterface) this.visibleEntities).getTypeIndexCM();
+    }
+}
@@ -0,0 +1,23 @@
+package carpet.mixins;
+
+import carpet.fakes.LevelInterface;
+import carpet.fakes.SimpleEntityLookupInterface;
+import carpet.utils.EntityTypeIndex;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.entity.LevelEntityGetter;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+
+@Mixin(Level.class)
+public abstract class Level_entityTypeIndexMixin implements LevelInterface
+{
+    @Shadow
+    protected abstract LevelEntityGetter<Entity> getEntities();
+
+    @Override
+    public EntityTypeIndex getEntityTypeIndexCM()
+    {
+        return ((SimpleEntityLookupInterface<?>) getEntities()).getTypeIndex();
+    }
+}
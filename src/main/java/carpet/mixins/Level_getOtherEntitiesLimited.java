@@ -1,58 +1,39 @@
 package carpet.mixins;
 
 import carpet.fakes.LevelInterface;
-import com.google.common.collect.Lists;
+import carpet.utils.LimitedEntityCollector;
 import net.minecraft.util.profiling.Profiler;
 import org.jetbrains.annotations.Nullable;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
 
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import net.minecraft.world.entity.Entity;
-import net.minecraft.world.entity.boss.enderdragon.EnderDragonPart;
 import net.minecraft.world.entity.boss.enderdragon.EnderDragon;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.level.entity.EntityTypeTest;
 import net.minecraft.world.level.entity.LevelEntityGetter;
 import net.minecraft.world.phys.AABB;
 
 @Mixin(Level.class)
 public abstract class Level_getOtherEntitiesLimited implements LevelInterface {
 
-    private static final RuntimeException CONTROL_FLOW_EXCEPTION = new RuntimeException("Should be caught for control flow in World_getOtherEntitiesLimited!");
+    @Unique
+    private static final EntityTypeTest<Entity, Entity> ANY_ENTITY = EntityTypeTest.forClass(Entity.class);
+
+    // collisions are checked for thousands of entities each tick, so the collector is reused
+    @Unique
+    private static final ThreadLocal<LimitedEntityCollector<Entity>> LIMITED_COLLECTOR = ThreadLocal.withInitial(() ->
+            new LimitedEntityCollector<>(entity -> entity instanceof EnderDragon dragon ? dragon.getSubEntities() : null));
 
     @Override
-    public List<Entity> getOtherEntitiesLimited(@Nullable Entity except, AABB box, Predicate<? super Entity> predicate, int limit) {
+    public void getOtherEntitiesLimited(@Nullable Entity except, AABB box, Predicate<? super Entity> predicate, int limit, List<Entity> result) {
         Profiler.get().incrementCounter("getEntities"); // visit
-        AtomicInteger checkedEntities = new AtomicInteger();
-        List<Entity> list = Lists.newArrayList();
-        try {
-            this.getEntities().get(box, (entity) -> {
-                if (checkedEntities.getAndIncrement() > limit) {
-                    throw CONTROL_FLOW_EXCEPTION;
-                }
-
-                if (entity != except && predicate.test(entity)) {
-                    list.add(entity);
-                }
-
-                if (entity instanceof EnderDragon) {
-                    EnderDragonPart[] var4 = ((EnderDragon) entity).getSubEntities();
-
-                    for (EnderDragonPart enderDragonPart : var4) {
-                        if (entity != except && predicate.test(enderDragonPart)) {
-                            list.add(enderDragonPart);
-                        }
-                    }
-                }
-            });
-        } catch (RuntimeException e) {
-            if (e != CONTROL_FLOW_EXCEPTION)
-                // If it wasn't the exception we were watching, rethrow it
-                throw e;
-        }
-        return list;
+        LimitedEntityCollector<Entity> collector = LIMITED_COLLECTOR.get();
+        this.getEntities().get(ANY_ENTITY, box, collector.reset(except, predicate, limit, result));
+        collector.clear();
     }
 
     @Shadow
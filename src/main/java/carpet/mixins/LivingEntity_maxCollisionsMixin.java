@@ -6,10 +6,12 @@ import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.level.gamerules.GameRules;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
+import java.util.ArrayList;
 import java.util.List;
 import net.minecraft.world.entity.Entity;
 import net.minecraft.world.entity.EntitySelector;
@@ -26,6 +28,10 @@ public abstract class LivingEntity_maxCollisionsMixin extends Entity
         super(entityType_1, world_1);
     }
 
+    // only used until pushing is done, and pushing doesn't push further entities, so it is reused
+    @Unique
+    private static final ThreadLocal<List<Entity>> COLLIDING_ENTITIES = ThreadLocal.withInitial(ArrayList::new);
+
     @Shadow protected abstract void doPush(Entity entity_1);
 
     @Inject(method = "pushEntities", cancellable = true, at = @At("HEAD"))
@@ -45,11 +51,14 @@ public abstract class LivingEntity_maxCollisionsMixin extends Entity
         if (CarpetSettings.maxEntityCollisions > 0)
         {
             maxEntityCramming = serverLevel.getGameRules().get(GameRules.MAX_ENTITY_CRAMMING);
-            entities = ((LevelInterface) serverLevel).getOtherEntitiesLimited(
+            entities = COLLIDING_ENTITIES.get();
+            entities.clear();
+            ((LevelInterface) serverLevel).getOtherEntitiesLimited(
                     this,
                     this.getBoundingBox(),
                     EntitySelector.pushableBy(this),
-                    Math.max(CarpetSettings.maxEntityCollisions, maxEntityCramming));
+                    Math.max(CarpetSettings.maxEntityCollisions, maxEntityCramming),
+                    entities);
         }
         else
         {
@@ -6,7 +6,6 @@ import carpet.utils.SpawnReporter;
 import net.minecraft.world.entity.EntitySpawnReason;
 import com.llamalad7.mixinextras.injector.wrapoperation.Operation;
 import com.llamalad7.mixinextras.injector.wrapoperation.WrapOperation;
-import org.apache.commons.lang3.tuple.Pair;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
@@ -18,7 +17,6 @@ import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import java.util.List;
 import java.util.Map;
 import net.minecraft.core.BlockPos;
-import net.minecraft.resources.ResourceKey;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.tags.BlockTags;
 import net.minecraft.util.Mth;
@@ -163,7 +161,7 @@ public class NaturalSpawnerMixin
             // we used the mob - next time we will create a new one when needed
             ((LevelInterface) world).getPrecookedMobs().remove(entity_1.getType());
 
-        if (SpawnReporter.trackingSpawns() && SpawnReporter.local_spawns != null)
+        if (SpawnReporter.trackingSpawns() && SpawnReporter.cycle_stats != null)
         {
             SpawnReporter.registerSpawn(
                     //world.method_27983(), // getDimensionType //dimension.getType(), // getDimensionType
@@ -211,7 +209,7 @@ public class NaturalSpawnerMixin
     // inject our repeat of spawns if more spawn ticks per tick are chosen.
     private static void spawnMultipleTimes(MobCategory category, ServerLevel world, LevelChunk chunk, NaturalSpawner.SpawnPredicate checker, NaturalSpawner.AfterSpawnCallback runner)
     {
-        for (int i = 0; i < SpawnReporter.spawn_tries.get(category); i++)
+        for (int i = 0; i < SpawnReporter.spawn_tries[category.ordinal()]; i++)
         {
             NaturalSpawner.spawnCategoryForChunk(category, world, chunk, checker, runner);
         }
@@ -275,28 +273,23 @@ public class NaturalSpawnerMixin
     private static void checkSpawns(ServerLevel world, LevelChunk chunk, NaturalSpawner.SpawnState info,
                                     List<MobCategory> list, CallbackInfo ci)
     {
-        if (SpawnReporter.trackingSpawns())
+        SpawnReporter.DimensionStats stats = SpawnReporter.cycle_stats;
+        if (SpawnReporter.trackingSpawns() && stats != null)
         {
+            int int_2 = SpawnReporter.chunkCounts.getInt(world.dimension()); // eligible chunks for spawning
             for (MobCategory entityCategory: list)
             {
-
-                    ResourceKey<Level> dim = world.dimension(); // getDimensionType;
+                    int i = entityCategory.ordinal();
                     int newCap = entityCategory.getMaxInstancesPerChunk();  //(int) ((double)entityCategory.getCapacity()*(Math.pow(2.0,(SpawnReporter.mobcap_exponent/4))));
-                    int int_2 = SpawnReporter.chunkCounts.get(dim); // eligible chunks for spawning
                     int int_3 = newCap * int_2 / MAGIC_NUMBER; //current spawning limits
                     int mobCount = info.getMobCategoryCounts().getInt(entityCategory);
 
-                    if (SpawnReporter.trackingSpawns() && !SpawnReporter.first_chunk_marker.contains(entityCategory))
+                    if (!SpawnReporter.first_chunk_marker[i])
                     {
-                        SpawnReporter.first_chunk_marker.add(entityCategory);
+                        SpawnReporter.first_chunk_marker[i] = true;
                         //first chunk with spawn eligibility for that category
-                        Pair<ResourceKey<Level>, MobCategory> key = Pair.of(dim, entityCategory);
-
-                        int spawnTries = SpawnReporter.spawn_tries.get(entityCategory);
-
-                        SpawnReporter.spawn_attempts.addTo(key, spawnTries);
-
-                        SpawnReporter.spawn_cap_count.addTo(key, mobCount);
+                        stats.spawn_attempts[i] += SpawnReporter.spawn_tries[i];
+                        stats.spawn_cap_count[i] += mobCount;
                     }
 
                     if (mobCount <= int_3 || SpawnReporter.mockSpawns) //TODO this will not float with player based mobcaps
@@ -304,10 +297,11 @@ public class NaturalSpawnerMixin
                         //place 0 to indicate there were spawn attempts for a category
                         //if (entityCategory != EntityCategory.CREATURE || world.getServer().getTicks() % 400 == 0)
                         // this will only be called once every 400 ticks anyways
-                        SpawnReporter.local_spawns.putIfAbsent(entityCategory, 0L);
+                        if (SpawnReporter.local_spawns[i] < 0)
+                            SpawnReporter.local_spawns[i] = 0L;
 
                         //else
-                        //full mobcaps - and key in local_spawns will be missing
+                        //full mobcaps - and local_spawns will stay at -1
                     }
             }
         }
@@ -0,0 +1,37 @@
+package carpet.mixins;
+
+import carpet.logging.logHelpers.PacketCounter;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import net.minecraft.network.PacketDecoder;
+import net.minecraft.network.protocol.Packet;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import java.util.List;
+
+@Mixin(PacketDecoder.class)
+public class PacketDecoder_packetCounterMixin
+{
+    // decoders are used by a single channel, so by a single thread
+    @Unique
+    private int startIndex;
+
+    @Inject(method = "decode", at = @At("HEAD"))
+    private void markPacketStart(ChannelHandlerContext ctx, ByteBuf in, List<Object> out, CallbackInfo ci)
+    {
+        startIndex = in.readerIndex();
+    }
+
+    @Inject(method = "decode", at = @At("RETURN"))
+    private void countPacketBytes(ChannelHandlerContext ctx, ByteBuf in, List<Object> out, CallbackInfo ci)
+    {
+        if (!out.isEmpty() && out.get(out.size() - 1) instanceof Packet<?> packet)
+        {
+            PacketCounter.decoded(ctx.channel(), packet, in.readerIndex() - startIndex);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package carpet.mixins;
+
+import carpet.logging.logHelpers.PacketCounter;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import net.minecraft.network.PacketEncoder;
+import net.minecraft.network.protocol.Packet;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(PacketEncoder.class)
+public class PacketEncoder_packetCounterMixin
+{
+    // encoders are used by a single channel, so by a single thread
+    @Unique
+    private int startIndex;
+
+    @Inject(method = "encode(Lio/netty/channel/ChannelHandlerContext;Lnet/minecraft/network/protocol/Packet;Lio/netty/buffer/ByteBuf;)V", at = @At("HEAD"))
+    private void markPacketStart(ChannelHandlerContext ctx, Packet<?> packet, ByteBuf out, CallbackInfo ci)
+    {
+        startIndex = out.writerIndex();
+    }
+
+    @Inject(method = "encode(Lio/netty/channel/ChannelHandlerContext;Lnet/minecraft/network/protocol/Packet;Lio/netty/buffer/ByteBuf;)V", at = @At("RETURN"))
+    private void countPacketBytes(ChannelHandlerContext ctx, Packet<?> packet, ByteBuf out, CallbackInfo ci)
+    {
+        PacketCounter.encoded(ctx.channel(), packet, out.writerIndex() - startIndex);
+    }
+}
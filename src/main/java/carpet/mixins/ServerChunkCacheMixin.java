@@ -1,8 +1,6 @@
 package carpet.mixins;
 
 import carpet.utils.SpawnReporter;
-import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
-import org.apache.commons.lang3.tuple.Pair;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
@@ -11,12 +9,10 @@ import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.Redirect;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
-import java.util.HashSet;
 import net.minecraft.resources.ResourceKey;
 import net.minecraft.server.level.DistanceManager;
 import net.minecraft.server.level.ServerChunkCache;
 import net.minecraft.server.level.ServerLevel;
-import net.minecraft.world.entity.MobCategory;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.storage.LevelData;
 
@@ -42,13 +38,7 @@ public abstract class ServerChunkCacheMixin
         if (SpawnReporter.trackingSpawns())
         {
             //local spawns now need to be tracked globally cause each calll is just for chunk
-            SpawnReporter.local_spawns = new Object2LongOpenHashMap<>();
-            SpawnReporter.first_chunk_marker = new HashSet<>();
-            for (MobCategory cat : SpawnReporter.cachedMobCategories())
-            {
-                Pair<ResourceKey<Level>, MobCategory> key = Pair.of(dim, cat);
-                SpawnReporter.overall_spawn_ticks.addTo(key, SpawnReporter.spawn_tries.get(cat));
-            }
+            SpawnReporter.startSpawnCycle(dim);
         }
         return j;
     }
@@ -59,41 +49,7 @@ public abstract class ServerChunkCacheMixin
     {
         LevelData levelData = this.level.getLevelData(); // levelProperies class
         boolean boolean_3 = levelData.getGameTime() % 400L == 0L;
-        if (SpawnReporter.trackingSpawns() && SpawnReporter.local_spawns != null)
-        {
-            for (MobCategory cat: SpawnReporter.cachedMobCategories())
-            {
-                ResourceKey<Level> dim = level.dimension(); // getDimensionType;
-                Pair<ResourceKey<Level>, MobCategory> key = Pair.of(dim, cat);
-                int spawnTries = SpawnReporter.spawn_tries.get(cat);
-                if (!SpawnReporter.local_spawns.containsKey(cat))
-                {
-                    if (!cat.isPersistent() || boolean_3) // isAnimal
-                    {
-                        // fill mobcaps for that category so spawn got cancelled
-                        SpawnReporter.spawn_ticks_full.addTo(key, spawnTries);
-                    }
-
-                }
-                else if (SpawnReporter.local_spawns.getLong(cat) > 0)
-                {
-                    // tick spawned mobs for that type
-                    SpawnReporter.spawn_ticks_succ.addTo(key, spawnTries);
-                    SpawnReporter.spawn_ticks_spawns.addTo(key, SpawnReporter.local_spawns.getLong(cat));
-                        // this will be off comparing to 1.13 as that would succeed if
-                        // ANY tries in that round were successful.
-                        // there will be much more difficult to mix in
-                        // considering spawn tries to remove, as with warp
-                        // there is little need for them anyways.
-                }
-                else // spawn no mobs despite trying
-                {
-                    //tick didn's spawn mobs of that type
-                    SpawnReporter.spawn_ticks_fail.addTo(key, spawnTries);
-                }
-            }
-        }
-        SpawnReporter.local_spawns = null;
+        SpawnReporter.endSpawnCycle(boolean_3);
     }
 
 
@@ -39,6 +39,8 @@ public class CarpetClient
 
     public static final String HI = "69";
     public static final String HELLO = "420";
+    public static final String SHAPE_CODEC = "shapeCodec";
+    public static final String SHAPE_REFRESH = "shapeRefresh";
 
     public static ShapesRenderer shapes = null;
 
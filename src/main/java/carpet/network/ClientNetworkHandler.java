@@ -6,12 +6,16 @@ import carpet.CarpetSettings;
 import carpet.api.settings.CarpetRule;
 import carpet.api.settings.InvalidRuleValueException;
 import carpet.api.settings.SettingsManager;
+import carpet.script.utils.ShapeCodec;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.BiConsumer;
 
 import net.minecraft.client.player.LocalPlayer;
+import net.minecraft.nbt.ByteArrayTag;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
 import net.minecraft.nbt.Tag;
@@ -83,6 +87,19 @@ public class ClientNetworkHandler
                 CarpetClient.shapes.addShapes((ListTag) t);
             }
         });
+        dataHandlers.put("scShapesBin", (p, t) -> {
+            if (CarpetClient.shapes != null)
+            {
+                try
+                {
+                    CarpetClient.shapes.addShapes(ShapeCodec.decode(((ByteArrayTag) t).getAsByteArray()));
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
         dataHandlers.put("clientCommand", (p, t) -> CarpetClient.onClientCommand(t));
     }
 
@@ -109,6 +126,8 @@ public class ClientNetworkHandler
     {
         CompoundTag data = new CompoundTag();
         data.putString(CarpetClient.HELLO, CarpetSettings.carpetVersion);
+        data.putInt(CarpetClient.SHAPE_CODEC, ShapeCodec.ID);
+        data.putBoolean(CarpetClient.SHAPE_REFRESH, true);
         CarpetClient.getPlayer().connection.send(new ServerboundCustomPayloadPacket(
                 new CarpetClient.CarpetPayload(data)
         ));
@@ -5,6 +5,7 @@ import carpet.CarpetSettings;
 import carpet.api.settings.CarpetRule;
 import carpet.api.settings.RuleHelper;
 import carpet.fakes.ServerGamePacketListenerImplInterface;
+import carpet.script.utils.ShapeCodec;
 import carpet.script.utils.SnoopyCommandSource;
 
 import java.util.ArrayList;
@@ -29,9 +30,13 @@ public class ServerNetworkHandler
 {
     private static final Map<ServerPlayer, String> remoteCarpetPlayers = new HashMap<>();
     private static final Set<ServerPlayer> validCarpetPlayers = new HashSet<>();
+    private static final Set<ServerPlayer> compactShapePlayers = new HashSet<>();
+    private static final Set<ServerPlayer> shapeRefreshPlayers = new HashSet<>();
 
     private static final Map<String, BiConsumer<ServerPlayer, Tag>> dataHandlers = Map.of(
             CarpetClient.HELLO, (p, t) -> onHello(p, t.asString().orElseThrow()),
+            CarpetClient.SHAPE_CODEC, (p, t) -> onShapeCodec(p, t.asInt().orElse(0)),
+            CarpetClient.SHAPE_REFRESH, (p, t) -> onShapeRefresh(p, t.asBoolean().orElse(false)),
             "clientCommand", (p, t) -> handleClientCommand(p, (CompoundTag) t)
     );
 
@@ -66,6 +71,22 @@ public class ServerNetworkHandler
         playerEntity.connection.send(data.build());
     }
 
+    private static void onShapeCodec(ServerPlayer player, int codec)
+    {
+        if (codec == ShapeCodec.ID)
+        {
+            compactShapePlayers.add(player);
+        }
+    }
+
+    private static void onShapeRefresh(ServerPlayer player, boolean supported)
+    {
+        if (supported)
+        {
+            shapeRefreshPlayers.add(player);
+        }
+    }
+
     public static void sendPlayerLevelData(ServerPlayer player, ServerLevel level)
     {
         if (CarpetSettings.superSecretSetting || !validCarpetPlayers.contains(player))
@@ -164,6 +185,8 @@ public class ServerNetworkHandler
     public static void onPlayerLoggedOut(ServerPlayer player)
     {
         validCarpetPlayers.remove(player);
+        compactShapePlayers.remove(player);
+        shapeRefreshPlayers.remove(player);
         if (!((ServerGamePacketListenerImplInterface) player.connection).getConnection().isMemoryConnection())
         {
             remoteCarpetPlayers.remove(player);
@@ -174,6 +197,8 @@ public class ServerNetworkHandler
     {
         remoteCarpetPlayers.clear();
         validCarpetPlayers.clear();
+        compactShapePlayers.clear();
+        shapeRefreshPlayers.clear();
     }
 
     public static boolean isValidCarpetPlayer(ServerPlayer player)
@@ -186,6 +211,22 @@ public class ServerNetworkHandler
 
     }
 
+    /**
+     * @return whether the player's client can read shapes in the compact form of {@link ShapeCodec}
+     */
+    public static boolean acceptsCompactShapes(ServerPlayer player)
+    {
+        return compactShapePlayers.contains(player);
+    }
+
+    /**
+     * @return whether the player's client can extend expiry of shapes it has from their keys, without getting them again
+     */
+    public static boolean acceptsShapeRefresh(ServerPlayer player)
+    {
+        return shapeRefreshPlayers.contains(player);
+    }
+
     public static String getPlayerStatus(ServerPlayer player)
     {
         if (remoteCarpetPlayers.containsKey(player))
@@ -36,6 +36,17 @@ public class CarpetContext extends Context
         return new CarpetContext(this.host, this.s, this.origin);
     }
 
+    @Override
+    public boolean reuseFor(Context parent)
+    {
+        if (!(parent instanceof CarpetContext carpetParent) || !origin.equals(carpetParent.origin) || !super.reuseFor(parent))
+        {
+            return false;
+        }
+        s = carpetParent.s;
+        return true;
+    }
+
     @Override
     protected void initialize()
     {
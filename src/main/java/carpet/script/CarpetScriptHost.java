@@ -874,6 +874,7 @@ public class CarpetScriptHost extends ScriptHost
             }
             throw new CarpetExpressionException(error, null);
         }
+        Runnable token = Carpet.startAppProfilerSection(getName());
         try
         {
             assertAppIntegrity(function.getModule());
@@ -888,6 +889,10 @@ public class CarpetScriptHost extends ScriptHost
         {
             throw new CarpetExpressionException(e.getMessage(), e.stack);
         }
+        finally
+        {
+            token.run();
+        }
     }
 
     public Value callUDF(CommandSourceStack source, FunctionValue fun, List<Value> argv) throws InvalidCallbackException, IntegrityException
@@ -911,6 +916,7 @@ public class CarpetScriptHost extends ScriptHost
         {
             throw new InvalidCallbackException();
         }
+        Runnable token = Carpet.startAppProfilerSection(getName());
         try
         {
             assertAppIntegrity(fun.getModule());
@@ -924,6 +930,10 @@ public class CarpetScriptHost extends ScriptHost
         {
             handleExpressionException("Callback failed", e);
         }
+        finally
+        {
+            token.run();
+        }
         return Value.NULL;
     }
 
@@ -19,6 +19,7 @@ import carpet.script.language.Loops;
 import carpet.script.language.Sys;
 import carpet.script.language.Threading;
 import carpet.script.utils.AppStoreManager;
+import carpet.script.utils.ShapeDispatcher;
 import carpet.script.value.FunctionValue;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import com.mojang.brigadier.tree.CommandNode;
@@ -123,6 +124,7 @@ public class CarpetScriptServer extends ScriptServer
         stopAll = false;
         holyMoly = server.getCommands().getDispatcher().getRoot().getChildren().stream().map(CommandNode::getName).collect(Collectors.toSet());
         globalHost = CarpetScriptHost.create(this, null, false, null, p -> true, false, null, Expression.LoadOverride.DEFAULT);
+        Carpet.registerScarpetMetrics(this);
     }
 
     public void initializeForWorld()
@@ -413,6 +415,7 @@ public class CarpetScriptServer extends ScriptServer
             host.tick();
         }
         token.run();
+        ShapeDispatcher.sendPendingShapes(server);
     }
 
     public void onClose()
@@ -423,6 +426,7 @@ public class CarpetScriptServer extends ScriptServer
             host.onClose();
             events.removeAllHostEvents(host);
         }
+        Carpet.unregisterScarpetMetrics();
         stopAll = true;
     }
 
@@ -4,6 +4,7 @@ import carpet.script.exception.InternalExpressionException;
 import carpet.script.value.ThreadValue;
 import carpet.script.value.Value;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -29,6 +30,9 @@ public class Context
 
     public Map<String, LazyValue> variables = new HashMap<>();
 
+    // values of expressions shared by the optimizer, by their slots
+    private Value[] sharedValues = null;
+
     public final ScriptHost host;
 
     private ThreadValue threadContext = null;
@@ -53,6 +57,27 @@ public class Context
         variables.remove(variable);
     }
 
+    /**
+     * @return value of the shared expression computed in this frame, or null if it wasn't computed since it was last bound
+     */
+    public Value getSharedValue(int slot)
+    {
+        return sharedValues == null || slot >= sharedValues.length ? null : sharedValues[slot];
+    }
+
+    public void setSharedValue(int slot, Value value)
+    {
+        if (sharedValues == null || slot >= sharedValues.length)
+        {
+            if (value == null)
+            {
+                return;
+            }
+            sharedValues = sharedValues == null ? new Value[slot + 1] : Arrays.copyOf(sharedValues, Math.max(slot + 1, 2 * sharedValues.length));
+        }
+        sharedValues[slot] = value;
+    }
+
     public void removeVariablesMatching(String varname)
     {
         variables.entrySet().removeIf(e -> e.getKey().startsWith(varname));
@@ -77,6 +102,28 @@ public class Context
         return ctx;
     }
 
+    /**
+     * Makes this frame, which finished its call and isn't referenced anymore, fresh again for a call from the
+     * given context, like {@link #recreate()} would
+     *
+     * @return false if the frame can't be used for calls from that context
+     */
+    public boolean reuseFor(Context parent)
+    {
+        if (parent.host != host || parent.getClass() != getClass())
+        {
+            return false;
+        }
+        variables.clear();
+        if (sharedValues != null)
+        {
+            Arrays.fill(sharedValues, null);
+        }
+        threadContext = parent.threadContext;
+        initialize();
+        return true;
+    }
+
     public void setThreadContext(ThreadValue callingThread)
     {
         this.threadContext = callingThread;
@@ -157,6 +204,19 @@ public class Context
             badProgrammer();
         }
 
+        @Override
+        public Value getSharedValue(int slot)
+        {
+            badProgrammer();
+            return null;
+        }
+
+        @Override
+        public void setSharedValue(int slot, Value value)
+        {
+            badProgrammer();
+        }
+
         @Override
         public void removeVariablesMatching(String varname)
         {
@@ -11,6 +11,7 @@ import carpet.script.Fluff.QuadFunction;
 import carpet.script.Fluff.QuinnFunction;
 import carpet.script.Fluff.SexFunction;
 import carpet.script.Fluff.TriFunction;
+import carpet.script.argument.FunctionArgument;
 import carpet.script.exception.BreakStatement;
 import carpet.script.exception.ContinueStatement;
 import carpet.script.exception.ExitStatement;
@@ -27,9 +28,11 @@ import carpet.script.language.Loops;
 import carpet.script.language.Operators;
 import carpet.script.language.Sys;
 import carpet.script.language.Threading;
+import carpet.script.value.BooleanValue;
 import carpet.script.value.FunctionValue;
 import carpet.script.value.NumericValue;
 import carpet.script.value.StringValue;
+import carpet.script.value.TailCallValue;
 import carpet.script.value.Value;
 import it.unimi.dsi.fastutil.Stack;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
@@ -40,13 +43,19 @@ import org.apache.commons.lang3.tuple.Pair;
 
 import org.jspecify.annotations.Nullable;
 import java.math.BigInteger;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
 import java.util.function.DoubleBinaryOperator;
 import java.util.function.DoubleToLongFunction;
@@ -54,6 +63,8 @@ import java.util.function.DoubleUnaryOperator;
 import java.util.function.Function;
 import java.util.function.LongBinaryOperator;
 import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
 
 public class Expression
@@ -118,6 +129,60 @@ public class Expression
 
     private final Map<String, String> functionalEquivalence = new Object2ObjectOpenHashMap<>();
     private final Map<String, String> functionalAliases = new Object2ObjectOpenHashMap<>();
+    private final Map<String, ConstantArgument> constantArguments = new Object2ObjectOpenHashMap<>();
+
+    private record ConstantArgument(int index, UnaryOperator<Value> binder)
+    {
+    }
+
+    /**
+     * Internal function used by the optimizer to bind an expression to a synthetic variable, computed on first read.
+     * Its name can't be produced by the tokenizer, so it is not accessible from scarpet code.
+     */
+    private static final String MEMO_FUNCTION = "$memo";
+    private static final int INLINED_FUNCTION_MAX_SIZE = 16;
+    private static final int SHARED_EXPRESSION_MIN_SIZE = 4;
+    private static final int HOISTED_EXPRESSION_MIN_SIZE = 3;
+    // impure functions that neither assign variables, nor modify values passed to them
+    private static final Set<String> TRANSPARENT_FUNCTIONS = Set.of(
+            "if", "try", "for", "while", "c_for", "map", "filter", "first", "all", "loop", "reduce", "break", "continue", "return"
+    );
+    private static final Set<String> ASSIGNMENTS = Set.of("=", "assign", "+=", "append");
+    private int syntheticVariables = 0;
+    private final Map<String, SharedExpression> sharedExpressions = new HashMap<>();
+
+    private final Set<String> numericFunctions = new HashSet<>();
+    private static final Map<String, BinaryOperator<NumericValue>> NUMERIC_ARITHMETIC = new HashMap<>()
+    {{
+        put("+", NumericValue::add);
+        put("sum", NumericValue::add);
+        put("-", NumericValue::subtract);
+        put("difference", NumericValue::subtract);
+        put("*", NumericValue::multiply);
+        put("product", NumericValue::multiply);
+        put("/", NumericValue::divide);
+        put("quotient", NumericValue::divide);
+    }};
+    // comparisons with chained functional equivalents, 'unique' compares all values, not just neighbours
+    private static final Map<String, BiPredicate<NumericValue, NumericValue>> NUMERIC_COMPARISONS = new HashMap<>()
+    {{
+        put(">", (a, b) -> a.compareNumber(b) > 0);
+        put("decreasing", (a, b) -> a.compareNumber(b) > 0);
+        put(">=", (a, b) -> a.compareNumber(b) >= 0);
+        put("nonincreasing", (a, b) -> a.compareNumber(b) >= 0);
+        put("<", (a, b) -> a.compareNumber(b) < 0);
+        put("increasing", (a, b) -> a.compareNumber(b) < 0);
+        put("<=", (a, b) -> a.compareNumber(b) <= 0);
+        put("nondecreasing", (a, b) -> a.compareNumber(b) <= 0);
+        put("==", NumericValue::equalsNumber);
+        put("equal", NumericValue::equalsNumber);
+        put("!=", (a, b) -> !a.equalsNumber(b));
+    }};
+
+    public static boolean isSyntheticVariable(String name)
+    {
+        return name.startsWith("$");
+    }
 
     private void addFunctionalEquivalence(String operator, String function)
     {
@@ -792,24 +857,36 @@ public class Expression
         });
     }
 
+    /**
+     * @return true if the built-in function always returns a number
+     */
+    boolean returnsNumber(String function)
+    {
+        return numericFunctions.contains(function);
+    }
+
     public void addMathematicalUnaryFunction(String name, DoubleUnaryOperator fun)
     {
+        numericFunctions.add(name);
         addUnaryFunction(name, (v) -> new NumericValue(fun.applyAsDouble(NumericValue.asNumber(v).getDouble())));
     }
 
     public void addMathematicalUnaryIntFunction(String name, DoubleToLongFunction fun)
     {
+        numericFunctions.add(name);
         addUnaryFunction(name, (v) -> new NumericValue(fun.applyAsLong(NumericValue.asNumber(v).getDouble())));
     }
 
     public void addMathematicalBinaryIntFunction(String name, LongBinaryOperator fun)
     {
+        numericFunctions.add(name);
         addBinaryFunction(name, (w, v) ->
                 new NumericValue(fun.applyAsLong(NumericValue.asNumber(w).getLong(), NumericValue.asNumber(v).getLong())));
     }
 
     public void addMathematicalBinaryFunction(String name, DoubleBinaryOperator fun)
     {
+        numericFunctions.add(name);
         addBinaryFunction(name, (w, v) ->
                 new NumericValue(fun.applyAsDouble(NumericValue.asNumber(w).getDouble(), NumericValue.asNumber(v).getDouble())));
     }
@@ -885,6 +962,16 @@ public class Expression
         });
     }
 
+    /**
+     * Lets a function prepare its constant argument once, when the code is optimized, instead of on each call.
+     * The binder returns the value used in place of the constant. It can throw {@link InternalExpressionException}
+     * for arguments that would always fail, which warns about them when the code is loaded, leaving the argument as it was.
+     */
+    public void addConstantArgumentBinder(String function, int index, UnaryOperator<Value> binder)
+    {
+        constantArguments.put(function, new ConstantArgument(index, binder));
+    }
+
     public void addContextFunction(String name, int num_params, TriFunction<Context, Context.Type, List<Value>, Value> fun)
     {
         functions.put(name, new AbstractLazyFunction(num_params, name)
@@ -957,6 +1044,11 @@ public class Expression
     }
 
     public FunctionValue createUserDefinedFunction(Context context, String name, Expression expr, Token token, List<String> arguments, String varArgs, List<String> outers, LazyValue code)
+    {
+        return createUserDefinedFunction(context, name, expr, token, arguments, varArgs, outers, code, false);
+    }
+
+    public FunctionValue createUserDefinedFunction(Context context, String name, Expression expr, Token token, List<String> arguments, String varArgs, List<String> outers, LazyValue code, boolean memoized)
     {
         if (functions.containsKey(name))
         {
@@ -980,7 +1072,7 @@ public class Expression
             contextValues = null;
         }
 
-        FunctionValue result = new FunctionValue(expr, token, name, code, arguments, varArgs, contextValues);
+        FunctionValue result = new FunctionValue(expr, token, name, code, arguments, varArgs, contextValues, memoized);
         // do not store lambda definitions
         if (!name.equals("_"))
         {
@@ -1034,6 +1126,80 @@ public class Expression
     }
 
 
+    /**
+     * Reads a variable. References to globals are linked to the variable holder on first use, and linked again
+     * only when global definitions or imports of the app change.
+     */
+    private LazyValue variableOp(String name)
+    {
+        SharedExpression shared = sharedExpressions.get(name);
+        if (shared != null)
+        {
+            return shared;
+        }
+        if (!name.startsWith("global_"))
+        {
+            return (c, t) -> getOrSetAnyVariable(c, name).evalValue(c, t);
+        }
+        return new LazyValue()
+        {
+            private ScriptHost.@Nullable Link<ScriptHost.GlobalVariable> link = null;
+
+            @Override
+            public Value evalValue(Context c, Context.Type type)
+            {
+                ScriptHost.Link<ScriptHost.GlobalVariable> current = link;
+                if (current == null || !current.isValidFor(c.host))
+                {
+                    current = c.host.linkGlobalVariable(module, name);
+                    if (current == null)
+                    {
+                        // not defined yet
+                        return getOrSetAnyVariable(c, name).evalValue(c, type);
+                    }
+                    link = current;
+                }
+                return current.target().value.evalValue(c, type);
+            }
+        };
+    }
+
+    /**
+     * Calls a user function with a known name. The call is linked to the function on first use, and linked again
+     * only when functions or imports of the app change. Tail calls are not made right away, but returned to
+     * the calling function as {@link TailCallValue}.
+     */
+    private LazyValue linkedCallOp(Token token, ILazyFunction call, List<LazyValue> params, String name, boolean tail)
+    {
+        return new LazyValue()
+        {
+            private ScriptHost.@Nullable Link<FunctionValue> link = null;
+
+            @Override
+            public Value evalValue(Context c, Context.Type type)
+            {
+                if (type == Context.SIGNATURE)
+                {
+                    return call.lazyEval(c, type, Expression.this, token, params).evalValue(c, type);
+                }
+                List<Value> args = Fluff.AbstractFunction.unpackLazy(params, c, Context.NONE);
+                ScriptHost.Link<FunctionValue> current = link;
+                if (current == null || !current.isValidFor(c.host))
+                {
+                    current = c.host.linkFunction(module, name);
+                    link = current;
+                }
+                args.set(0, current.target());
+                FunctionArgument functionArgument = FunctionArgument.findIn(c, module, args, 0, false, true);
+                if (tail)
+                {
+                    return new TailCallValue(functionArgument.function, c, type, Expression.this, token, functionArgument.args);
+                }
+                return functionArgument.function.callInContext(c, type, functionArgument.args).evalValue(c, type);
+            }
+        };
+    }
+
     public void setAnyVariable(Context c, String name, LazyValue lv)
     {
         if (name.startsWith("global_"))
@@ -1083,11 +1249,57 @@ public class Expression
         Threading.apply(this);
         Loops.apply(this);
         DataStructures.apply(this);
+        addOptimizerFunctions();
         for(String op : operators.keySet()) {
             assert functionalAliases.containsKey(op) : "Missing function for operator " + op;
         }
     }
 
+    private void addOptimizerFunctions()
+    {
+        functions.put(MEMO_FUNCTION, new AbstractLazyFunction(2, MEMO_FUNCTION)
+        {
+            @Override
+            public boolean pure()
+            {
+                return false;
+            }
+
+            @Override
+            public boolean transitive()
+            {
+                return false;
+            }
+
+            @Override
+            public LazyValue lazyEval(Context c, Context.Type type, Expression e, Token t, List<LazyValue> lv)
+            {
+                // the expression itself is computed by the first read, see SharedExpression
+                c.setSharedValue(NumericValue.asNumber(lv.get(0).evalValue(c)).getInt(), null);
+                return LazyValue.NULL;
+            }
+        });
+    }
+
+    /**
+     * Reads of an expression shared by the optimizer. It is computed on the first read after its {@link #MEMO_FUNCTION}
+     * binding, and kept in a slot of the frame, so binding it again doesn't allocate anything.
+     */
+    private record SharedExpression(int slot, ExpressionNode binding) implements LazyValue
+    {
+        @Override
+        public Value evalValue(Context c, Context.Type type)
+        {
+            Value computed = c.getSharedValue(slot);
+            if (computed == null)
+            {
+                computed = binding.args.get(1).op.evalValue(c, Context.NONE);
+                c.setSharedValue(slot, computed);
+            }
+            return computed.fromConstant();
+        }
+    }
+
     private String stripExpression(String expression)
     {
         return expression.stripTrailing().replaceAll("\\r\\n?", "\n").replaceAll("\\t", "   ");
@@ -1437,7 +1649,7 @@ public class Expression
                     }
                     else
                     {
-                        ExpressionNode newNode = new ExpressionNode(((c, t) -> getOrSetAnyVariable(c, token.surface).evalValue(c, t)), Collections.emptyList(), token);
+                        ExpressionNode newNode = new ExpressionNode(variableOp(token.surface), Collections.emptyList(), token);
                         token.node = newNode;
                         nodeStack.push(newNode);
                     }
@@ -1475,7 +1687,7 @@ public class Expression
                     }
                     List<LazyValue> params = p.stream().map(n -> n.op).collect(Collectors.toList());
                     ExpressionNode newNode = new ExpressionNode(
-                            (c, t) -> f.lazyEval(c, t, this, token, params).evalValue(c, t),
+                            isKnown ? (c, t) -> f.lazyEval(c, t, this, token, params).evalValue(c, t) : linkedCallOp(token, f, params, name, false),
                             p, token
                     );
                     token.node = newNode;
@@ -1548,7 +1760,7 @@ public class Expression
         if (!optimize) {
             return Pair.of(root, root.op);
         }
-        return Pair.of(root, extractOp(optimizeOnlyContext, root, Context.Type.NONE));
+        return Pair.of(root, extractOp(optimizeOnlyContext, root, Context.Type.NONE, TypeInference.numericNodes(this, root), tailCalls(root)));
     }
 
     private void optimizeTree(ExpressionNode root, Context optimizeOnlyContext, @Nullable Consumer<String> logger, boolean optimize, boolean toFunctional) {
@@ -1601,155 +1813,989 @@ public class Expression
                     logger.accept("Optimized from " + prevTreeSize + " nodes, " + prevTreeDepth + " code depth to " + treeSize(root) + " nodes, " + treeDepth(root) + " code depth");
                 }
             }
-        }
-    }
-
-    public List<Token> explain(Context context, @Nullable String code, @Nullable String method, @Nullable String style)
-    {
-        if (code == null)
-        {
-            ExpressionNode node;
-            if (method != null)
+            if (optimize)
             {
-                FunctionValue function = context.host.getFunction(method);
-                if (function == null) {
-                    throw new ExpressionException(context, this, "Unknown function " + method);
+                // both can expose new constants and operator chains for the passes above
+                if (removeDeadBranches(root, 0, logger))
+                {
+                    changed = true;
                 }
-                node = function.getToken().node;
-                if (node == null) {
-                    throw new ExpressionException(context, this, "Function " + method + " is not a compiled function");
+                if (inlineFunctions(root, logger))
+                {
+                    changed = true;
                 }
-            } else
-            {
-                node = context.host.root;
-            }
-            if (node == null || node.token.type == null) {
-                throw new ExpressionException(context, this, "No code to explain");
-            }
-
-            // grab source reference
-            Tokenizer tokenizer = new Tokenizer(context, this, context.host.main == null ? "" : stripExpression(context.host.main.code()) , true, true);
-            List<Token> input = tokenizer.parseTokens();
-            List<Token> cleanedTokens = Tokenizer.postProcess(input);
-
-            Map<Pair<Integer, Integer>, List<Integer>> tokenPointers = new HashMap<>();
-            for (int i = 0; i < cleanedTokens.size(); i++) {
-                Token token = cleanedTokens.get(i);
-                tokenPointers.computeIfAbsent(Pair.of(token.lineno, token.linepos), k -> new ArrayList<>()).add(i);
             }
-
-            return node.tokensRecursive(this, cleanedTokens, tokenPointers);
         }
-        if (style == null) {
-            style = context.host.loadOverrides.equivalent;
+        if (optimize)
+        {
+            hoistLoopInvariants(root, Context.Type.NONE, 0, logger);
+            eliminateCommonSubexpressions(root, Context.Type.NONE, 0, logger);
+            precompilePatterns(root, 0, logger);
+            bindConstantArguments(optimizeOnlyContext, root, 0, logger);
         }
+    }
 
-        //todo convert to explain
-        Tokenizer tokenizer = new Tokenizer(context, this, stripExpression(code), true, true);
-        // stripping lousy but acceptable semicolons
-        List<Token> input = tokenizer.parseTokens();
-        if (style.equalsIgnoreCase("raw")) {
-            return input;
+    /**
+     * Replaces constant arguments of functions that registered a binder for them, see {@link #addConstantArgumentBinder}
+     */
+    private void bindConstantArguments(Context ctx, ExpressionNode node, int indent, @Nullable Consumer<String> logger)
+    {
+        if (!node.token.type.isFunctional() || node.op instanceof LazyValue.Constant)
+        {
+            return;
         }
-        List<Token> cleanedTokens = Tokenizer.postProcess(input);
-        if (style.equalsIgnoreCase("clean")) {
-            return cleanedTokens;
+        for (ExpressionNode arg : node.args)
+        {
+            bindConstantArguments(ctx, arg, indent + 1, logger);
         }
-
-        List<Token> rpn = shuntingYard(context, cleanedTokens);
-        validate(context, rpn);
-        ExpressionNode root = RPNToParseTree(rpn, context);
-
-        Map<Pair<Integer, Integer>, List<Integer>> tokenPointers = new HashMap<>();
-        for (int i = 0; i < cleanedTokens.size(); i++) {
-            Token token = cleanedTokens.get(i);
-            tokenPointers.computeIfAbsent(Pair.of(token.lineno, token.linepos), k -> new ArrayList<>()).add(i);
+        ConstantArgument constantArgument = node.token.type == Token.TokenType.FUNCTION ? constantArguments.get(node.token.surface) : null;
+        if (constantArgument == null || constantArgument.index() >= node.args.size())
+        {
+            return;
         }
-
-        List<Token> parsedTokens = root.tokensRecursive(this, cleanedTokens, tokenPointers);
-        if (style.equalsIgnoreCase("canonical")) {
-            return parsedTokens;
+        ExpressionNode arg = node.args.get(constantArgument.index());
+        if (!(arg.op instanceof LazyValue.Constant constant))
+        {
+            return;
+        }
+        Value bound;
+        try
+        {
+            bound = constantArgument.binder().apply(constant.get());
+        }
+        catch (InternalExpressionException exc)
+        {
+            // left unbound, so the call fails only if it runs, but reported to the author while the app loads
+            reportWarning(ctx, arg.token, exc.getMessage());
+            return;
+        }
+        if (bound != constant.get())
+        {
+            arg.op = LazyValue.ofConstant(bound);
+            if (logger != null)
+            {
+                logger.accept(" - Bound constant argument '" + bound.getString() + "' of " + node.token.surface + " at line " + (node.token.lineno + 1) + ", node depth " + indent);
+            }
         }
-
-        Context optimizeOnlyContext = new Context.ContextForErrorReporting(context);
-        // pure functional
-        optimizeTree(root, optimizeOnlyContext, null, style.contains("optimized"), style.contains("functional"));
-        List<Token> compileTimeOptimized = root.tokensRecursive(this, cleanedTokens, tokenPointers);
-
-        return compileTimeOptimized;
     }
 
-    private int treeSize(ExpressionNode node)
+    /**
+     * Reports a problem found while compiling that doesn't stop the code from running, through the host's error snooper,
+     * or to the server log if nobody listens to it
+     */
+    private void reportWarning(Context ctx, Token token, String message)
     {
-        return node.op instanceof LazyValue.ContextFreeLazyValue ? 1 : node.args.stream().mapToInt(this::treeSize).sum() + 1;
+        ScriptHost.ErrorSnooper snooper = ctx.getErrorSnooper();
+        if (snooper == null || snooper.apply(this, token, ctx, message) == null)
+        {
+            CarpetScriptServer.LOG.warn("{} in {} at line {}, pos {}", message, getModuleName(), token.lineno + 1, token.linepos + 1);
+        }
     }
 
-    private int treeDepth(ExpressionNode node)
+    /**
+     * Compiles constant regular expressions passed to pattern matching functions, so they are not compiled on each call.
+     * Patterns are kept by their string literals in the tree. Invalid patterns are left to be reported at runtime,
+     * since some of these functions don't treat their arguments as patterns for all inputs, like 'split' on lists.
+     */
+    private void precompilePatterns(ExpressionNode node, int indent, @Nullable Consumer<String> logger)
     {
-        return node.op instanceof LazyValue.ContextFreeLazyValue ? 1 : node.args.stream().mapToInt(this::treeDepth).max().orElse(0) + 1;
+        if (!node.token.type.isFunctional() || node.op instanceof LazyValue.Constant)
+        {
+            return;
+        }
+        for (ExpressionNode arg : node.args)
+        {
+            precompilePatterns(arg, indent + 1, logger);
+        }
+        int patternIndex = switch (node.token.surface)
+        {
+            case "replace", "replace_first", "match", "~" -> 1;
+            case "split" -> node.args.size() == 2 ? 0 : -1;
+            default -> -1;
+        };
+        if (patternIndex < 0 || patternIndex >= node.args.size())
+        {
+            return;
+        }
+        if (node.args.get(patternIndex).op instanceof LazyValue.Constant constant && constant.get() instanceof StringValue pattern)
+        {
+            try
+            {
+                pattern.toPattern();
+                if (logger != null)
+                {
+                    logger.accept(" - Precompiled pattern '" + pattern.getString() + "' for " + node.token.surface + " at line " + (node.token.lineno + 1) + ", node depth " + indent);
+                }
+            }
+            catch (PatternSyntaxException ignored)
+            {
+            }
+        }
     }
 
-
-    private boolean compactTree(ExpressionNode node, Context.Type expectedType, int indent, @Nullable Consumer<String> logger, boolean optimize, boolean toFunctional)
+    /**
+     * Removes 'if' branches that can never be taken, and resolves the whole 'if' if its first condition is constant.
+     */
+    private boolean removeDeadBranches(ExpressionNode node, int indent, @Nullable Consumer<String> logger)
     {
-        // ctx is just to report errors, not values evaluation
-        boolean optimized = false;
-        Token.TokenType token = node.token.type;
-        if (!token.isFunctional())
+        if (!node.token.type.isFunctional() || node.op instanceof LazyValue.Constant)
         {
             return false;
         }
-        // input special cases here, like function signature
-        if (node.op instanceof LazyValue.Constant)
-        {
-            return false; // optimized already
-        }
-        // function or operator
-        String symbol = node.token.surface;
-        Fluff.EvalNode operation = ((token == Token.TokenType.FUNCTION) ? functions : operators).get(symbol);
-        Context.Type requestedType = operation.staticType(expectedType);
+        boolean optimized = false;
         for (ExpressionNode arg : node.args)
         {
-            if (compactTree(arg, requestedType, indent + 1, logger, optimize, toFunctional))
+            if (removeDeadBranches(arg, indent + 1, logger))
             {
                 optimized = true;
             }
         }
-
-        if (optimize && expectedType != Context.Type.MAPDEF && (symbol.equals("->") || symbol.equals("define") ) && node.args.size() == 2)
+        if (node.token.type != Token.TokenType.FUNCTION || !node.token.surface.equals("if") || node.args.size() < 2)
         {
-            String rop = node.args.get(1).token.surface;
-            ExpressionNode returnNode = null;
-            if ((rop.equals(";") || rop.equals("then")))
+            return optimized;
+        }
+        List<ExpressionNode> args = node.args;
+        List<ExpressionNode> kept = new ArrayList<>();
+        ExpressionNode taken = null;
+        boolean pruned = false;
+        for (int i = 0; i + 1 < args.size(); i += 2)
+        {
+            if (args.get(i).op instanceof LazyValue.Constant condition)
             {
-                List<ExpressionNode> thenArgs = node.args.get(1).args;
-                if (thenArgs.size() > 1 && thenArgs.get(thenArgs.size() - 1).token.surface.equals("return"))
+                pruned = true;
+                if (condition.get().getBoolean())
                 {
-                    returnNode = thenArgs.get(thenArgs.size() - 1);
+                    taken = args.get(i + 1);
+                    break;
                 }
+                continue;
             }
-            else if (rop.equals("return"))
-            {
-                returnNode = node.args.get(1);
-            }
-            if (returnNode != null) // tail return
-            {
-                if (!returnNode.args.isEmpty())
-                {
-                    returnNode.op = returnNode.args.get(0).op;
-                    returnNode.token = returnNode.args.get(0).token;
-                    returnNode.range = returnNode.args.get(0).range;
-                    returnNode.args = returnNode.args.get(0).args;
-                    if (logger != null)
-                    {
-                        logger.accept(" - Removed unnecessary tail return of " + returnNode.token.surface + " from function body at line " + (returnNode.token.lineno + 1) + ", node depth " + indent);
-                    }
-                }
-                else
-                {
-                    returnNode.op = LazyValue.ofConstant(Value.NULL);
-                    returnNode.token.morph(Token.TokenType.CONSTANT, "null");
-                    returnNode.args = Collections.emptyList();
+            kept.add(args.get(i));
+            kept.add(args.get(i + 1));
+        }
+        if (!pruned)
+        {
+            return optimized;
+        }
+        if (taken != null)
+        {
+            kept.add(taken);
+        }
+        else if (args.size() % 2 == 1)
+        {
+            kept.add(args.get(args.size() - 1));
+        }
+        if (logger != null)
+        {
+            logger.accept(" - Removed " + (args.size() - kept.size()) + " dead branch nodes from 'if' at line " + (node.token.lineno + 1) + ", node depth " + indent);
+        }
+        if (kept.isEmpty())
+        {
+            node.op = LazyValue.ofConstant(Value.NULL);
+            node.token.morph(Token.TokenType.CONSTANT, "null");
+            node.args = Collections.emptyList();
+        }
+        else if (kept.size() == 1)
+        {
+            replaceNode(node, kept.get(0));
+        }
+        else
+        {
+            node.args = kept;
+        }
+        return true;
+    }
+
+    /**
+     * Replaces calls to small user functions, whose bodies only use pure built-ins on their arguments, with their bodies.
+     * Only functions defined once, at the top level of the code, are considered, and only calls that come after the definition,
+     * so the call always refers to that definition.
+     */
+    private boolean inlineFunctions(ExpressionNode root, @Nullable Consumer<String> logger)
+    {
+        Map<String, ExpressionNode> definitions = new HashMap<>();
+        collectTopLevelDefinitions(root, definitions);
+        if (definitions.isEmpty())
+        {
+            return false;
+        }
+        Map<String, Integer> definitionCounts = new HashMap<>();
+        countDefinitions(root, definitionCounts);
+        Map<String, ExpressionNode> inlinable = new HashMap<>();
+        definitions.forEach((name, definition) -> {
+            if (definitionCounts.getOrDefault(name, 0) == 1 && functionParameters(definition) != null && isInlinableBody(definition.args.get(1), functionParameters(definition)))
+            {
+                inlinable.put(name, definition);
+            }
+        });
+        if (inlinable.isEmpty())
+        {
+            return false;
+        }
+        return inlineCalls(root, Context.Type.NONE, inlinable, new HashSet<>(), 0, logger);
+    }
+
+    /**
+     * @param defined names of inlinable functions whose definitions were passed already, in code order
+     */
+    private boolean inlineCalls(ExpressionNode node, Context.Type expectedType, Map<String, ExpressionNode> inlinable, Set<String> defined, int indent, @Nullable Consumer<String> logger)
+    {
+        if (!isValueType(expectedType) || !node.token.type.isFunctional() || node.op instanceof LazyValue.Constant)
+        {
+            return false;
+        }
+        boolean optimized = false;
+        for (int i = 0; i < node.args.size(); i++)
+        {
+            if (inlineCalls(node.args.get(i), argumentType(node, i, expectedType), inlinable, defined, indent + 1, logger))
+            {
+                optimized = true;
+            }
+        }
+        String definedName = definedFunctionName(node);
+        if (definedName != null && inlinable.get(definedName) == node)
+        {
+            defined.add(definedName);
+            return optimized;
+        }
+        if (node.token.type != Token.TokenType.FUNCTION || !node.token.surface.equals("call") || node.args.isEmpty()
+                || !(node.args.get(0).op instanceof LazyValue.Constant name))
+        {
+            return optimized;
+        }
+        ExpressionNode definition = inlinable.get(name.get().getString());
+        if (definition == null || !defined.contains(name.get().getString()))
+        {
+            return optimized;
+        }
+        List<String> parameters = functionParameters(definition);
+        ExpressionNode body = definition.args.get(1);
+        List<ExpressionNode> arguments = node.args.subList(1, node.args.size());
+        if (parameters == null || arguments.size() != parameters.size())
+        {
+            return optimized;
+        }
+        Map<String, ExpressionNode> bindings = new HashMap<>();
+        for (int i = 0; i < parameters.size(); i++)
+        {
+            ExpressionNode argument = arguments.get(i);
+            boolean simple = argument.op instanceof LazyValue.Constant || argument.token.type == Token.TokenType.VARIABLE;
+            // arguments are evaluated where the parameter is used, so more complex ones can't be duplicated or have side effects
+            if (!simple && (!isPureEager(argument) || countVariableUses(body, parameters.get(i)) > 1))
+            {
+                return optimized;
+            }
+            bindings.put(parameters.get(i), argument);
+        }
+        if (logger != null)
+        {
+            logger.accept(" - Inlined " + name.get().getString() + "(" + parameters.size() + ") at line " + (node.token.lineno + 1) + ", node depth " + indent);
+        }
+        replaceNode(node, copyTree(body, bindings));
+        return true;
+    }
+
+    private void collectTopLevelDefinitions(ExpressionNode node, Map<String, ExpressionNode> definitions)
+    {
+        if (node.token.type.isFunctional() && (node.token.surface.equals(";") || node.token.surface.equals("then")))
+        {
+            for (ExpressionNode arg : node.args)
+            {
+                collectTopLevelDefinitions(arg, definitions);
+            }
+            return;
+        }
+        String name = definedFunctionName(node);
+        if (name != null && !name.equals("_"))
+        {
+            definitions.put(name, node);
+        }
+    }
+
+    private void countDefinitions(ExpressionNode node, Map<String, Integer> counts)
+    {
+        String name = definedFunctionName(node);
+        if (name != null)
+        {
+            counts.merge(name, 1, Integer::sum);
+        }
+        for (ExpressionNode arg : node.args)
+        {
+            countDefinitions(arg, counts);
+        }
+    }
+
+    @Nullable
+    private static String definedFunctionName(ExpressionNode node)
+    {
+        if (!node.token.type.isFunctional() || !(node.token.surface.equals("->") || node.token.surface.equals("define")) || node.args.size() != 2)
+        {
+            return null;
+        }
+        ExpressionNode signature = node.args.get(0);
+        if (signature.token.type != Token.TokenType.FUNCTION || !signature.token.surface.equals("call") || signature.args.isEmpty())
+        {
+            return null;
+        }
+        return signature.args.get(0).op instanceof LazyValue.Constant name ? name.get().getString() : null;
+    }
+
+    /**
+     * @return names of function parameters, or null if the signature uses anything but plain local variables
+     */
+    @Nullable
+    private static List<String> functionParameters(ExpressionNode definition)
+    {
+        List<ExpressionNode> signature = definition.args.get(0).args;
+        List<String> parameters = new ArrayList<>();
+        for (ExpressionNode parameter : signature.subList(1, signature.size()))
+        {
+            String name = parameter.token.surface;
+            if (parameter.token.type != Token.TokenType.VARIABLE || name.startsWith("global_") || parameters.contains(name))
+            {
+                return null;
+            }
+            parameters.add(name);
+        }
+        return parameters;
+    }
+
+    private boolean isInlinableBody(ExpressionNode body, List<String> parameters)
+    {
+        if (body.token.type == Token.TokenType.VARIABLE || treeSize(body) > INLINED_FUNCTION_MAX_SIZE || !isPureEager(body))
+        {
+            return false;
+        }
+        Set<String> variables = new HashSet<>();
+        collectVariables(body, variables);
+        return parameters.containsAll(variables);
+    }
+
+    /**
+     * Moves loop invariant pure expressions out of loop bodies. They are bound before the loop and computed on first use,
+     * so loops that don't run their body don't evaluate them either. Only loops that just compute and assign local variables
+     * are considered, so values read by the invariants can't change while the loop runs.
+     */
+    private boolean hoistLoopInvariants(ExpressionNode node, Context.Type expectedType, int indent, @Nullable Consumer<String> logger)
+    {
+        if (!isValueType(expectedType) || !node.token.type.isFunctional() || node.op instanceof LazyValue.Constant)
+        {
+            return false;
+        }
+        boolean optimized = false;
+        ExpressionNode current = node;
+        int[] iterated = loopIterationArguments(node);
+        if (iterated.length > 0)
+        {
+            current = hoistFromLoop(node, iterated, indent, logger);
+            optimized = current != node;
+        }
+        for (int i = 0; i < current.args.size(); i++)
+        {
+            if (hoistLoopInvariants(current.args.get(i), argumentType(current, i, expectedType), indent + 1, logger))
+            {
+                optimized = true;
+            }
+        }
+        return optimized;
+    }
+
+    /**
+     * @return indices of loop arguments that are evaluated on each iteration
+     */
+    static int[] loopIterationArguments(ExpressionNode node)
+    {
+        if (node.token.type != Token.TokenType.FUNCTION)
+        {
+            return new int[0];
+        }
+        int size = node.args.size();
+        return switch (node.token.surface)
+        {
+            case "for", "map", "filter", "first", "all", "loop" -> size == 2 ? new int[]{1} : new int[0];
+            case "reduce" -> size == 3 ? new int[]{1} : new int[0];
+            case "while" -> size == 2 ? new int[]{0, 1} : size == 3 ? new int[]{0, 2} : new int[0];
+            case "c_for" -> size == 4 ? new int[]{1, 2, 3} : new int[0];
+            default -> new int[0];
+        };
+    }
+
+    /**
+     * @return node that holds the loop after the transformation
+     */
+    private ExpressionNode hoistFromLoop(ExpressionNode loop, int[] iterated, int indent, @Nullable Consumer<String> logger)
+    {
+        Set<String> assigned = new HashSet<>();
+        for (int index : iterated)
+        {
+            if (!isHoistingSafe(loop.args.get(index)))
+            {
+                return loop;
+            }
+            collectAssignedVariables(loop.args.get(index), assigned);
+        }
+        Map<String, List<ExpressionNode>> invariants = new LinkedHashMap<>();
+        for (int index : iterated)
+        {
+            collectLoopInvariants(loop.args.get(index), argumentType(loop, index, Context.Type.NONE), assigned, invariants);
+        }
+        if (invariants.isEmpty())
+        {
+            return loop;
+        }
+        List<ExpressionNode> bindings = new ArrayList<>();
+        for (List<ExpressionNode> occurrences : invariants.values())
+        {
+            String variable = syntheticVariable("inv");
+            if (logger != null)
+            {
+                logger.accept(" - Hoisted " + occurrences.get(0).token.surface + "(" + occurrences.get(0).args.size() + ") as " + variable + " out of " + loop.token.surface + " at line " + (loop.token.lineno + 1) + ", node depth " + indent);
+            }
+            bindings.add(shareExpression(occurrences, variable));
+        }
+        return prependStatements(loop, bindings);
+    }
+
+    private boolean isHoistingSafe(ExpressionNode node)
+    {
+        if (!node.token.type.isFunctional() || node.op instanceof LazyValue.Constant)
+        {
+            return true;
+        }
+        String symbol = node.token.surface;
+        if (ASSIGNMENTS.contains(symbol))
+        {
+            return node.args.get(0).token.type == Token.TokenType.VARIABLE && isHoistingSafe(node.args.get(1));
+        }
+        if (!evalNode(node).pure() && !TRANSPARENT_FUNCTIONS.contains(symbol))
+        {
+            return false;
+        }
+        for (ExpressionNode arg : node.args)
+        {
+            if (!isHoistingSafe(arg))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void collectAssignedVariables(ExpressionNode node, Set<String> assigned)
+    {
+        if (!node.token.type.isFunctional() || node.op instanceof LazyValue.Constant)
+        {
+            return;
+        }
+        if (ASSIGNMENTS.contains(node.token.surface))
+        {
+            assigned.add(node.args.get(0).token.surface);
+        }
+        for (ExpressionNode arg : node.args)
+        {
+            collectAssignedVariables(arg, assigned);
+        }
+    }
+
+    private void collectLoopInvariants(ExpressionNode node, Context.Type expectedType, Set<String> assigned, Map<String, List<ExpressionNode>> invariants)
+    {
+        if (!isValueType(expectedType) || !node.token.type.isFunctional() || node.op instanceof LazyValue.Constant)
+        {
+            return;
+        }
+        if (node.token.surface.equals("->") || node.token.surface.equals("define"))
+        {
+            return; // function bodies run in their own scope
+        }
+        if (isLoopInvariant(node, assigned))
+        {
+            invariants.computeIfAbsent(structureKey(node), k -> new ArrayList<>()).add(node);
+            return;
+        }
+        for (int i = 0; i < node.args.size(); i++)
+        {
+            collectLoopInvariants(node.args.get(i), argumentType(node, i, expectedType), assigned, invariants);
+        }
+    }
+
+    private boolean isLoopInvariant(ExpressionNode node, Set<String> assigned)
+    {
+        if (treeSize(node) < HOISTED_EXPRESSION_MIN_SIZE || !isPureEager(node))
+        {
+            return false;
+        }
+        Set<String> variables = new HashSet<>();
+        collectVariables(node, variables);
+        if (variables.isEmpty())
+        {
+            return false;
+        }
+        for (String variable : variables)
+        {
+            // '_' variables are rebound by loops and error handlers, and globals can be changed by any function
+            if (assigned.contains(variable) || variable.startsWith("_") || variable.startsWith("global_"))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes repeated pure subexpressions once per evaluation of the largest pure expression that contains them.
+     */
+    private boolean eliminateCommonSubexpressions(ExpressionNode node, Context.Type expectedType, int indent, @Nullable Consumer<String> logger)
+    {
+        if (!isValueType(expectedType) || !node.token.type.isFunctional() || node.op instanceof LazyValue.Constant)
+        {
+            return false;
+        }
+        if (isPureEager(node))
+        {
+            return shareCommonSubexpressions(node, indent, logger);
+        }
+        boolean optimized = false;
+        for (int i = 0; i < node.args.size(); i++)
+        {
+            if (eliminateCommonSubexpressions(node.args.get(i), argumentType(node, i, expectedType), indent + 1, logger))
+            {
+                optimized = true;
+            }
+        }
+        return optimized;
+    }
+
+    private boolean shareCommonSubexpressions(ExpressionNode region, int indent, @Nullable Consumer<String> logger)
+    {
+        Map<String, List<ExpressionNode>> subexpressions = new LinkedHashMap<>();
+        for (ExpressionNode arg : region.args)
+        {
+            collectSubexpressions(arg, subexpressions);
+        }
+        List<ExpressionNode> repeated = null;
+        int repeatedSize = 0;
+        for (List<ExpressionNode> occurrences : subexpressions.values())
+        {
+            if (occurrences.size() > 1 && treeSize(occurrences.get(0)) > repeatedSize)
+            {
+                repeated = occurrences;
+                repeatedSize = treeSize(occurrences.get(0));
+            }
+        }
+        if (repeated == null)
+        {
+            return false;
+        }
+        String variable = syntheticVariable("cse");
+        if (logger != null)
+        {
+            logger.accept(" - Shared " + repeated.size() + " occurrences of " + repeated.get(0).token.surface + "(" + repeated.get(0).args.size() + ") as " + variable + " at line " + (region.token.lineno + 1) + ", node depth " + indent);
+        }
+        List<ExpressionNode> bindings = new ArrayList<>();
+        bindings.add(shareExpression(repeated, variable));
+        ExpressionNode remaining = prependStatements(region, bindings);
+        shareCommonSubexpressions(remaining, indent + 1, logger);
+        return true;
+    }
+
+    private void collectSubexpressions(ExpressionNode node, Map<String, List<ExpressionNode>> subexpressions)
+    {
+        if (!node.token.type.isFunctional() || node.op instanceof LazyValue.Constant)
+        {
+            return;
+        }
+        if (treeSize(node) >= SHARED_EXPRESSION_MIN_SIZE)
+        {
+            subexpressions.computeIfAbsent(structureKey(node), k -> new ArrayList<>()).add(node);
+        }
+        for (ExpressionNode arg : node.args)
+        {
+            collectSubexpressions(arg, subexpressions);
+        }
+    }
+
+    /**
+     * Turns all occurrences of the same expression into reads of a variable.
+     *
+     * @return node binding the expression to the variable, to be evaluated before any of the reads
+     */
+    private ExpressionNode shareExpression(List<ExpressionNode> occurrences, String variable)
+    {
+        ExpressionNode value = copyTree(occurrences.get(0), Collections.emptyMap());
+        Token token = value.token.morphedInto(Token.TokenType.FUNCTION, MEMO_FUNCTION);
+        int slot = sharedExpressions.size();
+        ExpressionNode slotNode = ExpressionNode.ofConstant(new NumericValue(slot), value.token.morphedInto(Token.TokenType.LITERAL, Integer.toString(slot)));
+        ExpressionNode binding = createNode(token, new ArrayList<>(List.of(slotNode, value)));
+        sharedExpressions.put(variable, new SharedExpression(slot, binding));
+        for (ExpressionNode occurrence : occurrences)
+        {
+            occurrence.token = occurrence.token.morphedInto(Token.TokenType.VARIABLE, variable);
+            occurrence.token.node = occurrence;
+            occurrence.args = Collections.emptyList();
+            occurrence.op = runtimeOp(occurrence);
+        }
+        return binding;
+    }
+
+    /**
+     * Makes the node run the statements first, then its original code, which is moved to a new node.
+     *
+     * @return the node with original code
+     */
+    private ExpressionNode prependStatements(ExpressionNode node, List<ExpressionNode> statements)
+    {
+        ExpressionNode moved = new ExpressionNode(node.op, node.args, node.token);
+        moved.range = node.range;
+        moved.token.node = moved;
+        List<ExpressionNode> sequence = new ArrayList<>(statements);
+        sequence.add(moved);
+        Token token = node.token.morphedInto(Token.TokenType.FUNCTION, "then");
+        token.node = node;
+        node.token = token;
+        node.args = sequence;
+        node.op = runtimeOp(node);
+        return moved;
+    }
+
+    private static void replaceNode(ExpressionNode node, ExpressionNode replacement)
+    {
+        node.op = replacement.op;
+        node.token = replacement.token;
+        node.range = replacement.range;
+        node.args = replacement.args;
+    }
+
+    private ExpressionNode createNode(Token token, List<ExpressionNode> args)
+    {
+        ExpressionNode node = new ExpressionNode(null, args, token);
+        token.node = node;
+        node.op = runtimeOp(node);
+        return node;
+    }
+
+    /**
+     * Copies the code tree, substituting variables with copies of bound code.
+     */
+    private ExpressionNode copyTree(ExpressionNode node, Map<String, ExpressionNode> bindings)
+    {
+        if (node.token.type == Token.TokenType.VARIABLE && bindings.containsKey(node.token.surface))
+        {
+            return copyTree(bindings.get(node.token.surface), Collections.emptyMap());
+        }
+        Token token = node.token.morphedInto(node.token.type, node.token.surface);
+        token.display = node.token.display;
+        token.comment = node.token.comment;
+        List<ExpressionNode> args = new ArrayList<>(node.args.size());
+        for (ExpressionNode arg : node.args)
+        {
+            args.add(copyTree(arg, bindings));
+        }
+        if (node.op instanceof LazyValue.Constant)
+        {
+            ExpressionNode copy = new ExpressionNode(node.op, args, token);
+            token.node = copy;
+            return copy;
+        }
+        return createNode(token, args);
+    }
+
+    /**
+     * @return code evaluating the node the same way parsed code does, for nodes created by the optimizer
+     */
+    private LazyValue runtimeOp(ExpressionNode node)
+    {
+        Token token = node.token;
+        return switch (token.type)
+        {
+            case UNARY_OPERATOR -> (c, t) -> operators.get(token.surface).lazyEval(c, t, this, token, node.args.get(0).op, null).evalValue(c, t);
+            case OPERATOR -> (c, t) -> operators.get(token.surface).lazyEval(c, t, this, token, node.args.get(0).op, node.args.get(1).op).evalValue(c, t);
+            case FUNCTION -> {
+                // reads the arguments' code when called, so it follows later changes of the arguments
+                List<LazyValue> params = new AbstractList<>()
+                {
+                    @Override
+                    public LazyValue get(int index)
+                    {
+                        return node.args.get(index).op;
+                    }
+
+                    @Override
+                    public int size()
+                    {
+                        return node.args.size();
+                    }
+                };
+                yield (c, t) -> functions.get(token.surface).lazyEval(c, t, this, token, params).evalValue(c, t);
+            }
+            case VARIABLE -> variableOp(token.surface);
+            default -> node.op;
+        };
+    }
+
+    private String syntheticVariable(String kind)
+    {
+        return "$" + kind + (syntheticVariables++);
+    }
+
+    Fluff.EvalNode evalNode(ExpressionNode node)
+    {
+        return ((node.token.type == Token.TokenType.FUNCTION) ? functions : operators).get(node.token.surface);
+    }
+
+    /**
+     * @return true if the code evaluates all of its arguments, without side effects and without using the execution context
+     */
+    private boolean isPureEager(ExpressionNode node)
+    {
+        if (!node.token.type.isFunctional() || node.op instanceof LazyValue.Constant)
+        {
+            return true;
+        }
+        Fluff.EvalNode operation = evalNode(node);
+        if (!(operation instanceof Fluff.IFunction || operation instanceof Fluff.IOperator) || !operation.pure())
+        {
+            return false;
+        }
+        for (ExpressionNode arg : node.args)
+        {
+            if (!isPureEager(arg))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return type the argument is evaluated with, accounting for assignments and function signatures
+     * which evaluate only some of their arguments in a special way
+     */
+    private Context.Type argumentType(ExpressionNode node, int index, Context.Type expectedType)
+    {
+        String symbol = node.token.surface;
+        if (symbol.equals("->") || symbol.equals("define"))
+        {
+            return index == 0 ? Context.SIGNATURE : Context.NONE;
+        }
+        Context.Type type = evalNode(node).staticType(expectedType);
+        if (type == Context.LVALUE)
+        {
+            return index == 0 ? Context.LVALUE : Context.NONE;
+        }
+        return type;
+    }
+
+    private static boolean isValueType(Context.Type type)
+    {
+        return switch (type)
+        {
+            case NONE, VOID, BOOLEAN, NUMBER, STRING, LIST, ITERATOR -> true;
+            default -> false;
+        };
+    }
+
+    private static void collectVariables(ExpressionNode node, Set<String> variables)
+    {
+        if (node.token.type == Token.TokenType.VARIABLE)
+        {
+            variables.add(node.token.surface);
+            return;
+        }
+        if (node.op instanceof LazyValue.Constant)
+        {
+            return;
+        }
+        for (ExpressionNode arg : node.args)
+        {
+            collectVariables(arg, variables);
+        }
+    }
+
+    private static int countVariableUses(ExpressionNode node, String variable)
+    {
+        if (node.token.type == Token.TokenType.VARIABLE)
+        {
+            return node.token.surface.equals(variable) ? 1 : 0;
+        }
+        if (node.op instanceof LazyValue.Constant)
+        {
+            return 0;
+        }
+        int uses = 0;
+        for (ExpressionNode arg : node.args)
+        {
+            uses += countVariableUses(arg, variable);
+        }
+        return uses;
+    }
+
+    private static String structureKey(ExpressionNode node)
+    {
+        if (node.op instanceof LazyValue.Constant constant)
+        {
+            Value value = constant.get();
+            String string = value.getString();
+            return "#" + value.getClass().getSimpleName() + ":" + string.length() + ":" + string;
+        }
+        StringBuilder key = new StringBuilder(node.token.type + ":" + node.token.surface);
+        if (node.token.type.isFunctional())
+        {
+            key.append('(');
+            for (ExpressionNode arg : node.args)
+            {
+                key.append(structureKey(arg)).append(',');
+            }
+            key.append(')');
+        }
+        return key.toString();
+    }
+
+    public List<Token> explain(Context context, @Nullable String code, @Nullable String method, @Nullable String style)
+    {
+        if (code == null)
+        {
+            ExpressionNode node;
+            if (method != null)
+            {
+                FunctionValue function = context.host.getFunction(method);
+                if (function == null) {
+                    throw new ExpressionException(context, this, "Unknown function " + method);
+                }
+                node = function.getToken().node;
+                if (node == null) {
+                    throw new ExpressionException(context, this, "Function " + method + " is not a compiled function");
+                }
+            } else
+            {
+                node = context.host.root;
+            }
+            if (node == null || node.token.type == null) {
+                throw new ExpressionException(context, this, "No code to explain");
+            }
+
+            // grab source reference
+            Tokenizer tokenizer = new Tokenizer(context, this, context.host.main == null ? "" : stripExpression(context.host.main.code()) , true, true);
+            List<Token> input = tokenizer.parseTokens();
+            List<Token> cleanedTokens = Tokenizer.postProcess(input);
+
+            Map<Pair<Integer, Integer>, List<Integer>> tokenPointers = new HashMap<>();
+            for (int i = 0; i < cleanedTokens.size(); i++) {
+                Token token = cleanedTokens.get(i);
+                tokenPointers.computeIfAbsent(Pair.of(token.lineno, token.linepos), k -> new ArrayList<>()).add(i);
+            }
+
+            return node.tokensRecursive(this, cleanedTokens, tokenPointers);
+        }
+        if (style == null) {
+            style = context.host.loadOverrides.equivalent;
+        }
+
+        //todo convert to explain
+        Tokenizer tokenizer = new Tokenizer(context, this, stripExpression(code), true, true);
+        // stripping lousy but acceptable semicolons
+        List<Token> input = tokenizer.parseTokens();
+        if (style.equalsIgnoreCase("raw")) {
+            return input;
+        }
+        List<Token> cleanedTokens = Tokenizer.postProcess(input);
+        if (style.equalsIgnoreCase("clean")) {
+            return cleanedTokens;
+        }
+
+        List<Token> rpn = shuntingYard(context, cleanedTokens);
+        validate(context, rpn);
+        ExpressionNode root = RPNToParseTree(rpn, context);
+
+        Map<Pair<Integer, Integer>, List<Integer>> tokenPointers = new HashMap<>();
+        for (int i = 0; i < cleanedTokens.size(); i++) {
+            Token token = cleanedTokens.get(i);
+            tokenPointers.computeIfAbsent(Pair.of(token.lineno, token.linepos), k -> new ArrayList<>()).add(i);
+        }
+
+        List<Token> parsedTokens = root.tokensRecursive(this, cleanedTokens, tokenPointers);
+        if (style.equalsIgnoreCase("canonical")) {
+            return parsedTokens;
+        }
+
+        Context optimizeOnlyContext = new Context.ContextForErrorReporting(context);
+        // pure functional
+        optimizeTree(root, optimizeOnlyContext, null, style.contains("optimized"), style.contains("functional"));
+        List<Token> compileTimeOptimized = root.tokensRecursive(this, cleanedTokens, tokenPointers);
+
+        return compileTimeOptimized;
+    }
+
+    private int treeSize(ExpressionNode node)
+    {
+        return node.op instanceof LazyValue.ContextFreeLazyValue ? 1 : node.args.stream().mapToInt(this::treeSize).sum() + 1;
+    }
+
+    private int treeDepth(ExpressionNode node)
+    {
+        return node.op instanceof LazyValue.ContextFreeLazyValue ? 1 : node.args.stream().mapToInt(this::treeDepth).max().orElse(0) + 1;
+    }
+
+
+    private boolean compactTree(ExpressionNode node, Context.Type expectedType, int indent, @Nullable Consumer<String> logger, boolean optimize, boolean toFunctional)
+    {
+        // ctx is just to report errors, not values evaluation
+        boolean optimized = false;
+        Token.TokenType token = node.token.type;
+        if (!token.isFunctional())
+        {
+            return false;
+        }
+        // input special cases here, like function signature
+        if (node.op instanceof LazyValue.Constant)
+        {
+            return false; // optimized already
+        }
+        // function or operator
+        String symbol = node.token.surface;
+        Fluff.EvalNode operation = ((token == Token.TokenType.FUNCTION) ? functions : operators).get(symbol);
+        Context.Type requestedType = operation.staticType(expectedType);
+        for (ExpressionNode arg : node.args)
+        {
+            if (compactTree(arg, requestedType, indent + 1, logger, optimize, toFunctional))
+            {
+                optimized = true;
+            }
+        }
+
+        if (optimize && expectedType != Context.Type.MAPDEF && (symbol.equals("->") || symbol.equals("define") ) && node.args.size() == 2)
+        {
+            String rop = node.args.get(1).token.surface;
+            ExpressionNode returnNode = null;
+            if ((rop.equals(";") || rop.equals("then")))
+            {
+                List<ExpressionNode> thenArgs = node.args.get(1).args;
+                if (thenArgs.size() > 1 && thenArgs.get(thenArgs.size() - 1).token.surface.equals("return"))
+                {
+                    returnNode = thenArgs.get(thenArgs.size() - 1);
+                }
+            }
+            else if (rop.equals("return"))
+            {
+                returnNode = node.args.get(1);
+            }
+            if (returnNode != null) // tail return
+            {
+                if (!returnNode.args.isEmpty())
+                {
+                    returnNode.op = returnNode.args.get(0).op;
+                    returnNode.token = returnNode.args.get(0).token;
+                    returnNode.range = returnNode.args.get(0).range;
+                    returnNode.args = returnNode.args.get(0).args;
+                    if (logger != null)
+                    {
+                        logger.accept(" - Removed unnecessary tail return of " + returnNode.token.surface + " from function body at line " + (returnNode.token.lineno + 1) + ", node depth " + indent);
+                    }
+                }
+                else
+                {
+                    returnNode.op = LazyValue.ofConstant(Value.NULL);
+                    returnNode.token.morph(Token.TokenType.CONSTANT, "null");
+                    returnNode.args = Collections.emptyList();
                     if (logger != null)
                     {
                         logger.accept(" - Removed unnecessary tail return from function body at line " + (returnNode.token.lineno + 1) + ", node depth " + indent);
@@ -1904,7 +2950,186 @@ public class Expression
         return true;
     }
 
-    private LazyValue extractOp(Context ctx, ExpressionNode node, Context.Type expectedType)
+    /**
+     * @return calls to user functions whose results are directly returned by the function bodies they are in.
+     * These can be made after the calling function is done, without growing the stack
+     */
+    private Set<ExpressionNode> tailCalls(ExpressionNode root)
+    {
+        Set<ExpressionNode> calls = Collections.newSetFromMap(new IdentityHashMap<>());
+        collectFunctionBodies(root, Context.Type.NONE, calls);
+        return calls;
+    }
+
+    private void collectFunctionBodies(ExpressionNode node, Context.Type expectedType, Set<ExpressionNode> calls)
+    {
+        if (!node.token.type.isFunctional() || node.op instanceof LazyValue.Constant)
+        {
+            return;
+        }
+        if (isFunctionDefinition(node, expectedType))
+        {
+            collectTailCalls(node.args.get(1), calls);
+            collectReturnedCalls(node.args.get(1), Context.Type.NONE, calls);
+        }
+        for (int i = 0; i < node.args.size(); i++)
+        {
+            collectFunctionBodies(node.args.get(i), argumentType(node, i, expectedType), calls);
+        }
+    }
+
+    /**
+     * Follows the value of the node through sequences and branches
+     */
+    private static void collectTailCalls(ExpressionNode node, Set<ExpressionNode> calls)
+    {
+        if (!node.token.type.isFunctional() || node.op instanceof LazyValue.Constant || node.args.isEmpty())
+        {
+            return;
+        }
+        List<ExpressionNode> args = node.args;
+        switch (node.token.surface)
+        {
+            case ";", "then" -> collectTailCalls(args.get(args.size() - 1), calls);
+            case "if" ->
+            {
+                for (int i = 1; i < args.size(); i += 2)
+                {
+                    collectTailCalls(args.get(i), calls);
+                }
+                if (args.size() % 2 == 1)
+                {
+                    collectTailCalls(args.get(args.size() - 1), calls);
+                }
+            }
+            case "call" ->
+            {
+                if (isLinkedCall(node))
+                {
+                    calls.add(node);
+                }
+            }
+            default ->
+            {
+            }
+        }
+    }
+
+    /**
+     * Finds calls returned with 'return' from anywhere in the function body, skipping code that is evaluated
+     * in a special way, like in 'try' or 'synchronize', where the call has to be made before the code is left
+     */
+    private void collectReturnedCalls(ExpressionNode node, Context.Type expectedType, Set<ExpressionNode> calls)
+    {
+        if (!node.token.type.isFunctional() || node.op instanceof LazyValue.Constant || isFunctionDefinition(node, expectedType))
+        {
+            return;
+        }
+        if (node.token.type == Token.TokenType.FUNCTION && node.token.surface.equals("return") && node.args.size() == 1)
+        {
+            collectTailCalls(node.args.get(0), calls);
+        }
+        Fluff.EvalNode operation = evalNode(node);
+        boolean plainEvaluation = switch (node.token.surface)
+        {
+            case ";", "then", "if", "&&", "||", "and", "or" -> true;
+            default -> operation instanceof Fluff.IFunction || operation instanceof Fluff.IOperator || loopIterationArguments(node).length > 0;
+        };
+        if (!plainEvaluation)
+        {
+            return;
+        }
+        for (int i = 0; i < node.args.size(); i++)
+        {
+            collectReturnedCalls(node.args.get(i), argumentType(node, i, expectedType), calls);
+        }
+    }
+
+    private static boolean isFunctionDefinition(ExpressionNode node, Context.Type expectedType)
+    {
+        String symbol = node.token.surface;
+        return expectedType != Context.Type.MAPDEF && (symbol.equals("->") || symbol.equals("define")) && node.args.size() == 2;
+    }
+
+    /**
+     * Marks code of user function bodies with variables used by their names in it, so calls to the function
+     * don't need to copy values passed to other arguments.
+     */
+    private LazyValue functionBodyOp(ExpressionNode node, int index, Context.Type expectedType, LazyValue code)
+    {
+        if (index != 1 || !isFunctionDefinition(node, expectedType))
+        {
+            return code;
+        }
+        Set<String> named = new HashSet<>();
+        if (!collectNamedVariables(node.args.get(1), Context.Type.NONE, named))
+        {
+            return code;
+        }
+        return new LazyValue.FunctionBody(code, named, !capturesFrame(node.args.get(1)));
+    }
+
+    /**
+     * @return true if the code can keep a reference to the frame it runs in after it is done, which nested function
+     * definitions do with 'outer' and tasks by running in it later
+     */
+    private static boolean capturesFrame(ExpressionNode node)
+    {
+        String symbol = node.token.surface;
+        if (symbol.equals("->") || symbol.equals("define") || (node.token.type == Token.TokenType.FUNCTION && (symbol.equals("task") || symbol.equals("task_thread"))))
+        {
+            return true;
+        }
+        return !(node.op instanceof LazyValue.Constant) && node.args.stream().anyMatch(Expression::capturesFrame);
+    }
+
+    /**
+     * Collects variables that are assigned to or swapped, including in nested function definitions,
+     * which can capture the arguments with 'outer'.
+     *
+     * @return false if names can't be determined, when 'var' is used as a target
+     */
+    private boolean collectNamedVariables(ExpressionNode node, Context.Type expectedType, Set<String> named)
+    {
+        String symbol = node.token.surface;
+        if (expectedType == Context.Type.LVALUE || (node.token.type.isFunctional() && (symbol.equals("<>") || symbol.equals("swap"))))
+        {
+            collectVariables(node, named);
+            return !containsFunction(node, "var");
+        }
+        if (!node.token.type.isFunctional() || node.op instanceof LazyValue.Constant)
+        {
+            return true;
+        }
+        for (int i = 0; i < node.args.size(); i++)
+        {
+            if (!collectNamedVariables(node.args.get(i), argumentType(node, i, expectedType), named))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsFunction(ExpressionNode node, String name)
+    {
+        if (node.token.type == Token.TokenType.FUNCTION && node.token.surface.equals(name))
+        {
+            return true;
+        }
+        return !(node.op instanceof LazyValue.Constant) && node.args.stream().anyMatch(arg -> containsFunction(arg, name));
+    }
+
+    /**
+     * @return true if the node calls a user function by its name, see {@link #linkedCallOp}
+     */
+    private static boolean isLinkedCall(ExpressionNode node)
+    {
+        return node.token.type == Token.TokenType.FUNCTION && node.token.surface.equals("call") && !node.args.isEmpty()
+                && node.args.get(0).op instanceof LazyValue.Constant name && name.get() instanceof StringValue;
+    }
+
+    private LazyValue extractOp(Context ctx, ExpressionNode node, Context.Type expectedType, Set<ExpressionNode> numbers, Set<ExpressionNode> tailCalls)
     {
         if (node.op instanceof LazyValue.Constant)
         {
@@ -1928,24 +3153,48 @@ public class Expression
             {
                 ILazyOperator op = operators.get(token.surface);
                 Context.Type requestedType = op.staticType(expectedType);
-                LazyValue arg = extractOp(ctx, node.args.get(0), requestedType);
+                LazyValue arg = extractOp(ctx, node.args.get(0), requestedType, numbers, tailCalls);
+                LazyValue specialized = numericOp(node, List.of(arg), numbers);
+                if (specialized != null)
+                {
+                    return specialized;
+                }
                 return (c, t) -> op.lazyEval(c, t, this, token, arg, null).evalValue(c, t);
             }
             case OPERATOR:
             {
                 ILazyOperator op = operators.get(token.surface);
                 Context.Type requestedType = op.staticType(expectedType);
-                LazyValue arg = extractOp(ctx, node.args.get(0), requestedType);
-                LazyValue arh = extractOp(ctx, node.args.get(1), requestedType);
+                LazyValue arg = extractOp(ctx, node.args.get(0), requestedType, numbers, tailCalls);
+                LazyValue arh = functionBodyOp(node, 1, expectedType, extractOp(ctx, node.args.get(1), requestedType, numbers, tailCalls));
+                LazyValue specialized = numericOp(node, List.of(arg, arh), numbers);
+                if (specialized != null)
+                {
+                    return specialized;
+                }
                 return (c, t) -> op.lazyEval(c, t, this, token, arg, arh).evalValue(c, t);
             }
             case VARIABLE:
-                return (c, t) -> getOrSetAnyVariable(c, token.surface).evalValue(c, t);
+                return variableOp(token.surface);
             case FUNCTION:
             {
                 ILazyFunction f = functions.get(token.surface);
                 Context.Type requestedType = f.staticType(expectedType);
-                List<LazyValue> params = node.args.stream().map(n -> extractOp(ctx, n, requestedType)).collect(Collectors.toList());
+                List<LazyValue> params = new ArrayList<>(node.args.size());
+                for (int i = 0; i < node.args.size(); i++)
+                {
+                    params.add(functionBodyOp(node, i, expectedType, extractOp(ctx, node.args.get(i), requestedType, numbers, tailCalls)));
+                }
+                LazyValue specialized = numericOp(node, params, numbers);
+                if (specialized != null)
+                {
+                    return specialized;
+                }
+                if (isLinkedCall(node))
+                {
+                    String name = ((LazyValue.Constant) node.args.get(0).op).get().getString();
+                    return linkedCallOp(token, f, params, name, tailCalls.contains(node));
+                }
                 return (c, t) -> f.lazyEval(c, t, this, token, params).evalValue(c, t);
             }
             case CONSTANT:
@@ -1956,6 +3205,120 @@ public class Expression
         }
     }
 
+    /**
+     * Builds code for arithmetic and comparisons of values known to be numbers, which skips generic value dispatch.
+     * Values are still checked when evaluated, falling back to generic operations if the inference was wrong.
+     *
+     * @return specialized code, or null if the node can't be specialized
+     */
+    @Nullable
+    private LazyValue numericOp(ExpressionNode node, List<LazyValue> args, Set<ExpressionNode> numbers)
+    {
+        if (args.isEmpty() || !numbers.containsAll(node.args))
+        {
+            return null;
+        }
+        Token token = node.token;
+        String symbol = token.surface;
+        Fluff.EvalNode generic = evalNode(node);
+        if (token.type == Token.TokenType.UNARY_OPERATOR)
+        {
+            if (!symbol.equals("-u") || !(generic instanceof AbstractUnaryOperator operator))
+            {
+                return null;
+            }
+            LazyValue arg = args.get(0);
+            return (c, t) -> {
+                try
+                {
+                    Value v = arg.evalValue(c, Context.NONE);
+                    return NumericValue.isNumber(v) ? ((NumericValue) v).opposite() : operator.evalUnary(v);
+                }
+                catch (RuntimeException exc)
+                {
+                    throw handleCodeException(c, exc, this, token);
+                }
+            };
+        }
+        BinaryOperator<NumericValue> arithmetic = NUMERIC_ARITHMETIC.get(symbol);
+        BiPredicate<NumericValue, NumericValue> comparison = NUMERIC_COMPARISONS.get(symbol);
+        if (arithmetic == null && comparison == null)
+        {
+            return null;
+        }
+        if (token.type == Token.TokenType.OPERATOR)
+        {
+            if (!(generic instanceof Fluff.IOperator operator))
+            {
+                return null;
+            }
+            LazyValue arg = args.get(0);
+            LazyValue arh = args.get(1);
+            return (c, t) -> {
+                try
+                {
+                    Value v1 = arg.evalValue(c, Context.NONE);
+                    Value v2 = arh.evalValue(c, Context.NONE);
+                    if (!NumericValue.isNumber(v1) || !NumericValue.isNumber(v2))
+                    {
+                        return operator.eval(v1, v2);
+                    }
+                    return arithmetic != null
+                            ? arithmetic.apply((NumericValue) v1, (NumericValue) v2)
+                            : BooleanValue.of(comparison.test((NumericValue) v1, (NumericValue) v2));
+                }
+                catch (RuntimeException exc)
+                {
+                    throw handleCodeException(c, exc, this, token);
+                }
+            };
+        }
+        if (!(generic instanceof Fluff.IFunction function))
+        {
+            return null;
+        }
+        return (c, t) -> {
+            Fluff.ILazyFunction.checkInterrupts();
+            try
+            {
+                List<Value> values = new ArrayList<>(args.size());
+                boolean allNumbers = true;
+                for (LazyValue arg : args)
+                {
+                    Value v = arg.evalValue(c, Context.NONE);
+                    allNumbers &= NumericValue.isNumber(v);
+                    values.add(v);
+                }
+                if (!allNumbers)
+                {
+                    return function.eval(values);
+                }
+                NumericValue accumulator = (NumericValue) values.get(0);
+                for (int i = 1; i < values.size(); i++)
+                {
+                    NumericValue next = (NumericValue) values.get(i);
+                    if (arithmetic != null)
+                    {
+                        accumulator = arithmetic.apply(accumulator, next);
+                    }
+                    else if (!comparison.test(accumulator, next))
+                    {
+                        return Value.FALSE;
+                    }
+                    else
+                    {
+                        accumulator = next;
+                    }
+                }
+                return arithmetic != null ? accumulator : Value.TRUE;
+            }
+            catch (RuntimeException exc)
+            {
+                throw handleCodeException(c, exc, this, token);
+            }
+        };
+    }
+
     private void validate(Context c, List<Token> rpn)
     {
         /*-
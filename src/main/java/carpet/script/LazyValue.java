@@ -2,6 +2,8 @@ package carpet.script;
 
 import carpet.script.value.Value;
 
+import java.util.Set;
+
 /**
  * LazyNumber interface created for lazily evaluated functions
  */
@@ -66,4 +68,18 @@ public interface LazyValue
             return result.fromConstant();
         }
     }
+
+    /**
+     * Code of a user function body, with names of variables that may be accessed in it by their names, like targets
+     * of assignments. Function arguments not on that list can share values with the caller.
+     * Frames of bodies that can't keep a reference to them, via closures or tasks, can be reused after the call.
+     */
+    record FunctionBody(LazyValue code, Set<String> namedVariables, boolean reusesFrame) implements LazyValue
+    {
+        @Override
+        public Value evalValue(Context c, Context.Type type)
+        {
+            return code.evalValue(c, type);
+        }
+    }
 }
@@ -3,6 +3,7 @@ package carpet.script;
 import carpet.script.exception.ExpressionException;
 import carpet.script.exception.IntegrityException;
 import carpet.script.exception.InternalExpressionException;
+import carpet.script.utils.MemoizationCache;
 import carpet.script.value.FunctionValue;
 import carpet.script.value.Value;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
@@ -24,6 +25,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
@@ -42,6 +44,11 @@ public abstract class ScriptHost
 
     private final Set<String> deprecations = new HashSet<>();
 
+    /**
+     * Results of memoized function calls, dropped with the host when the app is reloaded
+     */
+    public final MemoizationCache memoizationCache = new MemoizationCache();
+
     public Random getRandom(long aLong)
     {
         if (randomizers.size() > 65536)
@@ -70,7 +77,7 @@ public abstract class ScriptHost
     {
         Module parent;
         public final Map<String, FunctionValue> globalFunctions = new Object2ObjectOpenHashMap<>();
-        public final Map<String, LazyValue> globalVariables = new Object2ObjectOpenHashMap<>();
+        public final Map<String, GlobalVariable> globalVariables = new Object2ObjectOpenHashMap<>();
         public final Map<String, ModuleData> functionImports = new Object2ObjectOpenHashMap<>(); // imported functions string to module
         public final Map<String, ModuleData> globalsImports = new Object2ObjectOpenHashMap<>(); // imported global variables string to module
         public final Map<String, ModuleData> futureImports = new Object2ObjectOpenHashMap<>(); // imports not known before used
@@ -83,10 +90,10 @@ public abstract class ScriptHost
             globalFunctions.putAll(other.globalFunctions);
             other.globalVariables.forEach((key, value) ->
             {
-                Value var = value.evalValue(null);
+                Value var = value.value.evalValue(null);
                 Value copy = var.deepcopy();
                 copy.boundVariable = var.boundVariable;
-                globalVariables.put(key, (c, t) -> copy);
+                globalVariables.put(key, new GlobalVariable((c, t) -> copy));
             });
         }
 
@@ -111,6 +118,38 @@ public abstract class ScriptHost
         }
     }
 
+    /**
+     * Holds the value of a global variable, so references to the variable can be linked once and see later assignments
+     */
+    public static class GlobalVariable
+    {
+        public volatile LazyValue value;
+
+        public GlobalVariable(LazyValue value)
+        {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Function or global variable resolved by name for a host. Valid until any functions, global variables
+     * or imports of that host are added or removed.
+     */
+    public record Link<T>(ScriptHost host, int version, T target)
+    {
+        public boolean isValidFor(ScriptHost other)
+        {
+            return host == other && version == other.linkVersion.get();
+        }
+    }
+
+    private final AtomicInteger linkVersion = new AtomicInteger();
+
+    private void invalidateLinks()
+    {
+        linkVersion.incrementAndGet();
+    }
+
     protected final Map<String, ScriptHost> userHosts = new Object2ObjectOpenHashMap<>();
     private final Map<Module, ModuleData> moduleData = new HashMap<>(); // marking imports
     private final Map<String, Module> modules = new HashMap<>();
@@ -180,6 +219,7 @@ public abstract class ScriptHost
         ModuleData data = new ModuleData(module);
         initializeModuleGlobals(data);
         moduleData.put(module, data);
+        invalidateLinks();
         runModuleCode(c, module);
         //moduleData.remove(module); // we are pooped already, but doesn't hurt to clean that up.
         //modules.remove(module.getName());
@@ -214,6 +254,7 @@ public abstract class ScriptHost
                 targetData.futureImports.put(identifier, sourceData);
             }
         }
+        invalidateLinks();
     }
 
     public Stream<String> availableImports(String moduleName)
@@ -257,6 +298,16 @@ public abstract class ScriptHost
         return ret;
     }
 
+    /**
+     * @return function resolved by name, to be used until the link gets invalid
+     */
+    public Link<FunctionValue> linkFunction(Module module, String name)
+    {
+        // version has to be read before resolving, so changes made in the meantime invalidate the link
+        int version = linkVersion.get();
+        return new Link<>(this, version, getAssertFunction(module, name));
+    }
+
     @Nullable
     private FunctionValue getFunction(Module module, String name)
     {
@@ -313,15 +364,35 @@ public abstract class ScriptHost
         return null;
     }
 
+    @Nullable
     public LazyValue getGlobalVariable(String name)
     {
         return getGlobalVariable(main, name);
     }
 
+    @Nullable
     public LazyValue getGlobalVariable(Module module, String name)
+    {
+        GlobalVariable variable = findGlobalVariable(module, name);
+        return variable == null ? null : variable.value;
+    }
+
+    /**
+     * @return global variable resolved by name, to be used until the link gets invalid, or null if it is not defined
+     */
+    @Nullable
+    public Link<GlobalVariable> linkGlobalVariable(Module module, String name)
+    {
+        int version = linkVersion.get();
+        GlobalVariable variable = findGlobalVariable(module, name);
+        return variable == null ? null : new Link<>(this, version, variable);
+    }
+
+    @Nullable
+    private GlobalVariable findGlobalVariable(Module module, String name)
     {
         ModuleData local = getModuleData(module);
-        LazyValue ret = local.globalVariables.get(name); // most uses would be from local scope anyways
+        GlobalVariable ret = local.globalVariables.get(name); // most uses would be from local scope anyways
         if (ret != null)
         {
             return ret;
@@ -377,6 +448,7 @@ public abstract class ScriptHost
         ModuleData data = getModuleData(module);
         data.globalFunctions.entrySet().removeIf(e -> e.getKey().startsWith(prefix));
         data.functionImports.entrySet().removeIf(e -> e.getKey().startsWith(prefix));
+        invalidateLinks();
     }
 
     public void delFunction(Module module, String funName)
@@ -384,6 +456,7 @@ public abstract class ScriptHost
         ModuleData data = getModuleData(module);
         data.globalFunctions.remove(funName);
         data.functionImports.remove(funName);
+        invalidateLinks();
     }
 
     public void delGlobalVariableWithPrefix(Module module, String prefix)
@@ -391,13 +464,15 @@ public abstract class ScriptHost
         ModuleData data = getModuleData(module);
         data.globalVariables.entrySet().removeIf(e -> e.getKey().startsWith(prefix));
         data.globalsImports.entrySet().removeIf(e -> e.getKey().startsWith(prefix));
+        invalidateLinks();
     }
 
     public void delGlobalVariable(Module module, String varName)
     {
         ModuleData data = getModuleData(module);
-        data.globalFunctions.remove(varName);
-        data.functionImports.remove(varName);
+        data.globalVariables.remove(varName);
+        data.globalsImports.remove(varName);
+        invalidateLinks();
     }
 
     private ModuleData getModuleData(Module module)
@@ -418,11 +493,21 @@ public abstract class ScriptHost
     public void addUserDefinedFunction(Context ctx, Module module, String name, FunctionValue fun)
     {
         getModuleData(module).globalFunctions.put(name, fun);
+        invalidateLinks();
     }
 
     public void setGlobalVariable(Module module, String name, LazyValue lv)
     {
-        getModuleData(module).globalVariables.put(name, lv);
+        Map<String, GlobalVariable> globals = getModuleData(module).globalVariables;
+        GlobalVariable variable = globals.get(name);
+        if (variable != null)
+        {
+            variable.value = lv;
+            return;
+        }
+        // may shadow an imported variable, or define one that wasn't found before
+        globals.put(name, new GlobalVariable(lv));
+        invalidateLinks();
     }
 
     public Stream<String> globalVariableNames(Module module, Predicate<String> predicate)
@@ -503,6 +588,7 @@ public abstract class ScriptHost
     public void onClose()
     {
         inTermination = true;
+        memoizationCache.clear();
         executorServices.values().forEach(ThreadPoolExecutor::shutdown);
         for (ScriptHost uh : userHosts.values())
         {
@@ -0,0 +1,332 @@
+package carpet.script;
+
+import carpet.script.Expression.ExpressionNode;
+import carpet.script.value.NumericValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Flow sensitive analysis of the code tree, finding expressions that are guaranteed to evaluate to numbers (not null).
+ * Local variables are followed through sequences of statements, branches and loops. Globals and built-in
+ * variables, like '_', are never assumed to hold numbers, since they can be changed outside of the analysed code.
+ * Results are used to build operator nodes that skip generic value dispatch.
+ */
+class TypeInference
+{
+    // evaluate to numbers if all arguments are numbers
+    private static final Set<String> ARITHMETIC = Set.of(
+            "+", "-", "*", "/", "sum", "difference", "product", "quotient", "-u", "opposite", "+u", "identity"
+    );
+    // always evaluate to numbers, or fail
+    private static final Set<String> NUMERIC = Set.of(
+            "%", "^", "modulo", "exponent",
+            ">", ">=", "<", "<=", "==", "!=", "decreasing", "nonincreasing", "increasing", "nondecreasing", "equal", "unique"
+    );
+
+    private final Expression expression;
+    private final Set<ExpressionNode> numeric = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private TypeInference(Expression expression)
+    {
+        this.expression = expression;
+    }
+
+    /**
+     * @return nodes of the tree that always evaluate to numbers
+     */
+    static Set<ExpressionNode> numericNodes(Expression expression, ExpressionNode root)
+    {
+        TypeInference inference = new TypeInference(expression);
+        inference.infer(root, new HashSet<>());
+        return inference.numeric;
+    }
+
+    /**
+     * @param variables local variables known to hold numbers before the node is evaluated, updated to what is known after
+     */
+    private boolean infer(ExpressionNode node, Set<String> variables)
+    {
+        boolean isNumber = inferNode(node, variables);
+        if (isNumber)
+        {
+            numeric.add(node);
+        }
+        return isNumber;
+    }
+
+    private boolean inferNode(ExpressionNode node, Set<String> variables)
+    {
+        if (node.op instanceof LazyValue.Constant constant)
+        {
+            return NumericValue.isNumber(constant.get());
+        }
+        Token token = node.token;
+        if (token.type == Token.TokenType.VARIABLE)
+        {
+            return variables.contains(token.surface);
+        }
+        if (!token.type.isFunctional())
+        {
+            return false;
+        }
+        List<ExpressionNode> args = node.args;
+        switch (token.surface)
+        {
+            case ";", "then" ->
+            {
+                boolean last = false;
+                for (ExpressionNode arg : args)
+                {
+                    last = infer(arg, variables);
+                }
+                return last;
+            }
+            case "=", "assign", "+=", "append" ->
+            {
+                return inferAssignment(node, variables);
+            }
+            case "<>", "swap" ->
+            {
+                for (ExpressionNode arg : args)
+                {
+                    forgetVariables(arg, variables);
+                }
+                return false;
+            }
+            case "->", "define" ->
+            {
+                // function bodies run in their own scope, but the same operator also creates map entries
+                args.forEach(arg -> forgetAssignedVariables(arg, variables));
+                if (args.size() == 2)
+                {
+                    infer(args.get(1), new HashSet<>());
+                }
+                return false;
+            }
+            case "&&", "||", "and", "or" ->
+            {
+                return inferConditional(args, variables);
+            }
+            case "!u", "not" ->
+            {
+                args.forEach(arg -> infer(arg, variables));
+                return true;
+            }
+            case "if" ->
+            {
+                return inferIf(args, variables);
+            }
+            case "undef" ->
+            {
+                args.forEach(arg -> infer(arg, variables));
+                variables.clear();
+                return false;
+            }
+            default ->
+            {
+            }
+        }
+        int[] iterated = Expression.loopIterationArguments(node);
+        if (iterated.length > 0)
+        {
+            inferLoop(args, iterated, variables);
+            return false;
+        }
+        Fluff.EvalNode operation = expression.evalNode(node);
+        if (!(operation instanceof Fluff.IFunction || operation instanceof Fluff.IOperator))
+        {
+            // lazy functions can evaluate their arguments in any order, any number of times
+            inferUnordered(args, variables);
+            return false;
+        }
+        boolean allNumbers = !args.isEmpty();
+        for (ExpressionNode arg : args)
+        {
+            if (!infer(arg, variables))
+            {
+                allNumbers = false;
+            }
+        }
+        String symbol = token.surface;
+        if (NUMERIC.contains(symbol))
+        {
+            return true;
+        }
+        if (ARITHMETIC.contains(symbol))
+        {
+            return allNumbers;
+        }
+        return token.type == Token.TokenType.FUNCTION && expression.returnsNumber(symbol);
+    }
+
+    private boolean inferAssignment(ExpressionNode node, Set<String> variables)
+    {
+        if (node.args.size() != 2)
+        {
+            inferUnordered(node.args, variables);
+            return false;
+        }
+        ExpressionNode target = node.args.get(0);
+        if (target.token.type != Token.TokenType.VARIABLE)
+        {
+            // unpacking or container assignment
+            forgetVariables(target, variables);
+            infer(node.args.get(1), variables);
+            return false;
+        }
+        String name = target.token.surface;
+        boolean appending = node.token.surface.equals("+=") || node.token.surface.equals("append");
+        boolean wasNumber = variables.contains(name);
+        boolean isNumber = infer(node.args.get(1), variables) && (!appending || wasNumber) && isTracked(name);
+        if (isNumber)
+        {
+            variables.add(name);
+        }
+        else
+        {
+            variables.remove(name);
+        }
+        return isNumber;
+    }
+
+    /**
+     * Only the first argument is always evaluated, others may be skipped.
+     */
+    private boolean inferConditional(List<ExpressionNode> args, Set<String> variables)
+    {
+        if (args.isEmpty())
+        {
+            return false;
+        }
+        boolean allNumbers = infer(args.get(0), variables);
+        Set<String> evaluated = new HashSet<>(variables);
+        for (ExpressionNode arg : args.subList(1, args.size()))
+        {
+            if (!infer(arg, evaluated))
+            {
+                allNumbers = false;
+            }
+            variables.retainAll(evaluated);
+        }
+        return allNumbers;
+    }
+
+    private boolean inferIf(List<ExpressionNode> args, Set<String> variables)
+    {
+        List<Set<String>> outcomes = new ArrayList<>();
+        boolean allNumbers = true;
+        for (int i = 0; i + 1 < args.size(); i += 2)
+        {
+            infer(args.get(i), variables);
+            Set<String> branch = new HashSet<>(variables);
+            if (!infer(args.get(i + 1), branch))
+            {
+                allNumbers = false;
+            }
+            outcomes.add(branch);
+        }
+        if (args.size() % 2 == 1)
+        {
+            if (!infer(args.get(args.size() - 1), variables))
+            {
+                allNumbers = false;
+            }
+        }
+        else
+        {
+            allNumbers = false; // null if no condition is met
+        }
+        outcomes.forEach(variables::retainAll);
+        return allNumbers;
+    }
+
+    private void inferLoop(List<ExpressionNode> args, int[] iterated, Set<String> variables)
+    {
+        boolean[] repeated = new boolean[args.size()];
+        for (int index : iterated)
+        {
+            repeated[index] = true;
+        }
+        for (int i = 0; i < args.size(); i++)
+        {
+            if (!repeated[i])
+            {
+                infer(args.get(i), variables);
+            }
+        }
+        // variables changed in any iteration can hold anything when an iteration starts
+        for (int index : iterated)
+        {
+            forgetAssignedVariables(args.get(index), variables);
+        }
+        for (int index : iterated)
+        {
+            infer(args.get(index), new HashSet<>(variables));
+        }
+    }
+
+    private void inferUnordered(List<ExpressionNode> args, Set<String> variables)
+    {
+        for (ExpressionNode arg : args)
+        {
+            forgetAssignedVariables(arg, variables);
+        }
+        for (ExpressionNode arg : args)
+        {
+            infer(arg, new HashSet<>(variables));
+        }
+    }
+
+    private static boolean isTracked(String variable)
+    {
+        return !variable.startsWith("_") && !variable.startsWith("global_");
+    }
+
+    private static void forgetVariables(ExpressionNode node, Set<String> variables)
+    {
+        if (node.token.type == Token.TokenType.VARIABLE)
+        {
+            variables.remove(node.token.surface);
+            return;
+        }
+        for (ExpressionNode arg : node.args)
+        {
+            forgetVariables(arg, variables);
+        }
+    }
+
+    private static void forgetAssignedVariables(ExpressionNode node, Set<String> variables)
+    {
+        if (!node.token.type.isFunctional() || node.op instanceof LazyValue.Constant)
+        {
+            return;
+        }
+        switch (node.token.surface)
+        {
+            case "=", "assign", "+=", "append", "<>", "swap" ->
+            {
+                if (!node.args.isEmpty())
+                {
+                    forgetVariables(node.args.get(0), variables);
+                }
+                if (node.token.surface.equals("<>") || node.token.surface.equals("swap"))
+                {
+                    node.args.forEach(arg -> forgetVariables(arg, variables));
+                }
+            }
+            case "undef" -> variables.clear();
+            default ->
+            {
+            }
+        }
+        for (ExpressionNode arg : node.args)
+        {
+            forgetAssignedVariables(arg, variables);
+        }
+    }
+}
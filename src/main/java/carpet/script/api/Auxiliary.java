@@ -347,7 +347,7 @@ public class Auxiliary
 
             ShapeDispatcher.sendShape(
                     (playerTargets.isEmpty()) ? cc.level().players() : playerTargets,
-                    shapes, cc.registryAccess()
+                    shapes, cc.registryAccess(), playerTargets.isEmpty()
             );
             return Value.TRUE;
         });
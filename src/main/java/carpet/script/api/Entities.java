@@ -10,19 +10,24 @@ import carpet.script.argument.Vector3Argument;
 import carpet.script.exception.InternalExpressionException;
 import carpet.script.value.EntityValue;
 import carpet.script.value.ListValue;
+import carpet.script.value.MapValue;
 import carpet.script.value.NBTSerializableValue;
 import carpet.script.value.NumericValue;
+import carpet.script.value.StringValue;
 import carpet.script.value.Value;
 import com.mojang.brigadier.StringReader;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.BiFunction;
 import java.util.function.Predicate;
 
 import net.minecraft.commands.CommandSourceStack;
@@ -178,9 +183,7 @@ public class Entities
             String who = lv.get(0).getString();
             CommandSourceStack source = ((CarpetContext) c).source();
             EntityValue.EntityClassDescriptor eDesc = EntityValue.getEntityDescriptor(who, source.getServer());
-            @SuppressWarnings("unchecked") // Eclipse's compiler finds an error if the cast isn't there (TODO report to ECJ)
-            List<? extends Entity> entityList = (List<? extends Entity>) source.getLevel().getEntities(eDesc.directType, eDesc.filteringPredicate);
-            return ListValue.wrap(entityList.stream().map(EntityValue::new));
+            return ListValue.wrap(eDesc.entitiesIn(source.getLevel()).stream().map(EntityValue::new));
         });
 
         expression.addContextFunction("entity_area", -1, (c, t, lv) ->
@@ -241,17 +244,69 @@ public class Entities
             {
                 throw new InternalExpressionException("First argument to query should be an entity");
             }
+            Value arg = switch (lv.size())
+                    {
+                        case 2 -> null;
+                        case 3 -> lv.get(2);
+                        default -> ListValue.wrap(lv.subList(2, lv.size()));
+                    };
+            if (lv.get(1) instanceof final EntityValue.Feature feature && feature.accessor != null)
+            {
+                return EntityValue.query(feature.accessor, feature.name, ev.getEntity(), arg);
+            }
             String what = lv.get(1).getString().toLowerCase(Locale.ROOT);
             if (what.equals("tags"))
             {
                 c.host.issueDeprecation("'tags' for entity querying");
             }
-            return switch (lv.size())
+            return ev.get(what, arg);
+        });
+        expression.addConstantArgumentBinder("query", 1, EntityValue.Feature::forQuery);
+
+        expression.addContextFunction("query_columns", -1, (c, t, lv) ->
+        {
+            if (lv.size() < 2)
+            {
+                throw new InternalExpressionException("'query_columns' takes entities as a first argument, and queried features as a second");
+            }
+            List<? extends Entity> entities;
+            if (lv.get(0) instanceof final ListValue list)
+            {
+                List<Entity> listed = new ArrayList<>(list.length());
+                for (Value v : list.getItems())
+                {
+                    if (!(v instanceof final EntityValue ev))
                     {
-                        case 2 -> ev.get(what, null);
-                        case 3 -> ev.get(what, lv.get(2));
-                        default -> ev.get(what, ListValue.wrap(lv.subList(2, lv.size())));
-                    };
+                        throw new InternalExpressionException("'query_columns' requires a list of entities, or an entity descriptor");
+                    }
+                    listed.add(ev.getEntity());
+                }
+                entities = listed;
+            }
+            else
+            {
+                CommandSourceStack source = ((CarpetContext) c).source();
+                entities = EntityValue.getEntityDescriptor(lv.get(0).getString(), source.getServer()).entitiesIn(source.getLevel());
+            }
+            Value featureArg = lv.get(1);
+            List<Value> features = lv.size() == 2 && featureArg instanceof final ListValue list ? list.getItems() : lv.subList(1, lv.size());
+            Map<Value, Value> columns = new HashMap<>();
+            for (Value feature : features)
+            {
+                String what = feature.getString().toLowerCase(Locale.ROOT);
+                if (what.equals("tags"))
+                {
+                    c.host.issueDeprecation("'tags' for entity querying");
+                }
+                BiFunction<Entity, Value, Value> accessor = EntityValue.featureAccessor(what);
+                List<Value> column = new ArrayList<>(entities.size());
+                for (Entity entity : entities)
+                {
+                    column.add(EntityValue.query(accessor, what, entity, null));
+                }
+                columns.put(new StringValue(what), ListValue.wrap(column));
+            }
+            return MapValue.wrap(columns);
         });
 
         // or update
@@ -266,15 +321,23 @@ public class Entities
             {
                 throw new InternalExpressionException("First argument to modify should be an entity");
             }
-            String what = lv.get(1).getString();
-            switch (lv.size())
+            Value toWhat = switch (lv.size())
+                    {
+                        case 2 -> null;
+                        case 3 -> lv.get(2);
+                        default -> ListValue.wrap(lv.subList(2, lv.size()));
+                    };
+            if (lv.get(1) instanceof final EntityValue.Feature feature && feature.modifier != null)
+            {
+                EntityValue.modify(feature.modifier, feature.name, ev.getEntity(), toWhat);
+            }
+            else
             {
-                case 2 -> ev.set(what, null);
-                case 3 -> ev.set(what, lv.get(2));
-                default -> ev.set(what, ListValue.wrap(lv.subList(2, lv.size())));
+                ev.set(lv.get(1).getString(), toWhat);
             }
             return v;
         });
+        expression.addConstantArgumentBinder("modify", 1, EntityValue.Feature::forModify);
 
         expression.addContextFunction("entity_types", -1, (c, t, lv) ->
         {
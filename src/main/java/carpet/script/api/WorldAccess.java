@@ -478,7 +478,7 @@ public class WorldAccess
             throw new InternalExpressionException("'weather' requires 0, 1 or 2 arguments");
         });
 
-        expression.addUnaryFunction("pos", v ->
+        expression.addImpureUnaryFunction("pos", v ->
         {
             if (v instanceof final BlockValue bv)
             {
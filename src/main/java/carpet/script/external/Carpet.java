@@ -6,6 +6,7 @@ import carpet.api.settings.CarpetRule;
 import carpet.api.settings.RuleHelper;
 import carpet.api.settings.SettingsManager;
 import carpet.fakes.MinecraftServerInterface;
+import carpet.helpers.HopperCounter;
 import carpet.logging.HUDController;
 import carpet.network.ServerNetworkHandler;
 import carpet.patches.EntityPlayerMPFake;
@@ -16,10 +17,14 @@ import carpet.script.CarpetScriptServer;
 import carpet.script.Module;
 import carpet.script.exception.InternalExpressionException;
 import carpet.script.exception.LoadException;
+import carpet.script.value.ListValue;
 import carpet.script.value.MapValue;
+import carpet.script.value.NumericValue;
 import carpet.script.value.StringValue;
+import carpet.script.value.ValueConversions;
 import carpet.utils.CarpetProfiler;
 import carpet.utils.Messenger;
+import carpet.utils.Metrics;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.loader.api.FabricLoader;
 import net.fabricmc.loader.api.ModContainer;
@@ -31,6 +36,7 @@ import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.item.DyeColor;
 import net.minecraft.world.entity.player.Player;
 
 import org.jspecify.annotations.Nullable;
@@ -49,6 +55,8 @@ import java.util.stream.Stream;
 
 public class Carpet
 {
+    private static final Runnable NO_SECTION = () -> {};
+
     public static Map<String, Component> getScarpetHeaders()
     {
         return HUDController.scarpet_headers;
@@ -82,7 +90,13 @@ public class Carpet
     public static Runnable startProfilerSection(String name)
     {
         CarpetProfiler.ProfilerToken token = CarpetProfiler.start_section(null, name, CarpetProfiler.TYPE.GENERAL);
-        return () -> CarpetProfiler.end_current_section(token);
+        return token == null ? NO_SECTION : token.ender();
+    }
+
+    public static Runnable startAppProfilerSection(String app)
+    {
+        CarpetProfiler.ProfilerToken token = CarpetProfiler.start_app_section(app);
+        return token == null ? NO_SECTION : token.ender();
     }
 
     // not needed in vanilla
@@ -96,6 +110,25 @@ public class Carpet
         return ServerNetworkHandler.isValidCarpetPlayer(player);
     }
 
+    public static void registerScarpetMetrics(CarpetScriptServer scriptServer)
+    {
+        Metrics.register("carpet_scarpet_apps", Metrics.Type.GAUGE, "Loaded scarpet apps",
+                (server, samples) -> samples.add(scriptServer.modules.size()));
+        Metrics.register("carpet_scarpet_tasks", Metrics.Type.GAUGE, "Running scarpet tasks",
+                (server, samples) -> scriptServer.modules.forEach((name, host) -> samples.add(host.taskCount(), "app", String.valueOf(name))));
+    }
+
+    public static void unregisterScarpetMetrics()
+    {
+        Metrics.unregister("carpet_scarpet_apps");
+        Metrics.unregister("carpet_scarpet_tasks");
+    }
+
+    public static boolean acceptsShapeRefresh(ServerPlayer player)
+    {
+        return ServerNetworkHandler.acceptsShapeRefresh(player);
+    }
+
     public static String getPlayerStatus(ServerPlayer player)
     {
         return ServerNetworkHandler.getPlayerStatus(player);
@@ -117,6 +150,69 @@ public class Carpet
         return carpetRules;
     }
 
+    public static MapValue getSectionLatencies()
+    {
+        MapValue sections = new MapValue(Collections.emptyList());
+        for (int minutes : new int[]{1, 5, 15})
+        {
+            StringValue window = new StringValue(minutes + "m");
+            CarpetProfiler.latencies(minutes).forEach((name, summary) -> {
+                MapValue stats = new MapValue(Collections.emptyList());
+                stats.put(new StringValue("ticks"), new NumericValue(summary.count()));
+                stats.put(new StringValue("p50"), new NumericValue(summary.p50() / 1000000.0));
+                stats.put(new StringValue("p95"), new NumericValue(summary.p95() / 1000000.0));
+                stats.put(new StringValue("p99"), new NumericValue(summary.p99() / 1000000.0));
+                stats.put(new StringValue("max"), new NumericValue(summary.max() / 1000000.0));
+                StringValue section = new StringValue(name);
+                if (!sections.getMap().containsKey(section))
+                {
+                    sections.put(section, new MapValue(Collections.emptyList()));
+                }
+                ((MapValue) sections.getMap().get(section)).put(window, stats);
+            });
+        }
+        return sections;
+    }
+
+    public static ListValue getChunkLag()
+    {
+        return ListValue.wrap(CarpetProfiler.chunk_lag().stream().map(chunk -> {
+            MapValue entry = new MapValue(Collections.emptyList());
+            entry.put(new StringValue("dimension"), ValueConversions.of(chunk.dimension().identifier()));
+            entry.put(new StringValue("chunk"), ListValue.of(new NumericValue(chunk.x()), new NumericValue(chunk.z())));
+            entry.put(new StringValue("time"), new NumericValue(chunk.time()));
+            entry.put(new StringValue("count"), new NumericValue(chunk.count()));
+            return entry;
+        }));
+    }
+
+    public static MapValue getHopperCounterRates(MinecraftServer server)
+    {
+        MapValue counters = new MapValue(Collections.emptyList());
+        for (DyeColor color : DyeColor.values())
+        {
+            HopperCounter counter = HopperCounter.getCounter(color);
+            if (!counter.isStarted())
+            {
+                continue;
+            }
+            MapValue stats = new MapValue(Collections.emptyList());
+            stats.put(new StringValue("total"), new NumericValue(counter.getTotalItems()));
+            for (int window : HopperCounter.RATE_WINDOWS)
+            {
+                HopperCounter.Rate rate = counter.getRate(server, window);
+                MapValue windowStats = new MapValue(Collections.emptyList());
+                windowStats.put(new StringValue("seconds"), new NumericValue(rate.seconds()));
+                windowStats.put(new StringValue("rate"), new NumericValue(rate.perHour()));
+                windowStats.put(new StringValue("peak"), new NumericValue(rate.peak()));
+                windowStats.put(new StringValue("peak_age"), new NumericValue(rate.peakAge()));
+                stats.put(new StringValue(window >= 3600 ? (window / 3600) + "h" : (window / 60) + "m"), windowStats);
+            }
+            counters.put(new StringValue(color.getName()), stats);
+        }
+        return counters;
+    }
+
     public static String getCarpetVersion()
     {
         return CarpetSettings.carpetVersion;
@@ -8,6 +8,7 @@ import carpet.mixins.Scoreboard_scarpetMixin;
 import carpet.network.ServerNetworkHandler;
 import carpet.script.CarpetScriptServer;
 import carpet.script.EntityEventsGroup;
+import carpet.script.utils.ShapeCodec;
 import carpet.script.value.MapValue;
 import carpet.script.value.StringValue;
 import carpet.script.value.Value;
@@ -20,8 +21,9 @@ import net.fabricmc.loader.api.ModContainer;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.commands.arguments.blocks.BlockInput;
 import net.minecraft.core.BlockPos;
+import net.minecraft.nbt.ByteArrayTag;
 import net.minecraft.nbt.CompoundTag;
-import net.minecraft.nbt.Tag;
+import net.minecraft.nbt.ListTag;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ChunkMap;
 import net.minecraft.server.level.DistanceManager;
@@ -33,6 +35,7 @@ import net.minecraft.server.permissions.PermissionSet;
 import net.minecraft.tags.TagKey;
 import net.minecraft.world.Container;
 import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.EntityType;
 import net.minecraft.world.entity.LivingEntity;
 import net.minecraft.world.entity.Mob;
 import net.minecraft.world.entity.ai.Brain;
@@ -61,6 +64,8 @@ import net.minecraft.world.scores.Objective;
 import net.minecraft.world.scores.Scoreboard;
 import net.minecraft.world.scores.criteria.ObjectiveCriteria;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -114,6 +119,14 @@ public class Vanilla
         return ((RandomStateVisitorAccessor) (Object) randomState).getVisitor();
     }
 
+    /**
+     * @return view of loaded entities of the type, found without going through other entities in the level
+     */
+    public static Collection<Entity> Level_getEntitiesOfType(ServerLevel level, EntityType<?> type)
+    {
+        return ((LevelInterface) level).getEntityTypeIndexCM().entitiesOf(type);
+    }
+
     public static CompoundTag BlockInput_getTag(BlockInput blockInput)
     {
         return ((BlockStateArgumentInterface) blockInput).getCMTag();
@@ -134,8 +147,20 @@ public class Vanilla
         return CarpetSettings.skipGenerationChecks;
     }
 
-    public static void sendScarpetShapesDataToPlayer(ServerPlayer player, Tag data)
+    public static void sendScarpetShapesDataToPlayer(ServerPlayer player, ListTag data)
     { // dont forget to add the packet to vanilla packed handler and call ShapesRenderer.addShape to handle on client
+        if (ServerNetworkHandler.acceptsCompactShapes(player))
+        {
+            try
+            {
+                ServerNetworkHandler.sendCustomCommand(player, "scShapesBin", new ByteArrayTag(ShapeCodec.encode(data)));
+                return;
+            }
+            catch (IOException e)
+            {
+                CarpetScriptServer.LOG.warn("Failed to encode shapes, sending them as NBT", e);
+            }
+        }
         ServerNetworkHandler.sendCustomCommand(player, "scShapes", data);
     }
 
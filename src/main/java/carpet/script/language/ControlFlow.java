@@ -117,7 +117,7 @@ public class ControlFlow
                                 NumericValue.of(f.getToken().linepos + 1)
                         ))),
 
-                        StringValue.of("locals"), MapValue.wrap(ret.context.variables.entrySet().stream().filter(e -> !e.getKey().equals("_trace")).collect(Collectors.toMap(
+                        StringValue.of("locals"), MapValue.wrap(ret.context.variables.entrySet().stream().filter(e -> !e.getKey().equals("_trace") && !Expression.isSyntheticVariable(e.getKey())).collect(Collectors.toMap(
                                 e -> StringValue.of(e.getKey()),
                                 e -> e.getValue().evalValue(ret.context)
                         ))),
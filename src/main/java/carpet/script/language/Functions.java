@@ -64,9 +64,15 @@ public class Functions
                 List<String> args = new ArrayList<>();
                 List<String> globals = new ArrayList<>();
                 String varArgs = null;
+                boolean memoized = false;
                 for (int i = 1; i < lv.size(); i++)
                 {
                     Value v = lv.get(i).evalValue(c, Context.LOCALIZATION);
+                    if (v instanceof final FunctionAnnotationValue fav && fav.type == FunctionAnnotationValue.Type.MEMOIZE)
+                    {
+                        memoized = true;
+                        continue;
+                    }
                     if (!v.isBound())
                     {
                         throw new InternalExpressionException("Only variables can be used in function signature, not  " + v.getString());
@@ -91,7 +97,7 @@ public class Functions
                         args.add(v.boundVariable);
                     }
                 }
-                Value retval = new FunctionSignatureValue(name, args, varArgs, globals);
+                Value retval = new FunctionSignatureValue(name, args, varArgs, globals, memoized);
                 return (cc, tt) -> retval;
             }
 
@@ -124,6 +130,15 @@ public class Functions
             return new FunctionAnnotationValue(lv.get(0), FunctionAnnotationValue.Type.GLOBAL);
         });
 
+        expression.addContextFunction("memoize", 0, (c, t, lv) ->
+        {
+            if (t != Context.LOCALIZATION)
+            {
+                throw new InternalExpressionException("Memoization of results can only be requested in function signatures.");
+            }
+            return FunctionAnnotationValue.memoize();
+        });
+
         //assigns const procedure to the lhs, returning its previous value
         // must be lazy due to RHS being an expression to save to execute
         expression.addLazyBinaryOperatorWithDelegation("->", "define", Operators.precedence.get("def->"), false, false, (c, type, e, t, lv1, lv2) ->
@@ -138,7 +153,7 @@ public class Functions
             {
                 throw new InternalExpressionException("'->' operator requires a function signature on the LHS");
             }
-            Value result = expression.createUserDefinedFunction(c, sign.identifier(), e, t, sign.arguments(), sign.varArgs(), sign.globals(), lv2);
+            Value result = expression.createUserDefinedFunction(c, sign.identifier(), e, t, sign.arguments(), sign.varArgs(), sign.globals(), lv2, sign.memoized());
             return (cc, tt) -> result;
         });
 
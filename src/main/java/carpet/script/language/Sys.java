@@ -174,7 +174,6 @@ public class Sys
                 throw new InternalExpressionException("'replace' expects string to read, pattern regex, and optional replacement string");
             }
             String data = lv.get(0).getString();
-            String regex = lv.get(1).getString();
             String replacement = "";
             if (lv.size() == 3)
             {
@@ -182,7 +181,7 @@ public class Sys
             }
             try
             {
-                return new StringValue(data.replaceAll(regex, replacement));
+                return new StringValue(lv.get(1).toPattern().matcher(data).replaceAll(replacement));
             }
             catch (PatternSyntaxException pse)
             {
@@ -197,13 +196,19 @@ public class Sys
                 throw new InternalExpressionException("'replace_first' expects string to read, pattern regex, and optional replacement string");
             }
             String data = lv.get(0).getString();
-            String regex = lv.get(1).getString();
             String replacement = "";
             if (lv.size() == 3)
             {
                 replacement = lv.get(2).getString();
             }
-            return new StringValue(data.replaceFirst(regex, replacement));
+            try
+            {
+                return new StringValue(lv.get(1).toPattern().matcher(data).replaceFirst(replacement));
+            }
+            catch (PatternSyntaxException pse)
+            {
+                throw new InternalExpressionException("Incorrect pattern for 'replace_first': " + pse.getMessage());
+            }
         });
 
         expression.addUnaryFunction("type", v -> new StringValue(v.getTypeString()));
@@ -331,7 +336,7 @@ public class Sys
             return new NumericValue(result);
         });
 
-        expression.addUnaryFunction("print", v ->
+        expression.addImpureUnaryFunction("print", v ->
         {
             System.out.println(v.getString());
             return v; // pass through for variables
@@ -43,7 +43,7 @@ public class Threading
         expression.addContextFunction("task_count", -1, (c, t, lv) ->
                 (!lv.isEmpty()) ? new NumericValue(c.host.taskCount(lv.get(0))) : new NumericValue(c.host.taskCount()));
 
-        expression.addUnaryFunction("task_value", v ->
+        expression.addImpureUnaryFunction("task_value", v ->
         {
             if (!(v instanceof final ThreadValue tv))
             {
@@ -52,7 +52,7 @@ public class Threading
             return tv.getValue();
         });
 
-        expression.addUnaryFunction("task_join", v ->
+        expression.addImpureUnaryFunction("task_join", v ->
         {
             if (!(v instanceof final ThreadValue tv))
             {
@@ -67,7 +67,7 @@ public class Threading
             lv.get(0)
         );
 
-        expression.addUnaryFunction("task_completed", v ->
+        expression.addImpureUnaryFunction("task_completed", v ->
         {
             if (!(v instanceof final ThreadValue tv))
             {
@@ -0,0 +1,152 @@
+package carpet.script.utils;
+
+import carpet.script.Context;
+import carpet.script.value.FunctionValue;
+import carpet.script.value.Value;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Results of calls to memoized user functions, kept by an app host. Bounded, evicting least recently used calls first.
+ * Arguments and results are stored as copies, so modifying them later doesn't affect the cache. Can be accessed
+ * from task threads.
+ */
+public class MemoizationCache
+{
+    public static final int CAPACITY = 4096;
+
+    private final Map<Call, Value> results = new LinkedHashMap<>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Call, Value> eldest)
+        {
+            if (size() > CAPACITY)
+            {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    };
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @return key of the call, or null if some of the arguments can't be used as keys
+     */
+    @Nullable
+    public static Call call(FunctionValue function, Context.Type type, List<Value> args)
+    {
+        List<Value> copies = new ArrayList<>(args.size());
+        int hash = 31 * function.hashCode() + type.hashCode();
+        try
+        {
+            for (Value arg : args)
+            {
+                Value copy = arg.deepcopy();
+                hash = 31 * hash + copy.hashCode();
+                copies.add(copy);
+            }
+        }
+        catch (UnsupportedOperationException ignored)
+        {
+            return null;
+        }
+        return new Call(function, type, copies, hash);
+    }
+
+    /**
+     * @return copy of the cached result, or null if the call is not cached
+     */
+    @Nullable
+    public Value get(Call call)
+    {
+        Value result;
+        synchronized (results)
+        {
+            result = results.get(call);
+        }
+        if (result == null)
+        {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return result.deepcopy();
+    }
+
+    public void put(Call call, Value result)
+    {
+        Value copy = result.deepcopy();
+        synchronized (results)
+        {
+            results.put(call, copy);
+        }
+    }
+
+    public void clear()
+    {
+        synchronized (results)
+        {
+            results.clear();
+        }
+    }
+
+    public int size()
+    {
+        synchronized (results)
+        {
+            return results.size();
+        }
+    }
+
+    public long hits()
+    {
+        return hits.sum();
+    }
+
+    public long misses()
+    {
+        return misses.sum();
+    }
+
+    public long evictions()
+    {
+        return evictions.sum();
+    }
+
+    public static final class Call
+    {
+        private final FunctionValue function;
+        private final Context.Type type;
+        private final List<Value> args;
+        private final int hash;
+
+        private Call(FunctionValue function, Context.Type type, List<Value> args, int hash)
+        {
+            this.function = function;
+            this.type = type;
+            this.args = args;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof Call other && hash == other.hash && type == other.type && function.equals(other.function) && args.equals(other.args);
+        }
+    }
+}
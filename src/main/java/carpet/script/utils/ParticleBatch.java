@@ -0,0 +1,182 @@
+package carpet.script.utils;
+
+import net.minecraft.core.particles.ParticleOptions;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.game.ClientGamePacketListener;
+import net.minecraft.network.protocol.game.ClientboundBundlePacket;
+import net.minecraft.network.protocol.game.ClientboundLevelParticlesPacket;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Particles drawn for a single player, sent together in bundle packets instead of one by one.
+ * <p>
+ * Batches replacing shapes for players without carpet client share a budget of particles per player per tick, and
+ * draw distant parts of shapes with less detail. When a shape would need more particles than what is left
+ * of the budget, its particles are spread further apart rather than cut short.
+ */
+public class ParticleBatch
+{
+    public static final int TICK_BUDGET = 4000;
+    // full detail up to that distance, further particles are spaced proportionally to the distance
+    private static final double DETAIL_DISTANCE = 24.0;
+    // same as for particles that override the client limiter
+    private static final double RANGE = 512.0;
+    // client refuses larger bundles
+    private static final int BUNDLE_SIZE = 4000;
+
+    private static final Map<ServerPlayer, long[]> spentBudgets = new WeakHashMap<>();
+
+    private final ServerPlayer player;
+    private final boolean adaptive;
+    private final List<Packet<? super ClientGamePacketListener>> packets = new ArrayList<>();
+    private int remaining;
+    private int particles = 0;
+
+    private ParticleBatch(ServerPlayer player, boolean adaptive, int budget)
+    {
+        this.player = player;
+        this.adaptive = adaptive;
+        this.remaining = budget;
+    }
+
+    /**
+     * @return batch with all particles requested, used by particle functions
+     */
+    public static ParticleBatch of(ServerPlayer player)
+    {
+        return new ParticleBatch(player, false, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return batch using what is left of player's budget in the current tick, with level of detail dropping with distance
+     */
+    public static ParticleBatch forShapes(ServerPlayer player)
+    {
+        long tick = player.level().getGameTime();
+        synchronized (spentBudgets)
+        {
+            long[] spent = spentBudgets.computeIfAbsent(player, p -> new long[]{tick, 0});
+            if (spent[0] != tick)
+            {
+                spent[0] = tick;
+                spent[1] = 0;
+            }
+            return new ParticleBatch(player, true, (int) Math.max(0, TICK_BUDGET - spent[1]));
+        }
+    }
+
+    public ServerPlayer player()
+    {
+        return player;
+    }
+
+    /**
+     * @return false if the budget ran out and no more particles should be added
+     */
+    public boolean add(ParticleOptions particle, double x, double y, double z)
+    {
+        return add(particle, x, y, z, 1, 0.0, 0.0, 0.0);
+    }
+
+    /**
+     * @return false if the budget ran out and no more particles should be added
+     */
+    public boolean add(ParticleOptions particle, double x, double y, double z, int count, double dx, double dy, double dz)
+    {
+        if (remaining <= 0)
+        {
+            return false;
+        }
+        if (player.position().distanceToSqr(x, y, z) > RANGE * RANGE)
+        {
+            return true;
+        }
+        int weight = Math.max(1, count);
+        remaining -= weight;
+        particles += weight;
+        packets.add(new ClientboundLevelParticlesPacket(particle, true, true, x, y, z, (float) dx, (float) dy, (float) dz, 0.0f, count));
+        return true;
+    }
+
+    /**
+     * @param spacing requested distance between particles
+     * @return distance between particles to use on a line between two points
+     */
+    public double spacing(double spacing, Vec3 from, Vec3 to)
+    {
+        if (!adaptive)
+        {
+            return spacing;
+        }
+        spacing *= detailFactor(distanceToSegment(from, to));
+        double length = from.distanceTo(to);
+        if (length / spacing > remaining)
+        {
+            spacing = length / Math.max(1, remaining);
+        }
+        return spacing;
+    }
+
+    /**
+     * @param count requested number of particles for a shape of given size around a point
+     * @return number of particles to use
+     */
+    public int count(int count, Vec3 center, double size)
+    {
+        if (!adaptive)
+        {
+            return count;
+        }
+        double distance = Math.max(0.0, player.position().distanceTo(center) - size);
+        return Math.min(remaining, (int) Math.ceil(count / detailFactor(distance)));
+    }
+
+    /**
+     * Sends all particles to the player
+     *
+     * @return number of particles sent
+     */
+    public int send()
+    {
+        for (int start = 0; start < packets.size(); start += BUNDLE_SIZE)
+        {
+            List<Packet<? super ClientGamePacketListener>> bundle = packets.subList(start, Math.min(packets.size(), start + BUNDLE_SIZE));
+            player.connection.send(bundle.size() == 1 ? bundle.get(0) : new ClientboundBundlePacket(new ArrayList<>(bundle)));
+        }
+        packets.clear();
+        if (adaptive)
+        {
+            synchronized (spentBudgets)
+            {
+                long[] spent = spentBudgets.get(player);
+                if (spent != null && spent[0] == player.level().getGameTime())
+                {
+                    spent[1] += particles;
+                }
+            }
+        }
+        int sent = particles;
+        particles = 0;
+        return sent;
+    }
+
+    private static double detailFactor(double distance)
+    {
+        return Math.max(1.0, distance / DETAIL_DISTANCE);
+    }
+
+    private double distanceToSegment(Vec3 from, Vec3 to)
+    {
+        Vec3 position = player.position();
+        Vec3 line = to.subtract(from);
+        double lengthSqr = line.lengthSqr();
+        double t = lengthSqr == 0.0 ? 0.0 : Math.clamp(position.subtract(from).dot(line) / lengthSqr, 0.0, 1.0);
+        return position.distanceTo(from.add(line.scale(t)));
+    }
+}
@@ -0,0 +1,37 @@
+package carpet.script.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Shared store of compiled regular expressions used by scarpet string functions, like 'replace', 'split' or the '~' operator.
+ * Can be accessed from task threads. When it grows beyond its capacity it is simply wiped, same as other scarpet caches.
+ */
+public class RegexCache
+{
+    private static final int CAPACITY = 1024;
+    private static final Map<String, Pattern> patterns = new ConcurrentHashMap<>();
+
+    /**
+     * @param regex - pattern string to compile
+     * @return compiled pattern, reused between calls with the same string
+     * @throws PatternSyntaxException if the pattern is not a valid regular expression, invalid patterns are not cached
+     */
+    public static Pattern get(String regex)
+    {
+        Pattern pattern = patterns.get(regex);
+        if (pattern != null)
+        {
+            return pattern;
+        }
+        pattern = Pattern.compile(regex);
+        if (patterns.size() >= CAPACITY)
+        {
+            patterns.clear();
+        }
+        patterns.put(regex, pattern);
+        return pattern;
+    }
+}
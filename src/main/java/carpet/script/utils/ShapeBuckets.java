@@ -0,0 +1,304 @@
+package carpet.script.utils;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.core.SectionPos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Shapes of one dimension drawn on the client, by their keys. Shapes are grouped in buckets by the chunk section
+ * of their position, so only buckets close to the camera are visited when rendering. Shapes without a fixed
+ * position, or too large to be tied to one place, are kept in a separate bucket that is always visited.
+ * <p>
+ * Expiry is tracked with a timing wheel, visiting each shape once when it is due, or once per turn of the wheel
+ * for shapes living longer than that, instead of checking all shapes every frame. Extending expiry of a shape
+ * doesn't move it on the wheel - it is just checked again when its old time comes.
+ */
+public class ShapeBuckets<T>
+{
+    private static final int SLOTS = 256;
+
+    private final Long2ObjectOpenHashMap<Entry<T>> entries = new Long2ObjectOpenHashMap<>();
+    private final Long2ObjectOpenHashMap<List<Entry<T>>> sections = new Long2ObjectOpenHashMap<>();
+    private final List<Entry<T>> unbounded = new ArrayList<>();
+    @SuppressWarnings("unchecked")
+    private final List<Entry<T>>[] wheel = new List[SLOTS];
+    private List<Entry<T>> spareSlot = new ArrayList<>();
+    // all ticks up to this one have been checked for expired shapes
+    private long processed;
+    // ticks the game spent frozen, with all shapes living that much longer
+    private long delay = 0;
+
+    public ShapeBuckets(long currentTick)
+    {
+        for (int i = 0; i < SLOTS; i++)
+        {
+            wheel[i] = new ArrayList<>();
+        }
+        processed = currentTick - 1;
+    }
+
+    /**
+     * @return bucket of shapes at given coordinates
+     */
+    public static long section(double x, double y, double z)
+    {
+        return SectionPos.asLong(SectionPos.posToSectionCoord(x), SectionPos.posToSectionCoord(y), SectionPos.posToSectionCoord(z));
+    }
+
+    @Nullable
+    public T get(long key)
+    {
+        Entry<T> entry = entries.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Adds a shape that is rendered regardless of the camera position, replacing a shape with the same key
+     */
+    public void put(long key, T value, long expiryTick)
+    {
+        put(new Entry<>(key, value, false, 0L), expiryTick);
+    }
+
+    /**
+     * Adds a shape that is rendered only close to the given section, replacing a shape with the same key
+     */
+    public void put(long key, T value, long section, long expiryTick)
+    {
+        put(new Entry<>(key, value, true, section), expiryTick);
+    }
+
+    private void put(Entry<T> entry, long expiryTick)
+    {
+        remove(entry.key);
+        entry.expiry = expiryTick - delay;
+        entries.put(entry.key, entry);
+        List<Entry<T>> bucket = entry.bounded ? sections.computeIfAbsent(entry.section, s -> new ArrayList<>()) : unbounded;
+        entry.index = bucket.size();
+        bucket.add(entry);
+        schedule(entry);
+    }
+
+    /**
+     * @return false if there is no shape with that key
+     */
+    public boolean setExpiry(long key, long expiryTick)
+    {
+        Entry<T> entry = entries.get(key);
+        if (entry == null)
+        {
+            return false;
+        }
+        entry.expiry = expiryTick - delay;
+        if (entry.expiry + 1 < entry.wheelTick)
+        {
+            schedule(entry);
+        }
+        return true;
+    }
+
+    public void remove(long key)
+    {
+        Entry<T> entry = entries.remove(key);
+        if (entry != null)
+        {
+            detach(entry);
+        }
+    }
+
+    /**
+     * Removes shapes that expired before the current tick
+     */
+    public void expire(long currentTick)
+    {
+        long now = currentTick - delay;
+        if (now <= processed)
+        {
+            return;
+        }
+        if (now - processed > SLOTS)
+        {
+            rebuild(now);
+            return;
+        }
+        while (processed < now)
+        {
+            processed++;
+            int slot = (int) (processed & (SLOTS - 1));
+            List<Entry<T>> due = wheel[slot];
+            if (due.isEmpty())
+            {
+                continue;
+            }
+            // shapes that are not expired yet may go back to the same slot
+            wheel[slot] = spareSlot;
+            for (Entry<T> entry : due)
+            {
+                if (entry.removed || entry.wheelTick != processed)
+                {
+                    continue; // already removed or rescheduled earlier
+                }
+                if (entry.expiry < processed)
+                {
+                    entries.remove(entry.key);
+                    detach(entry);
+                }
+                else
+                {
+                    schedule(entry);
+                }
+            }
+            due.clear();
+            spareSlot = due;
+        }
+    }
+
+    /**
+     * Makes all shapes live one tick longer, used when the game is frozen
+     */
+    public void delay()
+    {
+        delay++;
+    }
+
+    /**
+     * Visits shapes in buckets within given range of sections from the position, in all directions,
+     * and all shapes not tied to a position
+     */
+    public void forEachNear(double x, double y, double z, int sectionRange, Consumer<T> action)
+    {
+        unbounded.forEach(entry -> action.accept(entry.value));
+        int sectionX = SectionPos.posToSectionCoord(x);
+        int sectionY = SectionPos.posToSectionCoord(y);
+        int sectionZ = SectionPos.posToSectionCoord(z);
+        long side = 2L * sectionRange + 1;
+        if (side * side * side <= sections.size())
+        {
+            for (int dx = -sectionRange; dx <= sectionRange; dx++)
+            {
+                for (int dy = -sectionRange; dy <= sectionRange; dy++)
+                {
+                    for (int dz = -sectionRange; dz <= sectionRange; dz++)
+                    {
+                        List<Entry<T>> bucket = sections.get(SectionPos.asLong(sectionX + dx, sectionY + dy, sectionZ + dz));
+                        if (bucket != null)
+                        {
+                            bucket.forEach(entry -> action.accept(entry.value));
+                        }
+                    }
+                }
+            }
+            return;
+        }
+        // fewer buckets than sections in range, so it is quicker to check them all
+        for (Long2ObjectMap.Entry<List<Entry<T>>> bucket : Long2ObjectMaps.fastIterable(sections))
+        {
+            long section = bucket.getLongKey();
+            if (Math.abs(SectionPos.x(section) - sectionX) <= sectionRange
+                    && Math.abs(SectionPos.y(section) - sectionY) <= sectionRange
+                    && Math.abs(SectionPos.z(section) - sectionZ) <= sectionRange)
+            {
+                bucket.getValue().forEach(entry -> action.accept(entry.value));
+            }
+        }
+    }
+
+    public boolean isEmpty()
+    {
+        return entries.isEmpty();
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    public void clear()
+    {
+        entries.values().forEach(entry -> entry.removed = true);
+        entries.clear();
+        sections.clear();
+        unbounded.clear();
+        for (List<Entry<T>> slot : wheel)
+        {
+            slot.clear();
+        }
+    }
+
+    private void schedule(Entry<T> entry)
+    {
+        // checked on the first tick it is expired, but not further than one turn of the wheel
+        long tick = Math.min(Math.max(entry.expiry + 1, processed + 1), processed + SLOTS);
+        entry.wheelTick = tick;
+        wheel[(int) (tick & (SLOTS - 1))].add(entry);
+    }
+
+    private void rebuild(long now)
+    {
+        for (List<Entry<T>> slot : wheel)
+        {
+            slot.clear();
+        }
+        processed = now;
+        List<Entry<T>> expired = new ArrayList<>();
+        for (Entry<T> entry : entries.values())
+        {
+            if (entry.expiry < now)
+            {
+                expired.add(entry);
+            }
+            else
+            {
+                schedule(entry);
+            }
+        }
+        for (Entry<T> entry : expired)
+        {
+            entries.remove(entry.key);
+            detach(entry);
+        }
+    }
+
+    private void detach(Entry<T> entry)
+    {
+        entry.removed = true;
+        List<Entry<T>> bucket = entry.bounded ? sections.get(entry.section) : unbounded;
+        Entry<T> last = bucket.remove(bucket.size() - 1);
+        if (last != entry)
+        {
+            bucket.set(entry.index, last);
+            last.index = entry.index;
+        }
+        if (entry.bounded && bucket.isEmpty())
+        {
+            sections.remove(entry.section);
+        }
+    }
+
+    private static final class Entry<T>
+    {
+        final long key;
+        final T value;
+        final boolean bounded;
+        final long section;
+        long expiry;
+        long wheelTick;
+        int index;
+        boolean removed;
+
+        Entry(long key, T value, boolean bounded, long section)
+        {
+            this.key = key;
+            this.value = value;
+            this.bounded = bounded;
+            this.section = section;
+        }
+    }
+}
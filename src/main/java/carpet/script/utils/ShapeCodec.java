@@ -0,0 +1,367 @@
+package carpet.script.utils;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.DoubleTag;
+import net.minecraft.nbt.IntTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtAccounter;
+import net.minecraft.nbt.NbtAccounterException;
+import net.minecraft.nbt.Tag;
+import net.minecraft.nbt.TagTypes;
+import net.minecraft.world.phys.Vec3;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compact binary form of shape batches sent to carpet clients, used instead of plain NBT by clients that report
+ * the same {@link #ID}. Parameter names are sent as ids, coordinates as offsets from the first coordinate in the batch,
+ * and large batches are deflated. Decoding gives back the same tags that were encoded, so coordinates are only
+ * shortened when no precision is lost.
+ */
+public class ShapeCodec
+{
+    private static final int FORMAT = 1;
+    static final int DEFLATE_THRESHOLD = 1024;
+    private static final int MAX_ENTRIES = 1 << 20;
+    // same as the limit of NBT read from packets
+    private static final long MAX_TAG_BYTES = 2097152L;
+
+    private static final List<String> KEYS = Stream.concat(
+            ShapeDispatcher.Param.of.keySet().stream(),
+            Stream.of("refresh")
+    ).sorted().toList();
+    private static final Map<String, Integer> KEY_IDS = new HashMap<>()
+    {{
+        for (int i = 0; i < KEYS.size(); i++)
+        {
+            put(KEYS.get(i), i + 1);
+        }
+    }};
+
+    /**
+     * Identifies the format together with the parameter names it knows, so clients with different shape parameters
+     * fall back to NBT
+     */
+    public static final int ID = 31 * FORMAT + KEYS.hashCode();
+
+    static final byte FLAG_DEFLATED = 1;
+
+    private static final byte VALUE_TAG = 0;
+    private static final byte VALUE_INT = 1;
+    private static final byte VALUE_VEC = 2;
+    private static final byte VALUE_VEC_LIST = 3;
+
+    private static final byte VEC_INTEGRAL = 0;
+    private static final byte VEC_FLOAT = 1;
+    private static final byte VEC_DOUBLE = 2;
+
+    public static byte[] encode(ListTag shapes) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(0);
+        Vec3 origin = findOrigin(shapes);
+        writeVarLong(out, shapes.size());
+        out.writeDouble(origin.x);
+        out.writeDouble(origin.y);
+        out.writeDouble(origin.z);
+        for (Tag shape : shapes)
+        {
+            writeShape(out, (CompoundTag) shape, origin);
+        }
+        out.flush();
+        byte[] raw = bytes.toByteArray();
+        if (raw.length < DEFLATE_THRESHOLD)
+        {
+            return raw;
+        }
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream(raw.length / 2);
+        deflated.write(FLAG_DEFLATED);
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(deflated))
+        {
+            deflater.write(raw, 1, raw.length - 1);
+        }
+        return deflated.toByteArray();
+    }
+
+    public static ListTag decode(byte[] data) throws IOException
+    {
+        if (data.length == 0)
+        {
+            throw new IOException("Empty shape data");
+        }
+        InputStream stream = new ByteArrayInputStream(data, 1, data.length - 1);
+        if ((data[0] & FLAG_DEFLATED) != 0)
+        {
+            stream = new InflaterInputStream(stream);
+        }
+        DataInputStream in = new DataInputStream(stream);
+        int count = readCount(in);
+        Vec3 origin = new Vec3(in.readDouble(), in.readDouble(), in.readDouble());
+        ListTag shapes = new ListTag();
+        for (int i = 0; i < count; i++)
+        {
+            shapes.add(readShape(in, origin));
+        }
+        return shapes;
+    }
+
+    private static Vec3 findOrigin(ListTag shapes)
+    {
+        for (Tag shape : shapes)
+        {
+            for (Tag value : ((CompoundTag) shape).values())
+            {
+                if (isVec(value))
+                {
+                    return toVec((ListTag) value);
+                }
+            }
+        }
+        return Vec3.ZERO;
+    }
+
+    private static void writeShape(DataOutput out, CompoundTag shape, Vec3 origin) throws IOException
+    {
+        writeVarLong(out, shape.size());
+        for (String key : shape.keySet())
+        {
+            Integer id = KEY_IDS.get(key);
+            if (id == null)
+            {
+                writeVarLong(out, 0);
+                out.writeUTF(key);
+            }
+            else
+            {
+                writeVarLong(out, id);
+            }
+            writeValue(out, shape.get(key), origin);
+        }
+    }
+
+    private static CompoundTag readShape(DataInput in, Vec3 origin) throws IOException
+    {
+        CompoundTag shape = new CompoundTag();
+        int size = readCount(in);
+        for (int i = 0; i < size; i++)
+        {
+            int id = readCount(in);
+            String key;
+            if (id == 0)
+            {
+                key = in.readUTF();
+            }
+            else if (id <= KEYS.size())
+            {
+                key = KEYS.get(id - 1);
+            }
+            else
+            {
+                throw new IOException("Unknown shape parameter id: " + id);
+            }
+            shape.put(key, readValue(in, origin));
+        }
+        return shape;
+    }
+
+    private static void writeValue(DataOutput out, Tag value, Vec3 origin) throws IOException
+    {
+        if (value instanceof final IntTag intTag)
+        {
+            out.writeByte(VALUE_INT);
+            writeVarLong(out, zigzag(intTag.intValue()));
+        }
+        else if (isVec(value))
+        {
+            out.writeByte(VALUE_VEC);
+            writeVec(out, toVec((ListTag) value), origin);
+        }
+        else if (value instanceof final ListTag list && !list.isEmpty() && list.stream().allMatch(ShapeCodec::isVec))
+        {
+            out.writeByte(VALUE_VEC_LIST);
+            writeVarLong(out, list.size());
+            for (Tag point : list)
+            {
+                writeVec(out, toVec((ListTag) point), origin);
+            }
+        }
+        else
+        {
+            out.writeByte(VALUE_TAG);
+            out.writeByte(value.getId());
+            value.write(out);
+        }
+    }
+
+    private static Tag readValue(DataInput in, Vec3 origin) throws IOException
+    {
+        byte type = in.readByte();
+        return switch (type)
+        {
+            case VALUE_INT -> IntTag.valueOf((int) unzigzag(readVarLong(in)));
+            case VALUE_VEC -> toTag(readVec(in, origin));
+            case VALUE_VEC_LIST ->
+            {
+                ListTag list = new ListTag();
+                int size = readCount(in);
+                for (int i = 0; i < size; i++)
+                {
+                    list.add(toTag(readVec(in, origin)));
+                }
+                yield list;
+            }
+            case VALUE_TAG -> readTag(in);
+            default -> throw new IOException("Unknown shape value type: " + type);
+        };
+    }
+
+    private static Tag readTag(DataInput in) throws IOException
+    {
+        try
+        {
+            return TagTypes.getType(in.readByte()).load(in, NbtAccounter.create(MAX_TAG_BYTES));
+        }
+        catch (NbtAccounterException e)
+        {
+            throw new IOException("Malformed shape data", e);
+        }
+    }
+
+    private static boolean isVec(Tag tag)
+    {
+        return tag instanceof final ListTag list && list.size() == 3 && list.stream().allMatch(DoubleTag.class::isInstance);
+    }
+
+    private static Vec3 toVec(ListTag list)
+    {
+        return new Vec3(list.getDouble(0).orElseThrow(), list.getDouble(1).orElseThrow(), list.getDouble(2).orElseThrow());
+    }
+
+    private static ListTag toTag(Vec3 vec)
+    {
+        ListTag tag = new ListTag();
+        tag.add(DoubleTag.valueOf(vec.x));
+        tag.add(DoubleTag.valueOf(vec.y));
+        tag.add(DoubleTag.valueOf(vec.z));
+        return tag;
+    }
+
+    private static void writeVec(DataOutput out, Vec3 vec, Vec3 origin) throws IOException
+    {
+        double dx = vec.x - origin.x;
+        double dy = vec.y - origin.y;
+        double dz = vec.z - origin.z;
+        if (isIntegral(dx, origin.x, vec.x) && isIntegral(dy, origin.y, vec.y) && isIntegral(dz, origin.z, vec.z))
+        {
+            out.writeByte(VEC_INTEGRAL);
+            writeVarLong(out, zigzag((long) dx));
+            writeVarLong(out, zigzag((long) dy));
+            writeVarLong(out, zigzag((long) dz));
+        }
+        else if (isFloat(dx, origin.x, vec.x) && isFloat(dy, origin.y, vec.y) && isFloat(dz, origin.z, vec.z))
+        {
+            out.writeByte(VEC_FLOAT);
+            out.writeFloat((float) dx);
+            out.writeFloat((float) dy);
+            out.writeFloat((float) dz);
+        }
+        else
+        {
+            out.writeByte(VEC_DOUBLE);
+            out.writeDouble(vec.x);
+            out.writeDouble(vec.y);
+            out.writeDouble(vec.z);
+        }
+    }
+
+    private static Vec3 readVec(DataInput in, Vec3 origin) throws IOException
+    {
+        byte mode = in.readByte();
+        return switch (mode)
+        {
+            case VEC_INTEGRAL -> new Vec3(
+                    origin.x + unzigzag(readVarLong(in)),
+                    origin.y + unzigzag(readVarLong(in)),
+                    origin.z + unzigzag(readVarLong(in))
+            );
+            case VEC_FLOAT -> new Vec3(origin.x + in.readFloat(), origin.y + in.readFloat(), origin.z + in.readFloat());
+            case VEC_DOUBLE -> new Vec3(in.readDouble(), in.readDouble(), in.readDouble());
+            default -> throw new IOException("Unknown coordinate encoding: " + mode);
+        };
+    }
+
+    // offsets are only used if adding them back to the origin gives exactly the same coordinate
+    private static boolean isIntegral(double delta, double origin, double value)
+    {
+        return Math.abs(delta) < (1L << 52) && delta == Math.rint(delta) && sameDouble(origin + (long) delta, value);
+    }
+
+    private static boolean isFloat(double delta, double origin, double value)
+    {
+        return sameDouble(origin + (float) delta, value);
+    }
+
+    private static boolean sameDouble(double a, double b)
+    {
+        return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+    }
+
+    private static long zigzag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(DataOutput out, long value) throws IOException
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw new IOException("Malformed shape data");
+    }
+
+    private static int readCount(DataInput in) throws IOException
+    {
+        long count = readVarLong(in);
+        if (count < 0 || count > MAX_ENTRIES)
+        {
+            throw new IOException("Malformed shape data");
+        }
+        return (int) count;
+    }
+}
@@ -22,6 +22,7 @@ import carpet.script.value.Value;
 import carpet.script.value.ValueConversions;
 
 import com.google.common.collect.Sets;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
 import net.minecraft.core.Registry;
@@ -68,6 +69,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -148,7 +150,12 @@ public class ShapeDispatcher
         return new ShapeWithConfig(ShapeDispatcher.create(server, shapeType, params), params);
     }
 
-    public static void sendShape(Collection<ServerPlayer> players, List<ShapeWithConfig> shapes, RegistryAccess regs)
+    /**
+     * @param cull - whether to skip sending shapes to players in other dimensions or beyond their view distance,
+     *             used when shapes are not sent to specific players. Carpet clients get shapes they were too far from
+     *             once they come closer, see {@link #sendPendingShapes}
+     */
+    public static void sendShape(Collection<ServerPlayer> players, List<ShapeWithConfig> shapes, RegistryAccess regs, boolean cull)
     {
         List<ServerPlayer> clientPlayers = new ArrayList<>();
         List<ServerPlayer> alternativePlayers = new ArrayList<>();
@@ -158,30 +165,274 @@ public class ShapeDispatcher
         }
         if (!clientPlayers.isEmpty())
         {
-            ListTag tag = new ListTag();
-            int tagcount = 0;
-            for (ShapeWithConfig s : shapes)
+            // full tags are serialized once and shared between players that need them
+            CompoundTag[] fullTags = new CompoundTag[shapes.size()];
+            for (ServerPlayer player : clientPlayers)
             {
-                tag.add(ExpiringShape.toTag(s.config(), regs));  // 4000 shapes limit boxes
-                if (tagcount++ > 1000)
+                double range = viewRange(player);
+                SentShapes sent = SentShapes.of(player);
+                boolean refreshes = Carpet.acceptsShapeRefresh(player);
+                ListTag tag = new ListTag();
+                synchronized (sent)
                 {
-                    tagcount = 0;
-                    Tag finalTag = tag;
-                    clientPlayers.forEach(p -> Vanilla.sendScarpetShapesDataToPlayer(p, finalTag));
-                    tag = new ListTag();
+                    for (int i = 0; i < shapes.size(); i++)
+                    {
+                        ShapeWithConfig s = shapes.get(i);
+                        if (cull && !s.shape().isInRange(player, range))
+                        {
+                            sent.defer(player, s, regs);
+                            continue;
+                        }
+                        int index = i;
+                        Tag shapeTag = sent.update(player, s.shape(), s.shape().getExpiry(), regs, refreshes, () -> {
+                            if (fullTags[index] == null)
+                            {
+                                fullTags[index] = ExpiringShape.toTag(s.config(), regs);
+                            }
+                            return fullTags[index];
+                        });
+                        if (shapeTag == null)
+                        {
+                            continue;
+                        }
+                        tag.add(shapeTag);
+                        if (tag.size() > 1000) // 4000 shapes limit boxes
+                        {
+                            Vanilla.sendScarpetShapesDataToPlayer(player, tag);
+                            tag = new ListTag();
+                        }
+                    }
+                }
+                if (!tag.isEmpty())
+                {
+                    Vanilla.sendScarpetShapesDataToPlayer(player, tag);
                 }
-            }
-            Tag finalTag = tag;
-            if (!tag.isEmpty())
-            {
-                clientPlayers.forEach(p -> Vanilla.sendScarpetShapesDataToPlayer(p, finalTag));
             }
         }
         if (!alternativePlayers.isEmpty())
         {
-            List<Consumer<ServerPlayer>> alternatives = new ArrayList<>();
+            List<Consumer<ParticleBatch>> alternatives = new ArrayList<>();
             shapes.forEach(s -> alternatives.add(s.shape().alternative()));
-            alternativePlayers.forEach(p -> alternatives.forEach(a -> a.accept(p)));
+            for (ServerPlayer player : alternativePlayers)
+            {
+                double range = viewRange(player);
+                ParticleBatch batch = ParticleBatch.forShapes(player);
+                for (int i = 0; i < shapes.size(); i++)
+                {
+                    if (!cull || shapes.get(i).shape().isInRange(player, range))
+                    {
+                        alternatives.get(i).accept(batch);
+                    }
+                }
+                batch.send();
+            }
+        }
+    }
+
+    /**
+     * Sends shapes that were culled for being out of range to carpet clients that came close enough to them since,
+     * for the rest of their duration
+     */
+    public static void sendPendingShapes(MinecraftServer server)
+    {
+        if (server.getTickCount() % SentShapes.PENDING_CHECK_INTERVAL != 0)
+        {
+            return;
+        }
+        List<ServerPlayer> players = new ArrayList<>();
+        List<SentShapes> sentShapes = new ArrayList<>();
+        synchronized (SentShapes.players)
+        {
+            SentShapes.players.forEach((player, sent) -> {
+                if (sent.hasPending() && !player.hasDisconnected())
+                {
+                    players.add(player);
+                    sentShapes.add(sent);
+                }
+            });
+        }
+        RegistryAccess regs = server.registryAccess();
+        for (int i = 0; i < players.size(); i++)
+        {
+            ServerPlayer player = players.get(i);
+            SentShapes sent = sentShapes.get(i);
+            synchronized (sent)
+            {
+                ListTag tag = new ListTag();
+                for (Tag shapeTag : sent.takePendingInRange(player, regs))
+                {
+                    tag.add(shapeTag);
+                    if (tag.size() > 1000)
+                    {
+                        Vanilla.sendScarpetShapesDataToPlayer(player, tag);
+                        tag = new ListTag();
+                    }
+                }
+                if (!tag.isEmpty())
+                {
+                    Vanilla.sendScarpetShapesDataToPlayer(player, tag);
+                }
+            }
+        }
+    }
+
+    private static double viewRange(ServerPlayer player)
+    {
+        return (player.level().getServer().getPlayerList().getViewDistance() + 1) * 16.0;
+    }
+
+    /**
+     * Shapes recently sent to a carpet client, by their keys. Redrawing a shape the client still has only sends
+     * its new expiry, unless it has been a while since it was sent in full, in case the client dropped it,
+     * or the client is too old to know refreshes, and would ignore them.
+     * Also keeps shapes in the player's dimension that were too far to send, until they expire or the player gets close.
+     */
+    private static class SentShapes
+    {
+        private static final int FULL_RESEND_INTERVAL = 100;
+        private static final int PENDING_CHECK_INTERVAL = 10;
+        private static final int CAPACITY = 16384;
+        private static final Map<ServerPlayer, SentShapes> players = new WeakHashMap<>();
+
+        private final Long2ObjectOpenHashMap<SentShape> shapes = new Long2ObjectOpenHashMap<>();
+        private final Long2ObjectOpenHashMap<PendingShape> pending = new Long2ObjectOpenHashMap<>();
+        @Nullable
+        private ResourceKey<Level> playerDimension;
+
+        private static SentShapes of(ServerPlayer player)
+        {
+            synchronized (players)
+            {
+                return players.computeIfAbsent(player, p -> new SentShapes());
+            }
+        }
+
+        private synchronized boolean hasPending()
+        {
+            return !pending.isEmpty();
+        }
+
+        /**
+         * Keeps a shape that is out of the player's range, to be sent if the player comes close before it expires
+         */
+        private void defer(ServerPlayer player, ShapeWithConfig shape, RegistryAccess regs)
+        {
+            if (shape.shape().shapeDimension != player.level().dimension())
+            {
+                return;
+            }
+            long now = player.level().getGameTime();
+            if (pending.size() >= CAPACITY)
+            {
+                pending.values().removeIf(p -> p.expiry <= now);
+                if (pending.size() >= CAPACITY)
+                {
+                    return;
+                }
+            }
+            pending.put(shape.shape().key(regs), new PendingShape(shape, now + shape.shape().getExpiry()));
+        }
+
+        /**
+         * @return tags to send for the deferred shapes that are now in range of the player
+         */
+        private List<Tag> takePendingInRange(ServerPlayer player, RegistryAccess regs)
+        {
+            long now = player.level().getGameTime();
+            double range = viewRange(player);
+            boolean refreshes = Carpet.acceptsShapeRefresh(player);
+            List<PendingShape> due = new ArrayList<>();
+            pending.values().removeIf(p -> {
+                if (p.expiry > now && !p.shape.shape().isInRange(player, range))
+                {
+                    return false;
+                }
+                if (p.expiry > now)
+                {
+                    due.add(p);
+                }
+                return true;
+            });
+            List<Tag> tags = new ArrayList<>();
+            for (PendingShape p : due)
+            {
+                int duration = (int) (p.expiry - now);
+                Tag shapeTag = update(player, p.shape.shape(), duration, regs, refreshes, () -> {
+                    CompoundTag fullTag = ExpiringShape.toTag(p.shape.config(), regs);
+                    fullTag.putInt("duration", duration);
+                    return fullTag;
+                });
+                if (shapeTag != null)
+                {
+                    tags.add(shapeTag);
+                }
+            }
+            return tags;
+        }
+
+        /**
+         * @return tag to send for the shape, or null if the client already has it with the same expiry
+         */
+        @Nullable
+        private Tag update(ServerPlayer player, ExpiringShape shape, int duration, RegistryAccess regs, boolean refreshes, Supplier<CompoundTag> fullTag)
+        {
+            long now = player.level().getGameTime();
+            ResourceKey<Level> dimension = player.level().dimension();
+            if (dimension != playerDimension)
+            {
+                // clients may drop their shapes when changing levels
+                shapes.clear();
+                playerDimension = dimension;
+            }
+            long key = shape.key(regs);
+            pending.remove(key);
+            int content = shape.contentHash();
+            long expiry = now + duration;
+            SentShape sent = shapes.get(key);
+            if (sent != null && sent.content == content && sent.expiry > now && now - sent.sentAt < FULL_RESEND_INTERVAL)
+            {
+                if (sent.expiry == expiry)
+                {
+                    return null;
+                }
+                if (refreshes)
+                {
+                    sent.expiry = expiry;
+                    CompoundTag refresh = new CompoundTag();
+                    refresh.putLong("refresh", key);
+                    refresh.putString("dim", shape.shapeDimension.identifier().toString());
+                    refresh.putInt("duration", duration);
+                    return refresh;
+                }
+            }
+            if (sent == null)
+            {
+                if (shapes.size() >= CAPACITY)
+                {
+                    shapes.values().removeIf(s -> s.expiry <= now);
+                    if (shapes.size() >= CAPACITY)
+                    {
+                        shapes.clear();
+                    }
+                }
+                sent = new SentShape();
+                shapes.put(key, sent);
+            }
+            sent.content = content;
+            sent.expiry = expiry;
+            sent.sentAt = now;
+            return fullTag.get();
+        }
+
+        private static class SentShape
+        {
+            int content;
+            long expiry;
+            long sentAt;
+        }
+
+        private record PendingShape(ShapeWithConfig shape, long expiry)
+        {
         }
     }
 
@@ -458,7 +709,7 @@ public class ShapeDispatcher
         }
 
 
-        public abstract Consumer<ServerPlayer> alternative();
+        public abstract Consumer<ParticleBatch> alternative();
 
         public long key(RegistryAccess regs)
         {
@@ -470,6 +721,45 @@ public class ShapeDispatcher
             return key;
         }
 
+        /**
+         * @return hash of the parts of the shape that a client updates when the shape is redrawn with the same key
+         */
+        public int contentHash()
+        {
+            return 0;
+        }
+
+        /**
+         * @return whether the shape can be seen by a player, being in the same dimension and within range from it.
+         * Shapes following entities are always considered in range
+         */
+        public boolean isInRange(ServerPlayer player, double range)
+        {
+            if (player.level().dimension() != shapeDimension)
+            {
+                return false;
+            }
+            Vec3 center = center();
+            if (followEntity >= 0 || center == null)
+            {
+                return true;
+            }
+            double reach = range + extent();
+            return player.position().distanceToSqr(center) <= reach * reach;
+        }
+
+        @Nullable
+        protected Vec3 center()
+        {
+            return null;
+        }
+
+        // distance from the center to the furthest point of the shape
+        protected double extent()
+        {
+            return 0.0;
+        }
+
         protected long calcKey(RegistryAccess regs)
         { // using FNV-1a algorithm
             long hash = -3750763034362895579L;
@@ -638,12 +928,24 @@ public class ShapeDispatcher
         }
 
         @Override
-        public Consumer<ServerPlayer> alternative()
+        public Consumer<ParticleBatch> alternative()
         {
-            return s -> {
+            return batch -> {
             };
         }
 
+        @Override
+        public int contentHash()
+        {
+            return value.hashCode();
+        }
+
+        @Override
+        protected Vec3 center()
+        {
+            return pos;
+        }
+
         @Override
         public long calcKey(RegistryAccess regs)
         {
@@ -776,9 +1078,10 @@ public class ShapeDispatcher
         }
 
         @Override
-        public Consumer<ServerPlayer> alternative()
+        public Consumer<ParticleBatch> alternative()
         {
-            return p -> {
+            return batch -> {
+                ServerPlayer p = batch.player();
                 ParticleOptions particle;
                 Registry<Block> blocks = p.level().getServer().registryAccess().lookupOrThrow(Registries.BLOCK);
                 if (this.isitem)
@@ -795,10 +1098,22 @@ public class ShapeDispatcher
                 }
 
                 Vec3 v = relativiseRender(p.level(), this.pos, 0);
-                p.level().sendParticles(p, particle, true, true, v.x, v.y, v.z, 1, 0.0, 0.0, 0.0, 0.0);
+                batch.add(particle, v.x, v.y, v.z);
             };
         }
 
+        @Override
+        protected Vec3 center()
+        {
+            return pos;
+        }
+
+        @Override
+        protected double extent()
+        {
+            return Math.max(scaleX, Math.max(scaleY, scaleZ));
+        }
+
         @Override
         public long calcKey(RegistryAccess regs)
         {
@@ -883,15 +1198,16 @@ public class ShapeDispatcher
         }
 
         @Override
-        public Consumer<ServerPlayer> alternative()
+        public Consumer<ParticleBatch> alternative()
         {
             double density = Math.max(2.0, from.distanceTo(to) / 50 / (a + 0.1));
-            return p ->
+            return batch ->
             {
+                ServerPlayer p = batch.player();
                 if (p.level().dimension() == shapeDimension)
                 {
                     particleMesh(
-                            Collections.singletonList(p),
+                            batch,
                             replacementParticle(p.level().registryAccess()),
                             density,
                             relativiseRender(p.level(), from, 0),
@@ -901,6 +1217,18 @@ public class ShapeDispatcher
             };
         }
 
+        @Override
+        protected Vec3 center()
+        {
+            return from.add(to).scale(0.5);
+        }
+
+        @Override
+        protected double extent()
+        {
+            return from.distanceTo(to) / 2;
+        }
+
         @Override
         public long calcKey(RegistryAccess regs)
         {
@@ -916,6 +1244,18 @@ public class ShapeDispatcher
 
         public static int particleMesh(List<ServerPlayer> playerList, ParticleOptions particle, double density,
                                        Vec3 from, Vec3 to)
+        {
+            int pcount = 0;
+            for (ServerPlayer player : playerList)
+            {
+                ParticleBatch batch = ParticleBatch.of(player);
+                particleMesh(batch, particle, density, from, to);
+                pcount += batch.send();
+            }
+            return pcount;
+        }
+
+        public static void particleMesh(ParticleBatch batch, ParticleOptions particle, double density, Vec3 from, Vec3 to)
         {
             double x1 = from.x;
             double y1 = from.y;
@@ -923,21 +1263,20 @@ public class ShapeDispatcher
             double x2 = to.x;
             double y2 = to.y;
             double z2 = to.z;
-            return
-                    drawParticleLine(playerList, particle, new Vec3(x1, y1, z1), new Vec3(x1, y2, z1), density) +
-                            drawParticleLine(playerList, particle, new Vec3(x1, y2, z1), new Vec3(x2, y2, z1), density) +
-                            drawParticleLine(playerList, particle, new Vec3(x2, y2, z1), new Vec3(x2, y1, z1), density) +
-                            drawParticleLine(playerList, particle, new Vec3(x2, y1, z1), new Vec3(x1, y1, z1), density) +
-
-                            drawParticleLine(playerList, particle, new Vec3(x1, y1, z2), new Vec3(x1, y2, z2), density) +
-                            drawParticleLine(playerList, particle, new Vec3(x1, y2, z2), new Vec3(x2, y2, z2), density) +
-                            drawParticleLine(playerList, particle, new Vec3(x2, y2, z2), new Vec3(x2, y1, z2), density) +
-                            drawParticleLine(playerList, particle, new Vec3(x2, y1, z2), new Vec3(x1, y1, z2), density) +
-
-                            drawParticleLine(playerList, particle, new Vec3(x1, y1, z1), new Vec3(x1, y1, z2), density) +
-                            drawParticleLine(playerList, particle, new Vec3(x1, y2, z1), new Vec3(x1, y2, z2), density) +
-                            drawParticleLine(playerList, particle, new Vec3(x2, y2, z1), new Vec3(x2, y2, z2), density) +
-                            drawParticleLine(playerList, particle, new Vec3(x2, y1, z1), new Vec3(x2, y1, z2), density);
+            drawParticleLine(batch, particle, new Vec3(x1, y1, z1), new Vec3(x1, y2, z1), density);
+            drawParticleLine(batch, particle, new Vec3(x1, y2, z1), new Vec3(x2, y2, z1), density);
+            drawParticleLine(batch, particle, new Vec3(x2, y2, z1), new Vec3(x2, y1, z1), density);
+            drawParticleLine(batch, particle, new Vec3(x2, y1, z1), new Vec3(x1, y1, z1), density);
+
+            drawParticleLine(batch, particle, new Vec3(x1, y1, z2), new Vec3(x1, y2, z2), density);
+            drawParticleLine(batch, particle, new Vec3(x1, y2, z2), new Vec3(x2, y2, z2), density);
+            drawParticleLine(batch, particle, new Vec3(x2, y2, z2), new Vec3(x2, y1, z2), density);
+            drawParticleLine(batch, particle, new Vec3(x2, y1, z2), new Vec3(x1, y1, z2), density);
+
+            drawParticleLine(batch, particle, new Vec3(x1, y1, z1), new Vec3(x1, y1, z2), density);
+            drawParticleLine(batch, particle, new Vec3(x1, y2, z1), new Vec3(x1, y2, z2), density);
+            drawParticleLine(batch, particle, new Vec3(x2, y2, z1), new Vec3(x2, y2, z2), density);
+            drawParticleLine(batch, particle, new Vec3(x2, y1, z1), new Vec3(x2, y1, z2), density);
         }
     }
 
@@ -967,6 +1306,29 @@ public class ShapeDispatcher
             return hash;
         }
 
+        @Override
+        protected Vec3 center()
+        {
+            Vec3 sum = Vec3.ZERO;
+            for (Vec3 vertex : vertexList)
+            {
+                sum = sum.add(vertex);
+            }
+            return sum.scale(1.0 / vertexList.size());
+        }
+
+        @Override
+        protected double extent()
+        {
+            Vec3 center = center();
+            double extent = 0.0;
+            for (Vec3 vertex : vertexList)
+            {
+                extent = Math.max(extent, vertex.distanceTo(center));
+            }
+            return extent;
+        }
+
         ArrayList<Vec3> alterPoint = null;
         final Random random = new Random();
         boolean doublesided;
@@ -1078,9 +1440,10 @@ public class ShapeDispatcher
         }
 
         @Override
-        public Consumer<ServerPlayer> alternative()
+        public Consumer<ParticleBatch> alternative()
         {
-            return p -> {
+            return batch -> {
+                ServerPlayer p = batch.player();
                 if (p.level().dimension() != this.shapeDimension)
                 {
                     return;
@@ -1090,9 +1453,10 @@ public class ShapeDispatcher
                     ParticleOptions locparticledata = new DustParticleOptions(ARGB.colorFromFloat(1.0f, fr, fg, fb), 1);
                     for (Vec3 v : getAlterPoint(p))
                     {
-                        p.level().sendParticles(p, locparticledata, true, true,
-                                v.x, v.y, v.z, 1,
-                                0.0, 0.0, 0.0, 0.0);
+                        if (!batch.add(locparticledata, v.x, v.y, v.z))
+                        {
+                            break;
+                        }
                     }
                 }
             };
@@ -1220,15 +1584,16 @@ public class ShapeDispatcher
         }
 
         @Override
-        public Consumer<ServerPlayer> alternative()
+        public Consumer<ParticleBatch> alternative()
         {
             double density = Math.max(2.0, from.distanceTo(to) / 50) / (a + 0.1);
-            return p ->
+            return batch ->
             {
+                ServerPlayer p = batch.player();
                 if (p.level().dimension() == shapeDimension)
                 {
                     drawParticleLine(
-                            Collections.singletonList(p),
+                            batch,
                             replacementParticle(p.level().registryAccess()),
                             relativiseRender(p.level(), from, 0),
                             relativiseRender(p.level(), to, 0),
@@ -1238,6 +1603,18 @@ public class ShapeDispatcher
             };
         }
 
+        @Override
+        protected Vec3 center()
+        {
+            return from.add(to).scale(0.5);
+        }
+
+        @Override
+        protected double extent()
+        {
+            return from.distanceTo(to) / 2;
+        }
+
         @Override
         public long calcKey(RegistryAccess regs)
         {
@@ -1294,16 +1671,16 @@ public class ShapeDispatcher
         }
 
         @Override
-        public Consumer<ServerPlayer> alternative()
+        public Consumer<ParticleBatch> alternative()
         {
-            return p ->
+            return batch ->
             {
-                int partno = Math.min(1000, 20 * subdivisions);
-                RandomSource rand = p.level().getRandom();
-                ServerLevel world = p.level();
+                ServerLevel world = batch.player().level();
+                RandomSource rand = world.getRandom();
                 ParticleOptions particle = replacementParticle(world.registryAccess());
 
                 Vec3 ccenter = relativiseRender(world, center, 0);
+                int partno = batch.count(Math.min(1000, 20 * subdivisions), ccenter, radius);
 
                 double ccx = ccenter.x;
                 double ccy = ccenter.y;
@@ -1317,13 +1694,23 @@ public class ShapeDispatcher
                     double x = radius * Mth.cos(theta) * Mth.cos(phi);
                     double y = radius * Mth.cos(theta) * Mth.sin(phi);
                     double z = radius * Mth.sin(theta);
-                    world.sendParticles(p, particle, true, true,
-                            x + ccx, y + ccy, z + ccz, 1,
-                            0.0, 0.0, 0.0, 0.0);
+                    batch.add(particle, x + ccx, y + ccy, z + ccz);
                 }
             };
         }
 
+        @Override
+        protected Vec3 center()
+        {
+            return center;
+        }
+
+        @Override
+        protected double extent()
+        {
+            return radius;
+        }
+
         @Override
         public long calcKey(RegistryAccess regs)
         {
@@ -1391,16 +1778,16 @@ public class ShapeDispatcher
 
 
         @Override
-        public Consumer<ServerPlayer> alternative()
+        public Consumer<ParticleBatch> alternative()
         {
-            return p ->
+            return batch ->
             {
-                int partno = (int) Math.min(1000, Math.sqrt(20 * subdivisions * (1 + height)));
-                RandomSource rand = p.level().getRandom();
-                ServerLevel world = p.level();
+                ServerLevel world = batch.player().level();
+                RandomSource rand = world.getRandom();
                 ParticleOptions particle = replacementParticle(world.registryAccess());
 
                 Vec3 ccenter = relativiseRender(world, center, 0);
+                int partno = batch.count((int) Math.min(1000, Math.sqrt(20 * subdivisions * (1 + height))), ccenter, radius + Math.abs(height));
 
                 double ccx = ccenter.x;
                 double ccy = ccenter.y;
@@ -1415,7 +1802,7 @@ public class ShapeDispatcher
                         double x = radius * Mth.cos(phi);
                         double y = d;
                         double z = radius * Mth.sin(phi);
-                        world.sendParticles(p, particle, true, true,x + ccx, y + ccy, z + ccz, 1, 0.0, 0.0, 0.0, 0.0);
+                        batch.add(particle, x + ccx, y + ccy, z + ccz);
                     }
                 }
                 else if (axis == Direction.Axis.X)
@@ -1427,7 +1814,7 @@ public class ShapeDispatcher
                         double x = d;
                         double y = radius * Mth.cos(phi);
                         double z = radius * Mth.sin(phi);
-                        world.sendParticles(p, particle, true, true, x + ccx, y + ccy, z + ccz, 1, 0.0, 0.0, 0.0, 0.0);
+                        batch.add(particle, x + ccx, y + ccy, z + ccz);
                     }
                 }
                 else  // Z
@@ -1439,12 +1826,24 @@ public class ShapeDispatcher
                         double x = radius * Mth.sin(phi);
                         double y = radius * Mth.cos(phi);
                         double z = d;
-                        world.sendParticles(p, particle, true, true, x + ccx, y + ccy, z + ccz, 1, 0.0, 0.0, 0.0, 0.0);
+                        batch.add(particle, x + ccx, y + ccy, z + ccz);
                     }
                 }
             };
         }
 
+        @Override
+        protected Vec3 center()
+        {
+            return center;
+        }
+
+        @Override
+        protected double extent()
+        {
+            return radius + Math.abs(height);
+        }
+
         @Override
         public long calcKey(RegistryAccess regs)
         {
@@ -2196,75 +2595,74 @@ public class ShapeDispatcher
         return false;
     }
 
-    private static int drawOptimizedParticleLine(List<ServerPlayer> playerList, ParticleOptions particle, Vec3 from, Vec3 to, double density)
+    private static void drawOptimizedParticleLine(ParticleBatch batch, ParticleOptions particle, Vec3 from, Vec3 to, double density)
     {
         double distance = from.distanceTo(to);
         int particles = (int) (distance / density);
         Vec3 towards = to.subtract(from);
-        int parts = 0;
-        for (ServerPlayer player : playerList)
-        {
-            ServerLevel world = player.level();
-            world.sendParticles(player, particle, true, true,
-                    (towards.x) / 2 + from.x, (towards.y) / 2 + from.y, (towards.z) / 2 + from.z, particles / 3,
-                    towards.x / 6, towards.y / 6, towards.z / 6, 0.0);
-            world.sendParticles(player, particle, true, true,
-                    from.x, from.y, from.z, 1, 0.0, 0.0, 0.0, 0.0);
-            world.sendParticles(player, particle, true, true,
-                    to.x, to.y, to.z, 1, 0.0, 0.0, 0.0, 0.0);
-            parts += particles / 3 + 2;
+        if (!batch.add(particle, (towards.x) / 2 + from.x, (towards.y) / 2 + from.y, (towards.z) / 2 + from.z, particles / 3,
+                towards.x / 6, towards.y / 6, towards.z / 6)
+                || !batch.add(particle, from.x, from.y, from.z)
+                || !batch.add(particle, to.x, to.y, to.z))
+        {
+            return;
         }
         int divider = 6;
         while (particles / divider > 1)
         {
             int center = (divider * 2) / 3;
             int dev = 2 * divider;
-            for (ServerPlayer player : playerList)
+            if (!batch.add(particle, (towards.x) / center + from.x, (towards.y) / center + from.y, (towards.z) / center + from.z, particles / divider,
+                    towards.x / dev, towards.y / dev, towards.z / dev)
+                    || !batch.add(particle, (towards.x) * (1.0 - 1.0 / center) + from.x, (towards.y) * (1.0 - 1.0 / center) + from.y, (towards.z) * (1.0 - 1.0 / center) + from.z, particles / divider,
+                    towards.x / dev, towards.y / dev, towards.z / dev))
             {
-                ServerLevel world = player.level();
-                world.sendParticles(player, particle, true, true,
-                        (towards.x) / center + from.x, (towards.y) / center + from.y, (towards.z) / center + from.z, particles / divider,
-                        towards.x / dev, towards.y / dev, towards.z / dev, 0.0);
-                world.sendParticles(player, particle, true, true,
-                        (towards.x) * (1.0 - 1.0 / center) + from.x, (towards.y) * (1.0 - 1.0 / center) + from.y, (towards.z) * (1.0 - 1.0 / center) + from.z, particles / divider,
-                        towards.x / dev, towards.y / dev, towards.z / dev, 0.0);
+                return;
             }
-            parts += 2 * particles / divider;
             divider = 2 * divider;
         }
-        return parts;
     }
 
     public static int drawParticleLine(List<ServerPlayer> players, ParticleOptions particle, Vec3 from, Vec3 to, double density)
+    {
+        int pcount = 0;
+        for (ServerPlayer player : players)
+        {
+            ParticleBatch batch = ParticleBatch.of(player);
+            drawParticleLine(batch, particle, from, to, density);
+            pcount += batch.send();
+        }
+        return pcount;
+    }
+
+    public static void drawParticleLine(ParticleBatch batch, ParticleOptions particle, Vec3 from, Vec3 to, double density)
     {
         double distance = from.distanceToSqr(to);
         if (distance == 0)
         {
-            return 0;
+            return;
         }
-        int pcount = 0;
+        density = batch.spacing(density, from, to);
         if (distance < 100)
         {
-            RandomSource rand = players.get(0).level().getRandom();
+            RandomSource rand = batch.player().level().getRandom();
             int particles = (int) (distance / density) + 1;
             Vec3 towards = to.subtract(from);
             for (int i = 0; i < particles; i++)
             {
                 Vec3 at = from.add(towards.scale(rand.nextDouble()));
-                for (ServerPlayer player : players)
+                if (!batch.add(particle, at.x, at.y, at.z))
                 {
-                    player.level().sendParticles(player, particle, true, true,
-                            at.x, at.y, at.z, 1,
-                            0.0, 0.0, 0.0, 0.0);
-                    pcount++;
+                    return;
                 }
             }
-            return pcount;
+            return;
         }
 
         if (isStraight(from, to, density))
         {
-            return drawOptimizedParticleLine(players, particle, from, to, density);
+            drawOptimizedParticleLine(batch, particle, from, to, density);
+            return;
         }
         Vec3 incvec = to.subtract(from).scale(2 * density / Math.sqrt(distance));
 
@@ -2272,14 +2670,10 @@ public class ShapeDispatcher
              delta.lengthSqr() < distance;
              delta = delta.add(incvec.scale(Sys.randomizer.nextFloat())))
         {
-            for (ServerPlayer player : players)
+            if (!batch.add(particle, delta.x + from.x, delta.y + from.y, delta.z + from.z))
             {
-                player.level().sendParticles(player, particle, true, true,
-                        delta.x + from.x, delta.y + from.y, delta.z + from.z, 1,
-                        0.0, 0.0, 0.0, 0.0);
-                pcount++;
+                return;
             }
         }
-        return pcount;
     }
 }
@@ -11,9 +11,10 @@ import com.mojang.blaze3d.vertex.VertexConsumer;
 import com.mojang.blaze3d.vertex.VertexFormat;
 //import com.mojang.blaze3d.vertex.VertexFormat.Mode;
 import com.mojang.math.Axis;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
@@ -40,8 +41,10 @@ import net.minecraft.client.renderer.state.level.LevelRenderState;
 import net.minecraft.client.renderer.texture.OverlayTexture;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
+import net.minecraft.core.registries.Registries;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
+import net.minecraft.resources.Identifier;
 import net.minecraft.resources.ResourceKey;
 import net.minecraft.util.LightCoordsUtil;
 import net.minecraft.util.Mth;
@@ -61,8 +64,12 @@ import org.joml.Quaternionf;
 
 public class ShapesRenderer
 {
-    private final Map<ResourceKey<Level>, Long2ObjectOpenHashMap<RenderedShape<? extends ShapeDispatcher.ExpiringShape>>> shapes;
-    private final Map<ResourceKey<Level>, Long2ObjectOpenHashMap<RenderedShape<? extends ShapeDispatcher.ExpiringShape>>> labels;
+    // shapes larger than that are rendered regardless of the distance to their center
+    private static final double LOCAL_SHAPE_EXTENT = 16.0;
+
+    private final Map<ResourceKey<Level>, ShapeBuckets<RenderedShape<? extends ShapeDispatcher.ExpiringShape>>> shapes;
+    private final Map<ResourceKey<Level>, ShapeBuckets<RenderedShape<? extends ShapeDispatcher.ExpiringShape>>> labels;
+    private final List<RenderedShape<? extends ShapeDispatcher.ExpiringShape>> visible = new ArrayList<>();
     private final Minecraft client;
 
     private final Map<String, BiFunction<Minecraft, ShapeDispatcher.ExpiringShape, RenderedShape<? extends ShapeDispatcher.ExpiringShape>>> renderedShapes
@@ -123,8 +130,9 @@ public class ShapesRenderer
         Camera camera = this.client.gameRenderer.mainCamera();
         ClientLevel iWorld = this.client.level;
         ResourceKey<Level> dimensionType = iWorld.dimension();
-        if ((shapes.get(dimensionType) == null || shapes.get(dimensionType).isEmpty()) &&
-                (labels.get(dimensionType) == null || labels.get(dimensionType).isEmpty()))
+        ShapeBuckets<RenderedShape<? extends ShapeDispatcher.ExpiringShape>> dimShapes = shapes.get(dimensionType);
+        ShapeBuckets<RenderedShape<? extends ShapeDispatcher.ExpiringShape>> dimLabels = labels.get(dimensionType);
+        if ((dimShapes == null || dimShapes.isEmpty()) && (dimLabels == null || dimLabels.isEmpty()))
         {
             return;
         }
@@ -149,15 +157,16 @@ public class ShapesRenderer
         double cameraY = camera.position().y;
         double cameraZ = camera.position().z;
         boolean entityBoxes = client.debugEntries.isCurrentlyEnabled(DebugScreenEntries.ENTITY_HITBOXES);
+        int chunkRange = client.options.getEffectiveRenderDistance() + 1;
 
         final DrawableGizmoPrimitives normal = new DrawableGizmoPrimitives();
         final DrawableGizmoPrimitives onTop = new DrawableGizmoPrimitives();
 
-        if (!shapes.isEmpty())
+        if (dimShapes != null)
         {
-            shapes.get(dimensionType).long2ObjectEntrySet().removeIf(
-                    entry -> entry.getValue().isExpired(currentTime)
-            );
+            dimShapes.expire(currentTime);
+            visible.clear();
+            dimShapes.forEachNear(cameraX, cameraY, cameraZ, chunkRange, visible::add);
             Matrix4fStack matrixStack = RenderSystem.getModelViewStack();
             matrixStack.pushMatrix();
             //matrixStack.mul(matrices.last().pose());
@@ -165,14 +174,14 @@ public class ShapesRenderer
 
             // lines
             //RenderSystem.lineWidth(0.5F);
-            shapes.get(dimensionType).values().forEach(s -> {
+            visible.forEach(s -> {
                 if ((!s.shape.debug || entityBoxes) && s.shouldRender(dimensionType))
                 {
                     s.renderLines(matrices, cameraX, cameraY, cameraZ, partialTick, cameraa, s.shape.seethrough ? onTop : normal, submitNodeStorage );
                 }
             });
             // faces
-            shapes.get(dimensionType).values().forEach(s -> {
+            visible.forEach(s -> {
                 if ((!s.shape.debug || entityBoxes) && s.shouldRender(dimensionType))
                 {
                     s.renderFaces(cameraX, cameraY, cameraZ, partialTick, s.shape.seethrough ? onTop : normal);
@@ -182,12 +191,12 @@ public class ShapesRenderer
             matrixStack.popMatrix();
 
         }
-        if (!labels.isEmpty())
+        if (dimLabels != null)
         {
-            labels.get(dimensionType).long2ObjectEntrySet().removeIf(
-                    entry -> entry.getValue().isExpired(currentTime)
-            );
-            labels.get(dimensionType).values().forEach(s -> {
+            dimLabels.expire(currentTime);
+            visible.clear();
+            dimLabels.forEachNear(cameraX, cameraY, cameraZ, chunkRange, visible::add);
+            visible.forEach(s -> {
                 if ((!s.shape.debug || entityBoxes) && s.shouldRender(dimensionType))
                 {
                     s.renderLines(matrices, cameraX, cameraY, cameraZ, partialTick, cameraa, s.shape.seethrough ? onTop : normal, submitNodeStorage );
@@ -232,6 +241,11 @@ public class ShapesRenderer
 
     public void addShape(CompoundTag tag)
     {
+        if (tag.contains("refresh"))
+        {
+            refreshShape(tag);
+            return;
+        }
         ShapeDispatcher.ExpiringShape shape = ShapeDispatcher.fromTag(tag, client.level);
         if (shape == null)
         {
@@ -248,32 +262,59 @@ public class ShapesRenderer
             RenderedShape<?> rshape = shapeFactory.apply(client, shape);
             ResourceKey<Level> dim = shape.shapeDimension;
             long key = rshape.key();
-            Map<ResourceKey<Level>, Long2ObjectOpenHashMap<RenderedShape<? extends ShapeDispatcher.ExpiringShape>>> container =
+            Map<ResourceKey<Level>, ShapeBuckets<RenderedShape<? extends ShapeDispatcher.ExpiringShape>>> container =
                     rshape.stageDeux() ? labels : shapes;
-            RenderedShape<?> existing = container.computeIfAbsent(dim, d -> new Long2ObjectOpenHashMap<>()).get(key);
+            ShapeBuckets<RenderedShape<? extends ShapeDispatcher.ExpiringShape>> buckets =
+                    container.computeIfAbsent(dim, d -> new ShapeBuckets<>(client.level.getGameTime()));
+            RenderedShape<?> existing = buckets.get(key);
             if (existing != null)
             {   // promoting previous shape
                 existing.promoteWith(rshape);
+                buckets.setExpiry(key, rshape.expiryTick);
             }
             else
             {
-                container.get(dim).put(key, rshape);
+                Vec3 center = shape.center();
+                if (shape.followEntity >= 0 || center == null || shape.extent() > LOCAL_SHAPE_EXTENT)
+                {
+                    buckets.put(key, rshape, rshape.expiryTick);
+                }
+                else
+                {
+                    buckets.put(key, rshape, ShapeBuckets.section(center.x, center.y, center.z), rshape.expiryTick);
+                }
             }
 
         }
     }
 
+    // server only sends the key of a shape it has already sent, to update its expiry
+    private void refreshShape(CompoundTag tag)
+    {
+        long key = tag.getLong("refresh").orElseThrow();
+        ResourceKey<Level> dim = ResourceKey.create(Registries.DIMENSION, Identifier.parse(tag.getString("dim").orElseThrow()));
+        long expiryTick = client.level.getGameTime() + tag.getInt("duration").orElseThrow();
+        for (Map<ResourceKey<Level>, ShapeBuckets<RenderedShape<? extends ShapeDispatcher.ExpiringShape>>> container : List.of(shapes, labels))
+        {
+            ShapeBuckets<RenderedShape<? extends ShapeDispatcher.ExpiringShape>> buckets = container.get(dim);
+            if (buckets != null)
+            {
+                buckets.setExpiry(key, expiryTick);
+            }
+        }
+    }
+
     public void reset()
     {
-        shapes.values().forEach(Long2ObjectOpenHashMap::clear);
-        labels.values().forEach(Long2ObjectOpenHashMap::clear);
+        shapes.values().forEach(ShapeBuckets::clear);
+        labels.values().forEach(ShapeBuckets::clear);
     }
 
     public void renewShapes()
     {
         Runnable token = Carpet.startProfilerSection("Scarpet client");
-        shapes.values().forEach(el -> el.values().forEach(shape -> shape.expiryTick++));
-        labels.values().forEach(el -> el.values().forEach(shape -> shape.expiryTick++));
+        shapes.values().forEach(ShapeBuckets::delay);
+        labels.values().forEach(ShapeBuckets::delay);
 
         token.run();
     }
@@ -282,7 +323,7 @@ public class ShapesRenderer
     {
         protected T shape;
         protected Minecraft client;
-        long expiryTick;
+        final long expiryTick; // as requested when received, then kept by the buckets holding the shape
         double renderEpsilon;
 
         public abstract void renderLines(PoseStack matrices, double cx, double cy, double cz, float partialTick, LevelRenderState levelRenderState, DrawableGizmoPrimitives primitives, SubmitNodeStorage submitNodeStorage);
@@ -299,11 +340,6 @@ public class ShapesRenderer
             renderEpsilon = (3 + ((double) key()) / Long.MAX_VALUE) / 1000;
         }
 
-        public boolean isExpired(long currentTick)
-        {
-            return expiryTick < currentTick;
-        }
-
         public long key()
         {
             return shape.key(client.level.registryAccess());
@@ -332,8 +368,7 @@ public class ShapesRenderer
         }
 
         public void promoteWith(RenderedShape<?> rshape)
-        {
-            expiryTick = rshape.expiryTick;
+        { // expiry is updated by the buckets holding the shape
         }
     }
 
@@ -45,6 +45,16 @@ public class SystemInfo
         put("app_list", c -> ListValue.wrap(((CarpetScriptHost) c.host).scriptServer().modules.keySet().stream().filter(Objects::nonNull).map(StringValue::new)));
         put("app_scope", c -> StringValue.of((c.host).isPerUser() ? "player" : "global"));
         put("app_players", c -> ListValue.wrap(c.host.getUserList().stream().map(StringValue::new)));
+        put("app_memoization", c -> {
+            MemoizationCache cache = c.host.memoizationCache;
+            Map<Value, Value> stats = new HashMap<>();
+            stats.put(StringValue.of("size"), new NumericValue(cache.size()));
+            stats.put(StringValue.of("capacity"), new NumericValue(MemoizationCache.CAPACITY));
+            stats.put(StringValue.of("hits"), new NumericValue(cache.hits()));
+            stats.put(StringValue.of("misses"), new NumericValue(cache.misses()));
+            stats.put(StringValue.of("evictions"), new NumericValue(cache.evictions()));
+            return MapValue.wrap(stats);
+        });
 
         put("world_name", c -> new StringValue(c.server().getWorldData().getLevelName()));
         put("world_seed", c -> new NumericValue(c.level().getSeed()));
@@ -137,6 +147,9 @@ public class SystemInfo
             }
             return ListValue.wrap(ticks);
         });
+        put("server_section_latency", c -> Carpet.getSectionLatencies());
+        put("server_chunk_lag", c -> Carpet.getChunkLag());
+        put("server_hopper_counters", c -> Carpet.getHopperCounterRates(c.server()));
 
         put("java_max_memory", c -> new NumericValue(Runtime.getRuntime().maxMemory()));
         put("java_allocated_memory", c -> new NumericValue(Runtime.getRuntime().totalMemory()));
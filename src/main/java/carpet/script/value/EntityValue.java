@@ -256,11 +256,11 @@ public class EntityValue extends Value
                 if (eTag.size() == 1)
                 {
                     EntityType<?> type = eTag.iterator().next();
-                    return new EntityClassDescriptor(type, Entity::isAlive, eTag.stream());
+                    return new EntityClassDescriptor(type, Entity::isAlive, eTag.stream(), true);
                 }
                 else
                 {
-                    return new EntityClassDescriptor(ANY, e -> eTag.contains(e.getType()) && e.isAlive(), eTag.stream());
+                    return new EntityClassDescriptor(ANY, e -> eTag.contains(e.getType()) && e.isAlive(), eTag.stream(), true);
                 }
             }
             else
@@ -278,12 +278,20 @@ public class EntityValue extends Value
         public final EntityTypeTest<Entity, ? extends Entity> directType; // interface of EntityType
         public final Predicate<? super Entity> filteringPredicate;
         public final List<EntityType<? extends Entity>> types;
+        // all matching entities are of listed types, and there are few enough of these types to look them up one by one
+        private final boolean byTypes;
 
-        EntityClassDescriptor(EntityTypeTest<Entity, ?> type, Predicate<? super Entity> predicate, List<EntityType<?>> types)
+        EntityClassDescriptor(EntityTypeTest<Entity, ?> type, Predicate<? super Entity> predicate, List<EntityType<?>> types, boolean byTypes)
         {
             this.directType = type;
             this.filteringPredicate = predicate;
             this.types = types;
+            this.byTypes = byTypes;
+        }
+
+        EntityClassDescriptor(EntityTypeTest<Entity, ?> type, Predicate<? super Entity> predicate, List<EntityType<?>> types)
+        {
+            this(type, predicate, types, false);
         }
 
         EntityClassDescriptor(EntityTypeTest<Entity, ?> type, Predicate<? super Entity> predicate, Stream<EntityType<?>> types)
@@ -291,6 +299,36 @@ public class EntityValue extends Value
             this(type, predicate, types.toList());
         }
 
+        EntityClassDescriptor(EntityTypeTest<Entity, ?> type, Predicate<? super Entity> predicate, Stream<EntityType<?>> types, boolean byTypes)
+        {
+            this(type, predicate, types.toList(), byTypes);
+        }
+
+        /**
+         * @return loaded entities in the level matching the descriptor
+         */
+        public List<? extends Entity> entitiesIn(ServerLevel level)
+        {
+            if (!byTypes)
+            {
+                @SuppressWarnings("unchecked") // Eclipse's compiler finds an error if the cast isn't there (TODO report to ECJ)
+                List<? extends Entity> entities = (List<? extends Entity>) level.getEntities(directType, filteringPredicate);
+                return entities;
+            }
+            List<Entity> entities = new ArrayList<>();
+            for (EntityType<?> type : types)
+            {
+                for (Entity entity : Vanilla.Level_getEntitiesOfType(level, type))
+                {
+                    if (filteringPredicate.test(entity))
+                    {
+                        entities.add(entity);
+                    }
+                }
+            }
+            return entities;
+        }
+
         public Value listValue(RegistryAccess regs)
         {
             Registry<EntityType<?>> entityRegs = regs.lookupOrThrow(Registries.ENTITY_TYPE);
@@ -394,13 +432,13 @@ public class EntityValue extends Value
             {
                 EntityType<?> type = BuiltInRegistries.ENTITY_TYPE.getValue(typeId);
                 String mobType = ValueConversions.simplify(typeId);
-                put(mobType, new EntityClassDescriptor(type, net.minecraft.world.entity.EntitySelector.ENTITY_STILL_ALIVE, Stream.of(type)));
+                put(mobType, new EntityClassDescriptor(type, net.minecraft.world.entity.EntitySelector.ENTITY_STILL_ALIVE, Stream.of(type), true));
                 put("!" + mobType, new EntityClassDescriptor(ANY, (e) -> e.getType() != type && e.isAlive(), allTypes.stream().filter(et -> et != type)));
             }
             for (MobCategory catId : MobCategory.values())
             {
                 String catStr = catId.getName();
-                put(catStr, new EntityClassDescriptor(ANY, e -> ((e.getType().getCategory() == catId) && e.isAlive()), allTypes.stream().filter(et -> et.getCategory() == catId)));
+                put(catStr, new EntityClassDescriptor(ANY, e -> ((e.getType().getCategory() == catId) && e.isAlive()), allTypes.stream().filter(et -> et.getCategory() == catId), true));
                 put("!" + catStr, new EntityClassDescriptor(ANY, e -> ((e.getType().getCategory() != catId) && e.isAlive()), allTypes.stream().filter(et -> et.getCategory() != catId)));
             }
         }};
@@ -408,13 +446,27 @@ public class EntityValue extends Value
 
     public Value get(String what, @Nullable Value arg)
     {
-        if (!(featureAccessors.containsKey(what)))
+        return query(featureAccessor(what), what, getEntity(), arg);
+    }
+
+    /**
+     * @return accessor of the queried feature, which can be reused to query many entities
+     */
+    public static BiFunction<Entity, Value, Value> featureAccessor(String what)
+    {
+        BiFunction<Entity, Value, Value> accessor = featureAccessors.get(what);
+        if (accessor == null)
         {
             throw new InternalExpressionException("Unknown entity feature: " + what);
         }
+        return accessor;
+    }
+
+    public static Value query(BiFunction<Entity, Value, Value> accessor, String what, Entity entity, @Nullable Value arg)
+    {
         try
         {
-            return featureAccessors.get(what).apply(getEntity(), arg);
+            return accessor.apply(entity, arg);
         }
         catch (NullPointerException npe)
         {
@@ -422,6 +474,58 @@ public class EntityValue extends Value
         }
     }
 
+    /**
+     * Feature name given as a constant in the code, with its accessor or modifier found when the code was optimized,
+     * so 'query' and 'modify' don't need to look it up on each call. Behaves as a plain string otherwise.
+     */
+    public static final class Feature extends StringValue
+    {
+        public final String name;
+        @Nullable
+        public final BiFunction<Entity, Value, Value> accessor;
+        @Nullable
+        public final BiConsumer<Entity, Value> modifier;
+
+        private Feature(String literal, String name, @Nullable BiFunction<Entity, Value, Value> accessor, @Nullable BiConsumer<Entity, Value> modifier)
+        {
+            super(literal);
+            this.name = name;
+            this.accessor = accessor;
+            this.modifier = modifier;
+        }
+
+        public static Value forQuery(Value literal)
+        {
+            String what = literal.getString().toLowerCase(Locale.ROOT);
+            // deprecated features are reported when used
+            if (!(literal instanceof StringValue) || what.equals("tags"))
+            {
+                return literal;
+            }
+            BiFunction<Entity, Value, Value> accessor = featureAccessors.get(what);
+            if (accessor == null)
+            {
+                throw new InternalExpressionException("Unknown entity feature: " + what);
+            }
+            return new Feature(literal.getString(), what, accessor, null);
+        }
+
+        public static Value forModify(Value literal)
+        {
+            if (!(literal instanceof StringValue))
+            {
+                return literal;
+            }
+            String what = literal.getString();
+            BiConsumer<Entity, Value> modifier = featureModifiers.get(what);
+            if (modifier == null)
+            {
+                throw new InternalExpressionException("Unknown entity action: " + what);
+            }
+            return new Feature(what, what, null, modifier);
+        }
+    }
+
     private static final Map<String, EquipmentSlot> inventorySlots = Map.of(
             "mainhand", EquipmentSlot.MAINHAND,
             "offhand", EquipmentSlot.OFFHAND,
@@ -887,13 +991,27 @@ public class EntityValue extends Value
 
     public void set(String what, @Nullable Value toWhat)
     {
-        if (!(featureModifiers.containsKey(what)))
+        modify(featureModifier(what), what, getEntity(), toWhat);
+    }
+
+    /**
+     * @return modifier of the feature, which can be reused to modify many entities
+     */
+    public static BiConsumer<Entity, Value> featureModifier(String what)
+    {
+        BiConsumer<Entity, Value> modifier = featureModifiers.get(what);
+        if (modifier == null)
         {
             throw new InternalExpressionException("Unknown entity action: " + what);
         }
+        return modifier;
+    }
+
+    public static void modify(BiConsumer<Entity, Value> modifier, String what, Entity entity, @Nullable Value toWhat)
+    {
         try
         {
-            featureModifiers.get(what).accept(getEntity(), toWhat);
+            modifier.accept(entity, toWhat);
         }
         catch (NullPointerException npe)
         {
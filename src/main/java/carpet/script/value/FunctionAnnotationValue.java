@@ -8,7 +8,7 @@ public class FunctionAnnotationValue extends Value
 {
     public enum Type
     {
-        GLOBAL, VARARG
+        GLOBAL, VARARG, MEMOIZE
     }
 
     public Type type;
@@ -23,10 +23,23 @@ public class FunctionAnnotationValue extends Value
         this.type = type;
     }
 
+    private FunctionAnnotationValue(Type type)
+    {
+        this.type = type;
+    }
+
+    /**
+     * @return annotation marking the function for caching its results, not bound to any variable
+     */
+    public static FunctionAnnotationValue memoize()
+    {
+        return new FunctionAnnotationValue(Type.MEMOIZE);
+    }
+
     @Override
     public String getString()
     {
-        return boundVariable;
+        return type == Type.MEMOIZE ? "memoize()" : boundVariable;
     }
 
     @Override
@@ -8,13 +8,20 @@ public class FunctionSignatureValue extends FrameworkValue
     private final List<String> arguments;
     private final List<String> globals;
     private final String varArgs;
+    private final boolean memoized;
 
     public FunctionSignatureValue(String name, List<String> args, String varArgs, List<String> globals)
+    {
+        this(name, args, varArgs, globals, false);
+    }
+
+    public FunctionSignatureValue(String name, List<String> args, String varArgs, List<String> globals, boolean memoized)
     {
         this.identifier = name;
         this.arguments = args;
         this.varArgs = varArgs;
         this.globals = globals;
+        this.memoized = memoized;
     }
     public String identifier()
     {
@@ -26,4 +33,5 @@ public class FunctionSignatureValue extends FrameworkValue
     }
     public List<String> globals() {return globals;}
     public String varArgs() { return varArgs;}
+    public boolean memoized() { return memoized; }
 }
@@ -12,12 +12,15 @@ import carpet.script.exception.ContinueStatement;
 import carpet.script.exception.ExpressionException;
 import carpet.script.exception.InternalExpressionException;
 import carpet.script.exception.ReturnStatement;
+import carpet.script.utils.MemoizationCache;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import net.minecraft.core.RegistryAccess;
 import net.minecraft.nbt.StringTag;
@@ -35,7 +38,15 @@ public class FunctionValue extends Value implements Fluff.ILazyFunction
     private final List<String> args;
     private final String varArgs;
     private static long variantCounter = 1;
+    private static final int MAX_ERROR_STACK = 64;
+    // frames of finished calls that nothing refers to anymore, reused by next calls made on the same thread
+    private static final ThreadLocal<ArrayDeque<Context>> FRAME_POOL = ThreadLocal.withInitial(ArrayDeque::new);
+    private static final int FRAME_POOL_SIZE = 16;
     private long variant;
+    private boolean memoized;
+    // arguments that the body never accesses by name, which don't need own copies of passed values
+    private boolean[] sharedArgs;
+    private boolean reusesFrame;
 
     private FunctionValue(Expression expression, Token token, String name, LazyValue body, List<String> args, String varArgs)
     {
@@ -46,18 +57,38 @@ public class FunctionValue extends Value implements Fluff.ILazyFunction
         this.args = args;
         this.varArgs = varArgs;
         this.outerState = null;
+        this.sharedArgs = new boolean[args.size()];
         variant = 0L;
     }
 
     public FunctionValue(Expression expression, Token token, String name, LazyValue body, List<String> args, String varArgs, Map<String, LazyValue> outerState)
     {
+        this(expression, token, name, body, args, varArgs, outerState, false);
+    }
+
+    public FunctionValue(Expression expression, Token token, String name, LazyValue body, List<String> args, String varArgs, Map<String, LazyValue> outerState, boolean memoized)
+    {
+        this.memoized = memoized;
         this.expression = expression;
         this.token = token;
         this.name = name;
-        this.body = body;
         this.args = args;
         this.varArgs = varArgs;
         this.outerState = outerState;
+        this.sharedArgs = new boolean[args.size()];
+        if (body instanceof LazyValue.FunctionBody functionBody)
+        {
+            this.body = functionBody.code();
+            for (int i = 0; i < args.size(); i++)
+            {
+                sharedArgs[i] = !functionBody.namedVariables().contains(args.get(i));
+            }
+            this.reusesFrame = functionBody.reusesFrame();
+        }
+        else
+        {
+            this.body = body;
+        }
         variant = variantCounter++;
     }
 
@@ -101,6 +132,9 @@ public class FunctionValue extends Value implements Fluff.ILazyFunction
         FunctionValue ret = new FunctionValue(expression, token, name, body, args, varArgs);
         ret.outerState = this.outerState;
         ret.variant = this.variant;
+        ret.memoized = this.memoized;
+        ret.sharedArgs = this.sharedArgs;
+        ret.reusesFrame = this.reusesFrame;
         return ret;
     }
 
@@ -157,26 +191,55 @@ public class FunctionValue extends Value implements Fluff.ILazyFunction
         return varArgs != null;
     }
 
+    /**
+     * @return true if results of calls are cached by the app, declared with memoize() in the function signature
+     */
+    public boolean isMemoized()
+    {
+        return memoized;
+    }
+
     public LazyValue callInContext(Context c, Context.Type type, List<Value> params)
+    {
+        return withErrorStack(c, () -> execute(c, type, expression, token, params, null));
+    }
+
+    private <T> T withErrorStack(Context c, Supplier<T> call)
     {
         try
         {
-            return execute(c, type, expression, token, params, null);
+            return call.get();
         }
         catch (ExpressionException exc)
         {
-            exc.stack.add(this);
+            addToErrorStack(exc.stack);
             throw exc;
         }
         catch (InternalExpressionException exc)
         {
-            exc.stack.add(this);
+            addToErrorStack(exc.stack);
             throw new ExpressionException(c, expression, token, exc.getMessage(), exc.stack);
         }
         catch (ArithmeticException exc)
         {
             throw new ExpressionException(c, expression, token, "Your math is wrong, " + exc.getMessage(), Collections.singletonList(this));
         }
+        catch (StackOverflowError soe)
+        {
+            // the innermost frame with enough stack left to create the error reports it, outer frames only add to its stack
+            throw new ExpressionException(c, expression, token,
+                    "Your thoughts are too deep, recursion in " + fullName() + " ran out of stack. Make recursive calls the last thing the function does, or keep pending work in a list",
+                    Collections.singletonList(this));
+        }
+    }
+
+    private void addToErrorStack(List<FunctionValue> stack)
+    {
+        // deep recursion would otherwise report thousands of identical frames
+        if (stack.size() < MAX_ERROR_STACK)
+        {
+            stack.add(this);
+        }
     }
 
     public void checkArgs(int candidates)
@@ -221,6 +284,28 @@ public class FunctionValue extends Value implements Fluff.ILazyFunction
     }
 
     public LazyValue execute(Context c, Context.Type type, Expression e, Token t, List<Value> params, @Nullable ThreadValue freshNewCallingThread)
+    {
+        Value retVal = finishTailCalls(invoke(c, type, e, t, params, freshNewCallingThread));
+        return (cc, tt) -> retVal;
+    }
+
+    /**
+     * Continues with tail calls returned by function bodies one by one, each in a fresh frame, until a final value is returned
+     */
+    private static Value finishTailCalls(Value retVal)
+    {
+        while (retVal instanceof TailCallValue tailCall)
+        {
+            FunctionValue function = tailCall.function;
+            retVal = function.withErrorStack(tailCall.context, () -> function.invoke(tailCall.context, tailCall.type, tailCall.expression, tailCall.token, tailCall.args, null));
+        }
+        return retVal;
+    }
+
+    /**
+     * @return result of the call, which can be a tail call the caller still needs to make
+     */
+    private Value invoke(Context c, Context.Type type, Expression e, Token t, List<Value> params, @Nullable ThreadValue freshNewCallingThread)
     {
         assertArgsOk(params, fixedArgs -> {
             if (fixedArgs)  // wrong number of args for fixed args
@@ -239,7 +324,28 @@ public class FunctionValue extends Value implements Fluff.ILazyFunction
                             ". Should be at least " + args.size() + ", not " + params.size() + " like " + argList
             );
         });
-        Context newFrame = c.recreate();
+        if (!memoized)
+        {
+            return evalBody(c, type, e, t, params, freshNewCallingThread);
+        }
+        MemoizationCache.Call call = MemoizationCache.call(this, type, params);
+        Value cached = call == null ? null : c.host.memoizationCache.get(call);
+        if (cached != null)
+        {
+            return cached;
+        }
+        // result has to be known before it is cached
+        Value retVal = finishTailCalls(evalBody(c, type, e, t, params, freshNewCallingThread));
+        if (call != null)
+        {
+            c.host.memoizationCache.put(call, retVal);
+        }
+        return retVal;
+    }
+
+    private Value evalBody(Context c, Context.Type type, Expression e, Token t, List<Value> params, @Nullable ThreadValue freshNewCallingThread)
+    {
+        Context newFrame = reusesFrame ? pooledFrame(c) : c.recreate();
         if (freshNewCallingThread != null)
         {
             newFrame.setThreadContext(freshNewCallingThread);
@@ -252,7 +358,9 @@ public class FunctionValue extends Value implements Fluff.ILazyFunction
         for (int i = 0; i < args.size(); i++)
         {
             String arg = args.get(i);
-            Value val = params.get(i).reboundedTo(arg); // todo check if we need to copy that
+            Value param = params.get(i);
+            // lazy lists keep their iteration state, so each call iterates its own copy
+            Value val = sharedArgs[i] && !(param instanceof LazyListValue) ? param : param.reboundedTo(arg);
             newFrame.setVariable(arg, (cc, tt) -> val);
         }
         if (varArgs != null)
@@ -279,8 +387,30 @@ public class FunctionValue extends Value implements Fluff.ILazyFunction
         {
             retVal = returnStatement.retval;
         }
-        Value otherRetVal = retVal;
-        return (cc, tt) -> otherRetVal;
+        // tail calls are made from the frame later, and errors keep it as well
+        if (reusesFrame && !(retVal instanceof TailCallValue))
+        {
+            ArrayDeque<Context> pool = FRAME_POOL.get();
+            if (pool.size() < FRAME_POOL_SIZE)
+            {
+                pool.push(newFrame);
+            }
+        }
+        return retVal;
+    }
+
+    private static Context pooledFrame(Context c)
+    {
+        ArrayDeque<Context> pool = FRAME_POOL.get();
+        Context frame;
+        while ((frame = pool.poll()) != null)
+        {
+            if (frame.reuseFor(c))
+            {
+                return frame;
+            }
+        }
+        return c.recreate();
     }
 
     public Expression getExpression()
@@ -129,38 +129,61 @@ public class NumericValue extends Value
 
     @Override
     public Value add(Value v)
-    {  // TODO test if definintn add(NumericVlaue) woud solve the casting
+    {
         if (v instanceof NumericValue nv)
         {
-            return longValue != null && nv.longValue != null ? new NumericValue(longValue + nv.longValue) : new NumericValue(value + nv.value);
+            return add(nv);
         }
         return super.add(v);
     }
 
+    /**
+     * Numeric only versions of arithmetic operations, used directly by code that is known to operate on numbers
+     */
+    public NumericValue add(NumericValue nv)
+    {
+        return longValue != null && nv.longValue != null ? new NumericValue(longValue + nv.longValue) : new NumericValue(value + nv.value);
+    }
+
     @Override
     public Value subtract(Value v)
-    {  // TODO test if definintn add(NumericVlaue) woud solve the casting
+    {
         if (v instanceof NumericValue nv)
         {
-            return longValue != null && nv.longValue != null ? new NumericValue(longValue - nv.longValue) : new NumericValue(value - nv.value);
+            return subtract(nv);
         }
         return super.subtract(v);
     }
 
+    public NumericValue subtract(NumericValue nv)
+    {
+        return longValue != null && nv.longValue != null ? new NumericValue(longValue - nv.longValue) : new NumericValue(value - nv.value);
+    }
+
     @Override
     public Value multiply(Value v)
     {
         if (v instanceof NumericValue nv)
         {
-            return longValue != null && nv.longValue != null ? new NumericValue(longValue * nv.longValue) : new NumericValue(value * nv.value);
+            return multiply(nv);
         }
         return v instanceof ListValue ? v.multiply(this) : new StringValue(StringUtils.repeat(v.getString(), (int) getLong()));
     }
 
+    public NumericValue multiply(NumericValue nv)
+    {
+        return longValue != null && nv.longValue != null ? new NumericValue(longValue * nv.longValue) : new NumericValue(value * nv.value);
+    }
+
     @Override
     public Value divide(Value v)
     {
-        return v instanceof NumericValue nv ? new NumericValue(getDouble() / nv.getDouble()) : super.divide(v);
+        return v instanceof NumericValue nv ? divide(nv) : super.divide(v);
+    }
+
+    public NumericValue divide(NumericValue nv)
+    {
+        return new NumericValue(getDouble() / nv.getDouble());
     }
 
     @Override
@@ -178,11 +201,19 @@ public class NumericValue extends Value
         }
         if (o instanceof NumericValue no)
         {
-            return longValue != null && no.longValue != null ? longValue.compareTo(no.longValue) : Double.compare(value, no.value);
+            return compareNumber(no);
         }
         return getString().compareTo(o.getString());
     }
 
+    /**
+     * Compares with another number, neither of them can be null
+     */
+    public int compareNumber(NumericValue no)
+    {
+        return longValue != null && no.longValue != null ? longValue.compareTo(no.longValue) : Double.compare(value, no.value);
+    }
+
     @Override
     public boolean equals(Object o)
     {
@@ -194,21 +225,37 @@ public class NumericValue extends Value
             }
             if (o instanceof NumericValue no)
             {
-                if (longValue != null && no.longValue != null)
-                {
-                    return longValue.equals(no.longValue);
-                }
-                if (Double.isNaN(this.value) || Double.isNaN(no.value))
-                {
-                    return false;
-                }
-                return !this.subtract(no).getBoolean();
+                return equalsNumber(no);
             }
             return super.equals(o);
         }
         return false;
     }
 
+    /**
+     * Checks equality with another number, neither of them can be null
+     */
+    public boolean equalsNumber(NumericValue no)
+    {
+        if (longValue != null && no.longValue != null)
+        {
+            return longValue.equals(no.longValue);
+        }
+        if (Double.isNaN(this.value) || Double.isNaN(no.value))
+        {
+            return false;
+        }
+        return !this.subtract(no).getBoolean();
+    }
+
+    /**
+     * @return true if the value is a number and not null, which is also represented as a numeric value
+     */
+    public static boolean isNumber(Value v)
+    {
+        return v instanceof NumericValue && !v.isNull();
+    }
+
     public NumericValue(double value)
     {
         this.value = value;
@@ -1,17 +1,24 @@
 package carpet.script.value;
 
+import carpet.script.utils.RegexCache;
 import net.minecraft.core.RegistryAccess;
 import net.minecraft.nbt.StringTag;
 import net.minecraft.nbt.Tag;
 
 import org.jspecify.annotations.Nullable;
 
+import java.util.regex.Pattern;
+
 public class StringValue extends Value
 {
     public static Value EMPTY = StringValue.of("");
 
     private final String str;
 
+    // string literals are shared constants of the code tree, so they hold on to their own compiled form
+    @Nullable
+    private volatile Pattern pattern;
+
     @Override
     public String getString()
     {
@@ -24,6 +31,18 @@ public class StringValue extends Value
         return str != null && !str.isEmpty();
     }
 
+    @Override
+    public Pattern toPattern()
+    {
+        Pattern compiled = pattern;
+        if (compiled == null)
+        {
+            compiled = RegexCache.get(getString());
+            pattern = compiled;
+        }
+        return compiled;
+    }
+
     @Override
     public Value clone()
     {
@@ -0,0 +1,32 @@
+package carpet.script.value;
+
+import carpet.script.Context;
+import carpet.script.Expression;
+import carpet.script.Token;
+
+import java.util.List;
+
+/**
+ * Call to a user function made as the last thing another function does. Instead of calling it right away,
+ * it is returned to the function that is being executed, which continues with it in a loop, so the stack
+ * doesn't grow with each call.
+ */
+public final class TailCallValue extends FrameworkValue
+{
+    public final FunctionValue function;
+    public final Context context;
+    public final Context.Type type;
+    public final Expression expression;
+    public final Token token;
+    public final List<Value> args;
+
+    public TailCallValue(FunctionValue function, Context context, Context.Type type, Expression expression, Token token, List<Value> args)
+    {
+        this.function = function;
+        this.context = context;
+        this.type = type;
+        this.expression = expression;
+        this.token = token;
+        this.args = args;
+    }
+}
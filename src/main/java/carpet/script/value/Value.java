@@ -2,6 +2,7 @@ package carpet.script.value;
 
 import carpet.script.CarpetScriptServer;
 import carpet.script.exception.InternalExpressionException;
+import carpet.script.utils.RegexCache;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonPrimitive;
 
@@ -141,12 +142,21 @@ public abstract class Value implements Comparable<Value>, Cloneable
         }
     }
 
+    /**
+     * @return this value's string compiled as a regular expression, reused across calls with the same pattern
+     * @throws PatternSyntaxException if the string is not a valid regular expression
+     */
+    public Pattern toPattern()
+    {
+        return RegexCache.get(getString());
+    }
+
     public Value in(Value value1)
     {
         Pattern p;
         try
         {
-            p = Pattern.compile(value1.getString());
+            p = value1.toPattern();
         }
         catch (PatternSyntaxException pse)
         {
@@ -204,7 +214,7 @@ public abstract class Value implements Comparable<Value>, Cloneable
         }
         try
         {
-            return ListValue.wrap(Arrays.stream(getString().split(delimiter.getString())).map(StringValue::new));
+            return ListValue.wrap(Arrays.stream(delimiter.toPattern().split(getString())).map(StringValue::new));
         }
         catch (PatternSyntaxException pse)
         {
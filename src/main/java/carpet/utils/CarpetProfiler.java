@@ -1,93 +1,450 @@
 package carpet.utils;
 
-import it.unimi.dsi.fastutil.objects.Object2LongMap;
-import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import carpet.CarpetSettings;
+import carpet.script.utils.ShapeDispatcher;
+import carpet.script.value.ListValue;
+import carpet.script.value.NumericValue;
+import carpet.script.value.StringValue;
+import carpet.script.value.Value;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongMaps;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
 import net.minecraft.commands.CommandSourceStack;
-import net.minecraft.core.RegistryAccess;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
 import net.minecraft.core.registries.BuiltInRegistries;
-import net.minecraft.core.registries.Registries;
 import net.minecraft.resources.ResourceKey;
 import net.minecraft.resources.Identifier;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.entity.Entity;
-import net.minecraft.world.entity.EntityType;
+import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.entity.BlockEntity;
-import net.minecraft.world.level.block.entity.BlockEntityType;
-import org.apache.commons.lang3.tuple.Pair;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
 
-import static java.util.Map.entry;
-
+/**
+ * Times sections of the game tick. Sections and entity types get their tokens once, per dimension and side,
+ * and timing a section only updates fields of its token, so nothing is allocated while profiling.
+ * <p>
+ * Tokens are only handed out while a /profile report is running, or all the time with {@link CarpetSettings#continuousProfiler},
+ * when section times of each tick are kept in {@link RollingHistogram}s, or with {@link CarpetSettings#lagSpikeThreshold},
+ * when timings of the last ticks, including entity types and scarpet apps, are kept by the {@link FlightRecorder}.
+ */
 public class CarpetProfiler
 {
-    private static final Object2LongOpenHashMap<String> SECTION_STATS = new Object2LongOpenHashMap<>();
-    private static final Object2LongOpenHashMap<Pair<Level,Object>> ENTITY_TIMES = new Object2LongOpenHashMap<>();
-    private static final Object2LongOpenHashMap<Pair<Level,Object>> ENTITY_COUNT = new Object2LongOpenHashMap<>();
-
+    private static final int MAX_NESTING = 8;
+    private static final int MAX_REPORTED_CHUNKS = 64;
+    private static final int HEATMAP_DURATION = 600;
 
     private static CommandSourceStack currentRequester = null;
     public static int tick_health_requested = 0;
     private static int tick_health_elapsed = 0;
     private static TYPE test_type = TYPE.NONE; //1 for ticks, 2 for entities
     private static long current_tick_start = 0;
-    private static final Map<String, String> GENERAL_SECTIONS = Map.of(
-        "Network",     "Packet sending, player logins, disconnects, kicks, anti-cheat check for player movement, etc.",
-        "Autosave",    "Autosave",
-        "Async Tasks", "Various asynchronous tasks on the server. Mainly chunk generation, chunk saving, etc.",
-        "Datapacks",   "Datapack tick function execution. Load function execution if reload was performed.",
-        "Carpet",      "Player hud, scripts, and extensions (If they choose to use carpet's onTick)."
-    );
-
-    private static final Map<String, String> SCARPET_SECTIONS = Map.of(
-        "Scarpet run",      "script run command execution",
-        "Scarpet events",   "script events, custom or built-in",
-        "Scarpet schedule", "script scheduled calls/events",
-        "Scarpet command",  "script custom commands. Calls, executions, suggestions, etc.",
-        "Scarpet load",     "script and libraries (if required) loading",
-        "Scarpet app data", "script module data (if required) ticking and saving",
-        "Scarpet client",   "script shape rendering. (Client side)"
-    );
-
-    private static final Map<String, String> SECTIONS = Map.ofEntries(
-        entry("Spawning",                "Spawning of various things. Natural mobs, cats, patrols, wandering traders, phantoms, skeleton horses, etc."),
-        entry("Random Ticks",            "Random ticks. Both block random ticks and fluid random ticks."),
-        entry("Ticket Manager",          "Chunk ticket manager. Assigning tickets, removing tickets, etc."),
-        entry("Unloading",               "POI ticking and chunk unloading."),
-        entry("Schedule Ticks",          "Scheduled ticks. Repeaters, observers, redstone torch, water, lava, etc."),
-        entry("Block Events",            "Scheduled Block events. Pistons, comparators, noteblocks, block entity events (chests opening/closing), etc."),
-        entry("Entities",                "All the entities in the server. Ticking, removing, despawning, dragon fight (if active), etc."),
-        entry("Block Entities",          "All the block entities in the server. Removal, ticking, etc."),
-        entry("Entities (Client)",       "Entity lag client side. Mostly rendering."),
-        entry("Block Entities (Client)", "Block entity lag client side. Mostly rendering."),
-        entry("Raid",                    "Raid ticking, stopping, etc."),
-        entry("Environment",             "Weather, time, waking up players, water freezing, cauldron filling, snow layers, etc.")
-    );
+
+    // all tokens by their index
+    private static volatile ProfilerToken[] tokens = new ProfilerToken[0];
+    private static final ProfilerToken TICK = new ProfilerToken(null, Section.TICK, null, null);
+    private static final ProfilerToken[] GENERAL_TOKENS = new ProfilerToken[Section.values().length];
+    private static volatile Reference2ObjectOpenHashMap<ResourceKey<Level>, LevelSlot> serverSlots = new Reference2ObjectOpenHashMap<>();
+    private static volatile Reference2ObjectOpenHashMap<ResourceKey<Level>, LevelSlot> clientSlots = new Reference2ObjectOpenHashMap<>();
+    private static volatile List<LevelSlot> allSlots = List.of();
+    // scarpet apps are only timed on the server thread
+    private static final Map<String, ProfilerToken> APP_TOKENS = new HashMap<>();
+    private static final List<ProfilerToken> APP_TOKEN_LIST = new ArrayList<>();
+    private static Thread tickThread = null;
+    private static List<ChunkLag> lastChunkReport = List.of();
+
+    public enum Scope
+    {
+        TICK,
+        GENERAL,
+        SCARPET,
+        LEVEL
+    }
+
+    public enum Section
+    {
+        TICK(Scope.TICK, "Tick", "Whole server tick"),
+
+        NETWORK(Scope.GENERAL, "Network", "Packet sending, player logins, disconnects, kicks, anti-cheat check for player movement, etc."),
+        AUTOSAVE(Scope.GENERAL, "Autosave", "Autosave"),
+        ASYNC_TASKS(Scope.GENERAL, "Async Tasks", "Various asynchronous tasks on the server. Mainly chunk generation, chunk saving, etc."),
+        DATAPACKS(Scope.GENERAL, "Datapacks", "Datapack tick function execution. Load function execution if reload was performed."),
+        CARPET(Scope.GENERAL, "Carpet", "Player hud, scripts, and extensions (If they choose to use carpet's onTick)."),
+
+        SCARPET_RUN(Scope.SCARPET, "Scarpet run", "script run command execution"),
+        SCARPET_EVENTS(Scope.SCARPET, "Scarpet events", "script events, custom or built-in"),
+        SCARPET_SCHEDULE(Scope.SCARPET, "Scarpet schedule", "script scheduled calls/events"),
+        SCARPET_COMMAND(Scope.SCARPET, "Scarpet command", "script custom commands. Calls, executions, suggestions, etc."),
+        SCARPET_LOAD(Scope.SCARPET, "Scarpet load", "script and libraries (if required) loading"),
+        SCARPET_APP_DATA(Scope.SCARPET, "Scarpet app data", "script module data (if required) ticking and saving"),
+        SCARPET_CLIENT(Scope.SCARPET, "Scarpet client", "script shape rendering. (Client side)"),
+
+        SPAWNING(Scope.LEVEL, "Spawning", "Spawning of various things. Natural mobs, cats, patrols, wandering traders, phantoms, skeleton horses, etc."),
+        RANDOM_TICKS(Scope.LEVEL, "Random Ticks", "Random ticks. Both block random ticks and fluid random ticks."),
+        TICKET_MANAGER(Scope.LEVEL, "Ticket Manager", "Chunk ticket manager. Assigning tickets, removing tickets, etc."),
+        UNLOADING(Scope.LEVEL, "Unloading", "POI ticking and chunk unloading."),
+        SCHEDULE_TICKS(Scope.LEVEL, "Schedule Ticks", "Scheduled ticks. Repeaters, observers, redstone torch, water, lava, etc."),
+        BLOCK_EVENTS(Scope.LEVEL, "Block Events", "Scheduled Block events. Pistons, comparators, noteblocks, block entity events (chests opening/closing), etc."),
+        ENTITIES(Scope.LEVEL, "Entities", "All the entities in the server. Ticking, removing, despawning, dragon fight (if active), etc.",
+                "Entity lag client side. Mostly rendering."),
+        BLOCK_ENTITIES(Scope.LEVEL, "Block Entities", "All the block entities in the server. Removal, ticking, etc.",
+                "Block entity lag client side. Mostly rendering."),
+        RAID(Scope.LEVEL, "Raid", "Raid ticking, stopping, etc."),
+        ENVIRONMENT(Scope.LEVEL, "Environment", "Weather, time, waking up players, water freezing, cauldron filling, snow layers, etc.");
+
+        private static final Map<String, Section> BY_NAME = new HashMap<>()
+        {{
+            for (Section section : values())
+            {
+                put(section.name, section);
+            }
+        }};
+
+        public final Scope scope;
+        public final String name;
+        public final String description;
+        public final String clientDescription;
+
+        Section(Scope scope, String name, String description)
+        {
+            this(scope, name, description, null);
+        }
+
+        Section(Scope scope, String name, String description, String clientDescription)
+        {
+            this.scope = scope;
+            this.name = name;
+            this.description = description;
+            this.clientDescription = clientDescription;
+        }
+    }
+
+    /**
+     * Average time spent ticking entities and block entities of a chunk, from the last chunk report
+     *
+     * @param time milliseconds per tick
+     * @param count entities and block entities ticked per tick
+     */
+    public record ChunkLag(ResourceKey<Level> dimension, int x, int z, double time, double count)
+    {
+    }
 
     public enum TYPE
     {
         NONE,
         GENERAL,
         ENTITY,
-        TILEENTITY
+        TILEENTITY,
+        CHUNK
+    }
+
+    /**
+     * Timer of one section, or one entity type, in one dimension, or one scarpet app. Starting and ending a section may nest,
+     * like events triggering other events, up to a few levels deep.
+     */
+    public static final class ProfilerToken
+    {
+        private final int index;
+        private final LevelSlot slot;
+        private final Section section;
+        private final Identifier type;
+        private final String app;
+        private final long[] starts = new long[MAX_NESTING];
+        // chunks of ticked entities and block entities, for chunk reports
+        private final long[] chunks = new long[MAX_NESTING];
+        private long endedChunk = 0L;
+        private int depth = 0;
+        private long tickTime = 0L;
+        private int tickCalls = 0;
+        private long totalTime = 0L;
+        private long count = 0L;
+        private RollingHistogram latency = null;
+        private final Runnable ender = () -> end_current_section(this);
+
+        private ProfilerToken(LevelSlot slot, Section section, Identifier type, String app)
+        {
+            this.slot = slot;
+            this.section = section;
+            this.type = type;
+            this.app = app;
+            this.index = register(this);
+        }
+
+        /**
+         * @return action ending this section, same for each call
+         */
+        public Runnable ender()
+        {
+            return ender;
+        }
+
+        private void start()
+        {
+            start(0L);
+        }
+
+        private void start(long chunk)
+        {
+            if (depth == MAX_NESTING)
+            {
+                depth = 0; // sections left open, drop them
+            }
+            chunks[depth] = chunk;
+            starts[depth++] = System.nanoTime();
+        }
+
+        private long end()
+        {
+            if (depth == 0)
+            {
+                return -1L;
+            }
+            endedChunk = chunks[--depth];
+            return System.nanoTime() - starts[depth];
+        }
+
+        private void fold(boolean report, boolean continuous, boolean record, long now)
+        {
+            if (tickCalls == 0)
+            {
+                return;
+            }
+            if (report)
+            {
+                totalTime += tickTime;
+                count += tickCalls;
+            }
+            if (record)
+            {
+                FlightRecorder.record(index, tickTime, tickCalls);
+            }
+            if (continuous)
+            {
+                if (latency == null)
+                {
+                    latency = new RollingHistogram();
+                }
+                latency.record(tickTime, now);
+            }
+            tickTime = 0L;
+            tickCalls = 0;
+        }
+
+        private void reset()
+        {
+            tickTime = 0L;
+            tickCalls = 0;
+            totalTime = 0L;
+            count = 0L;
+        }
+
+        private String name()
+        {
+            if (app != null)
+            {
+                return "Scarpet app " + app;
+            }
+            if (type != null)
+            {
+                return sectionName(this);
+            }
+            if (slot == null)
+            {
+                return section.name;
+            }
+            return slot.dimension.identifier() + "." + section.name + (slot.client ? " (Client)" : "");
+        }
+    }
+
+    /**
+     * Tokens of a dimension on one side, by section ordinal and by entity and block entity type ids
+     */
+    private static final class LevelSlot
+    {
+        private final ResourceKey<Level> dimension;
+        private final boolean client;
+        private final ProfilerToken[] sections = new ProfilerToken[Section.values().length];
+        private ProfilerToken[] entities = new ProfilerToken[0];
+        private ProfilerToken[] blockEntities = new ProfilerToken[0];
+        private final Long2LongOpenHashMap chunkTimes = new Long2LongOpenHashMap();
+        private final Long2LongOpenHashMap chunkCounts = new Long2LongOpenHashMap();
+
+        private LevelSlot(ResourceKey<Level> dimension, boolean client)
+        {
+            this.dimension = dimension;
+            this.client = client;
+            for (Section section : Section.values())
+            {
+                if (section.scope == Scope.LEVEL)
+                {
+                    sections[section.ordinal()] = new ProfilerToken(this, section, null, null);
+                }
+            }
+        }
+
+        private ProfilerToken entity(int id, boolean blockEntity)
+        {
+            ProfilerToken[] types = blockEntity ? blockEntities : entities;
+            if (id >= types.length)
+            {
+                types = Arrays.copyOf(types, id + 16);
+                if (blockEntity)
+                {
+                    blockEntities = types;
+                }
+                else
+                {
+                    entities = types;
+                }
+            }
+            ProfilerToken token = types[id];
+            if (token == null)
+            {
+                Identifier type = blockEntity
+                        ? BuiltInRegistries.BLOCK_ENTITY_TYPE.getKey(BuiltInRegistries.BLOCK_ENTITY_TYPE.byId(id))
+                        : BuiltInRegistries.ENTITY_TYPE.getKey(BuiltInRegistries.ENTITY_TYPE.byId(id));
+                token = new ProfilerToken(this, null, type, null);
+                types[id] = token;
+            }
+            return token;
+        }
+
+        private void forEachEntityToken(List<ProfilerToken> target)
+        {
+            for (ProfilerToken[] types : List.of(entities, blockEntities))
+            {
+                for (ProfilerToken token : types)
+                {
+                    if (token != null && token.count > 0)
+                    {
+                        target.add(token);
+                    }
+                }
+            }
+        }
+    }
+
+    static
+    {
+        for (Section section : Section.values())
+        {
+            if (section.scope == Scope.GENERAL || section.scope == Scope.SCARPET)
+            {
+                GENERAL_TOKENS[section.ordinal()] = new ProfilerToken(null, section, null, null);
+            }
+        }
+    }
+
+    private static synchronized int register(ProfilerToken token)
+    {
+        ProfilerToken[] registered = Arrays.copyOf(tokens, tokens.length + 1);
+        registered[tokens.length] = token;
+        tokens = registered;
+        return registered.length - 1;
+    }
+
+    static String tokenName(int index)
+    {
+        return tokens[index].name();
+    }
+
+    private static LevelSlot slotOf(Level world)
+    {
+        LevelSlot slot = (world.isClientSide() ? clientSlots : serverSlots).get(world.dimension());
+        return slot != null ? slot : addSlot(world.dimension(), world.isClientSide());
+    }
+
+    private static synchronized LevelSlot addSlot(ResourceKey<Level> dimension, boolean client)
+    {
+        Reference2ObjectOpenHashMap<ResourceKey<Level>, LevelSlot> slots = new Reference2ObjectOpenHashMap<>(client ? clientSlots : serverSlots);
+        LevelSlot slot = slots.get(dimension);
+        if (slot == null)
+        {
+            slot = new LevelSlot(dimension, client);
+            slots.put(dimension, slot);
+            List<LevelSlot> all = new ArrayList<>(allSlots);
+            all.add(slot);
+            allSlots = List.copyOf(all);
+            if (client)
+            {
+                clientSlots = slots;
+            }
+            else
+            {
+                serverSlots = slots;
+            }
+        }
+        return slot;
+    }
+
+    private static void forEachSectionToken(Consumer<ProfilerToken> action)
+    {
+        action.accept(TICK);
+        for (ProfilerToken token : GENERAL_TOKENS)
+        {
+            if (token != null)
+            {
+                action.accept(token);
+            }
+        }
+        for (LevelSlot slot : allSlots)
+        {
+            for (ProfilerToken token : slot.sections)
+            {
+                if (token != null)
+                {
+                    action.accept(token);
+                }
+            }
+        }
+        APP_TOKEN_LIST.forEach(action);
     }
 
-    public static record ProfilerToken(TYPE type, Object section, long start, Level world)
+    private static void resetStats()
     {
-        public ProfilerToken(TYPE type, Object section, Level world)
+        for (ProfilerToken token : tokens)
+        {
+            token.reset();
+        }
+        for (LevelSlot slot : allSlots)
         {
-            this(type, section, System.nanoTime(), world);
+            slot.chunkTimes.clear();
+            slot.chunkCounts.clear();
         }
     }
 
+    private static boolean generalActive()
+    {
+        return current_tick_start != 0 && (test_type == TYPE.GENERAL || CarpetSettings.continuousProfiler || FlightRecorder.isEnabled());
+    }
+
+    private static boolean entitiesActive()
+    {
+        return current_tick_start != 0 && (test_type == TYPE.ENTITY || test_type == TYPE.CHUNK || FlightRecorder.isEnabled());
+    }
+
+    public static boolean isActive()
+    {
+        return tick_health_requested != 0L || CarpetSettings.continuousProfiler || FlightRecorder.isEnabled();
+    }
+
     public static void prepare_tick_report(CommandSourceStack source, int ticks)
     {
         //maybe add so it only spams the sending player, but honestly - all may want to see it
-        SECTION_STATS.clear(); // everything then defaults to 0
-        ENTITY_COUNT.clear();
-        ENTITY_TIMES.clear();
+        resetStats(); // everything then defaults to 0
         test_type = TYPE.GENERAL;
 
         tick_health_elapsed = ticks;
@@ -99,9 +456,7 @@ public class CarpetProfiler
     public static void prepare_entity_report(CommandSourceStack source, int ticks)
     {
         //maybe add so it only spams the sending player, but honestly - all may want to see it
-        SECTION_STATS.clear();
-        ENTITY_COUNT.clear();
-        ENTITY_TIMES.clear();
+        resetStats();
         test_type = TYPE.ENTITY;
         tick_health_elapsed = ticks;
         tick_health_requested = ticks;
@@ -109,62 +464,171 @@ public class CarpetProfiler
         currentRequester = source;
     }
 
+    public static void prepare_chunk_report(CommandSourceStack source, int ticks)
+    {
+        resetStats();
+        test_type = TYPE.CHUNK;
+        tick_health_elapsed = ticks;
+        tick_health_requested = ticks;
+        current_tick_start = 0L;
+        currentRequester = source;
+    }
+
     public static ProfilerToken start_section(Level world, String name, TYPE type)
     {
-        if (tick_health_requested == 0L || test_type != TYPE.GENERAL || current_tick_start == 0)
+        if (!generalActive())
+            return null;
+        Section section = Section.BY_NAME.get(name);
+        if (section == null)
             return null;
-        return new ProfilerToken(type, name, world);
+        ProfilerToken token = (section.scope == Scope.LEVEL && world != null) ? slotOf(world).sections[section.ordinal()] : GENERAL_TOKENS[section.ordinal()];
+        if (token == null)
+            return null;
+        token.start();
+        return token;
+    }
+
+    /**
+     * @return token timing calls to a scarpet app, when apps are profiled and it is called from the server thread
+     */
+    public static ProfilerToken start_app_section(String app)
+    {
+        if (current_tick_start == 0 || Thread.currentThread() != tickThread || !(CarpetSettings.continuousProfiler || FlightRecorder.isEnabled()))
+            return null;
+        ProfilerToken token = APP_TOKENS.get(app);
+        if (token == null)
+        {
+            token = new ProfilerToken(null, null, null, app);
+            APP_TOKENS.put(app, token);
+            APP_TOKEN_LIST.add(token);
+        }
+        token.start();
+        return token;
     }
 
     public static ProfilerToken start_entity_section(Level world, Entity e, TYPE type)
     {
-        if (tick_health_requested == 0L || test_type != TYPE.ENTITY || current_tick_start == 0)
+        if (!entitiesActive())
+            return null;
+        int id = BuiltInRegistries.ENTITY_TYPE.getId(e.getType());
+        if (id < 0)
             return null;
-        return new ProfilerToken(type, e.getType(), world);
+        ProfilerToken token = slotOf(world).entity(id, false);
+        token.start(e.chunkPosition().toLong());
+        return token;
     }
 
     public static ProfilerToken start_block_entity_section(Level world, BlockEntity be, TYPE type)
     {
-        if (tick_health_requested == 0L || test_type != TYPE.ENTITY || current_tick_start == 0)
+        if (!entitiesActive())
             return null;
-        return new ProfilerToken(type, be.getType(), world);
+        int id = BuiltInRegistries.BLOCK_ENTITY_TYPE.getId(be.getType());
+        if (id < 0)
+            return null;
+        ProfilerToken token = slotOf(world).entity(id, true);
+        BlockPos pos = be.getBlockPos();
+        token.start(ChunkPos.asLong(SectionPos.blockToSectionCoord(pos.getX()), SectionPos.blockToSectionCoord(pos.getZ())));
+        return token;
     }
 
     public static void end_current_section(ProfilerToken tok)
     {
-        if (tick_health_requested == 0L || test_type != TYPE.GENERAL || current_tick_start == 0 || tok == null)
+        if (tok == null)
             return;
-        long end_time = System.nanoTime();
-        if (tok.type == TYPE.GENERAL)
+        long time = tok.end();
+        if (time >= 0)
         {
-            Level world = tok.world;
-            String current_section = (world == null) ?
-                    (String) tok.section :
-                    String.format("%s.%s%s", world.dimension().identifier(), tok.section, world.isClientSide() ? " (Client)" : "");
-            SECTION_STATS.addTo(current_section, end_time - tok.start);
+            tok.tickTime += time;
+            tok.tickCalls++;
         }
     }
 
     public static void end_current_entity_section(ProfilerToken tok)
     {
-        if (tick_health_requested == 0L || test_type != TYPE.ENTITY || current_tick_start == 0 || tok == null)
+        if (tok == null)
             return;
-        long end_time = System.nanoTime();
-        Pair<Level,Object> section = Pair.of(tok.world, tok.section);
-        ENTITY_TIMES.addTo(section, end_time - tok.start);
-        ENTITY_COUNT.addTo(section, 1);
+        long time = tok.end();
+        if (time >= 0)
+        {
+            tok.tickTime += time;
+            tok.tickCalls++;
+            if (test_type == TYPE.CHUNK && !tok.slot.client)
+            {
+                tok.slot.chunkTimes.addTo(tok.endedChunk, time);
+                tok.slot.chunkCounts.addTo(tok.endedChunk, 1);
+            }
+        }
     }
 
     public static void start_tick_profiling()
     {
-        current_tick_start = System.nanoTime();
+        current_tick_start = isActive() ? System.nanoTime() : 0L;
+        tickThread = Thread.currentThread();
+        if (current_tick_start != 0L && FlightRecorder.isEnabled())
+        {
+            FlightRecorder.tickStarted(current_tick_start);
+        }
     }
 
     public static void end_tick_profiling(MinecraftServer server)
     {
         if (current_tick_start == 0L)
             return;
-        SECTION_STATS.addTo("tick", System.nanoTime() - current_tick_start);
+        long now = System.nanoTime();
+        TICK.tickTime = now - current_tick_start;
+        TICK.tickCalls = 1;
+        long tickTime = TICK.tickTime;
+        boolean report = tick_health_requested != 0L;
+        boolean continuous = CarpetSettings.continuousProfiler;
+        boolean record = FlightRecorder.isEnabled();
+        if (record)
+        {
+            FlightRecorder.beginFrame(tokens.length);
+        }
+        TICK.fold(report, continuous, record, now);
+        for (ProfilerToken token : GENERAL_TOKENS)
+        {
+            if (token != null)
+            {
+                token.fold(report, continuous, record, now);
+            }
+        }
+        for (LevelSlot slot : allSlots)
+        {
+            for (ProfilerToken token : slot.sections)
+            {
+                if (token != null)
+                {
+                    token.fold(report, continuous, record, now);
+                }
+            }
+            // entity types are not kept in histograms
+            for (ProfilerToken token : slot.entities)
+            {
+                if (token != null)
+                {
+                    token.fold(report, false, record, now);
+                }
+            }
+            for (ProfilerToken token : slot.blockEntities)
+            {
+                if (token != null)
+                {
+                    token.fold(report, false, record, now);
+                }
+            }
+        }
+        for (int i = 0; i < APP_TOKEN_LIST.size(); i++)
+        {
+            APP_TOKEN_LIST.get(i).fold(report, continuous, record, now);
+        }
+        current_tick_start = 0L;
+        if (record)
+        {
+            FlightRecorder.endFrame(server, tickTime);
+        }
+        if (!report)
+            return;
         tick_health_elapsed--;
         if (tick_health_elapsed <= 0)
         {
@@ -178,14 +642,14 @@ public class CarpetProfiler
             finalize_tick_report_for_time(server);
         if (test_type == TYPE.ENTITY)
             finalize_tick_report_for_entities(server);
+        if (test_type == TYPE.CHUNK)
+            finalize_tick_report_for_chunks(server);
         cleanup_tick_report();
     }
 
     public static void cleanup_tick_report()
     {
-        SECTION_STATS.clear();
-        ENTITY_TIMES.clear();
-        ENTITY_COUNT.clear();
+        resetStats();
         test_type = TYPE.NONE;
         tick_health_elapsed = 0;
         tick_health_requested = 0;
@@ -198,36 +662,27 @@ public class CarpetProfiler
         //print stats
         if (currentRequester == null)
             return;
-        long total_tick_time = SECTION_STATS.getLong("tick");
+        long total_tick_time = TICK.totalTime;
         double divider = 1.0D / tick_health_requested / 1000000;
         Messenger.m(currentRequester, "w ");
         Messenger.m(currentRequester, "wb Average tick time: ", String.format("yb %.3fms", divider * total_tick_time));
         long accumulated = 0L;
 
-        for (String section : GENERAL_SECTIONS.keySet())
-        {
-            double amount = divider * SECTION_STATS.getLong(section);
-            if (amount > 0.01)
-            {
-                accumulated += SECTION_STATS.getLong(section);
-                Messenger.m(
-                        currentRequester,
-                        "w " + section + ": ",
-                        "^ " + GENERAL_SECTIONS.get(section),
-                        "y %.3fms".formatted(amount)
-                );
-            }
-        }
-        for (String section : SCARPET_SECTIONS.keySet())
+        for (ProfilerToken token : GENERAL_TOKENS)
         {
-            double amount = divider * SECTION_STATS.getLong(section);
+            if (token == null)
+                continue;
+            double amount = divider * token.totalTime;
             if (amount > 0.01)
             {
+                boolean scarpet = token.section.scope == Scope.SCARPET;
+                if (!scarpet)
+                    accumulated += token.totalTime;
                 Messenger.m(
                         currentRequester,
-                        "gi "+section+": ",
-                        "^ " + SCARPET_SECTIONS.get(section),
-                        "di %.3fms".formatted(amount)
+                        (scarpet ? "gi " : "w ") + token.section.name + ": ",
+                        "^ " + token.section.description,
+                        "%s %.3fms".formatted(scarpet ? "di" : "y", amount)
                 );
             }
         }
@@ -235,36 +690,36 @@ public class CarpetProfiler
         for (ResourceKey<Level> dim : server.levelKeys())
         {
             Identifier dimensionId = dim.identifier();
-            boolean hasSomethin = false;
-            for (String section : SECTIONS.keySet())
+            LevelSlot serverSlot = serverSlots.get(dim);
+            LevelSlot clientSlot = clientSlots.get(dim);
+            List<ProfilerToken> shown = new ArrayList<>();
+            for (Section section : Section.values())
             {
-                double amount = divider * SECTION_STATS.getLong(dimensionId + "." + section);
-                if (amount > 0.01)
+                for (LevelSlot slot : new LevelSlot[]{serverSlot, clientSlot})
                 {
-                    hasSomethin = true;
-                    break;
+                    if (slot != null && section.scope == Scope.LEVEL && (!slot.client || section.clientDescription != null)
+                            && divider * slot.sections[section.ordinal()].totalTime > 0.01)
+                    {
+                        shown.add(slot.sections[section.ordinal()]);
+                    }
                 }
             }
-            if (!(hasSomethin))
+            if (shown.isEmpty())
             {
                 continue;
             }
             Messenger.m(currentRequester, "wb "+(dimensionId.getNamespace().equals("minecraft")?dimensionId.getPath():dimensionId.toString()) + ":");
-            for (String section : SECTIONS.keySet())
+            for (ProfilerToken token : shown)
             {
-                double amount = divider * SECTION_STATS.getLong(dimensionId + "." + section);
-                if (amount > 0.01)
-                {
-                    boolean cli = section.endsWith("(Client)");
-                    if (!cli)
-                        accumulated += SECTION_STATS.getLong(dimensionId + "." + section);
-                    Messenger.m(
-                            currentRequester,
-                            "%s - %s: ".formatted(cli ? "gi" : "w", section),
-                            "^ " + SECTIONS.get(section),
-                            "%s %.3fms".formatted(cli ? "di" : "y", amount)
-                    );
-                }
+                boolean cli = token.slot.client;
+                if (!cli)
+                    accumulated += token.totalTime;
+                Messenger.m(
+                        currentRequester,
+                        "%s - %s%s: ".formatted(cli ? "gi" : "w", token.section.name, cli ? " (Client)" : ""),
+                        "^ " + (cli ? token.section.clientDescription : token.section.description),
+                        "%s %.3fms".formatted(cli ? "di" : "y", divider * token.totalTime)
+                );
             }
         }
 
@@ -273,24 +728,15 @@ public class CarpetProfiler
         Messenger.m(currentRequester, String.format("gi The Rest, whatever that might be: %.3fms", divider * rest));
     }
 
-    private static String sectionName(Pair<Level,Object> section)
+    private static String sectionName(ProfilerToken token)
     {
-        Identifier id;
-        final RegistryAccess regs = section.getKey().registryAccess();
-        if (section.getValue() instanceof EntityType)
-        {
-            id = regs.lookupOrThrow(Registries.ENTITY_TYPE).getKey((EntityType<?>) section.getValue());
-        }
-        else
-        {
-            id = regs.lookupOrThrow(Registries.BLOCK_ENTITY_TYPE).getKey((BlockEntityType<?>) section.getValue());
-        }
+        Identifier id = token.type;
         String name = "minecraft".equals(id.getNamespace())?id.getPath():id.toString();
-        if (section.getKey().isClientSide())
+        if (token.slot.client)
         {
             name += " (client)";
         }
-        Identifier dimkey = section.getKey().dimension().identifier();
+        Identifier dimkey = token.slot.dimension.identifier();
         String dim = "minecraft".equals(dimkey.getNamespace())?dimkey.getPath():dimkey.toString();
         return name+" in "+dim;
     }
@@ -299,47 +745,169 @@ public class CarpetProfiler
     {
         if (currentRequester == null)
             return;
-        long total_tick_time = SECTION_STATS.getLong("tick");
+        long total_tick_time = TICK.totalTime;
         double divider = 1.0D / tick_health_requested / 1000000;
         double divider_1 = 1.0D / (tick_health_requested - 1) / 1000000;
         Messenger.m(currentRequester, "w ");
         Messenger.m(currentRequester, "wb Average tick time: ", String.format("yb %.3fms", divider * total_tick_time));
-        SECTION_STATS.removeLong("tick");
+        List<ProfilerToken> measured = new ArrayList<>();
+        allSlots.forEach(slot -> slot.forEachEntityToken(measured));
         Messenger.m(currentRequester, "wb Top 10 counts:");
-        int total = 0;
-        for (Object2LongMap.Entry<Pair<Level, Object>> sectionEntry : sortedByValue(ENTITY_COUNT))
+        for (ProfilerToken token : topTen(measured, t -> t.count))
         {
-            if (++total > 10) break;
-            Pair<Level,Object> section = sectionEntry.getKey();
-            boolean cli = section.getKey().isClientSide();
+            boolean cli = token.slot.client;
             Messenger.m(currentRequester, String.format(
                     "%s - %s: ", cli?"gi":"w",
-                    sectionName(section)),
+                    sectionName(token)),
                     String.format("%s %.1f", cli?"di":"y",
-                    1.0D * sectionEntry.getLongValue() / (tick_health_requested - (cli? 1 : 0))
+                    1.0D * token.count / (tick_health_requested - (cli? 1 : 0))
             ));
         }
         Messenger.m(currentRequester, "wb Top 10 CPU hogs:");
-        total = 0;
-        for (Object2LongMap.Entry<Pair<Level, Object>> sectionEntry : sortedByValue(ENTITY_TIMES))
+        for (ProfilerToken token : topTen(measured, t -> t.totalTime))
         {
-            if (++total > 10) break;
-            Pair<Level,Object> section = sectionEntry.getKey();
-            boolean cli = section.getKey().isClientSide();
+            boolean cli = token.slot.client;
             Messenger.m(currentRequester, String.format(
                     "%s - %s: ", cli?"gi":"w",
-                    sectionName(section)),
+                    sectionName(token)),
                     String.format("%s %.2fms", cli?"di":"y",
-                    (cli ? divider : divider_1) * sectionEntry.getLongValue()
+                    (cli ? divider : divider_1) * token.totalTime
             ));
         }
     }
 
-    private static <T> Iterable<Object2LongMap.Entry<T>> sortedByValue(Object2LongMap<T> mapToSort) {
-        return () -> mapToSort
-                .object2LongEntrySet()
-                .stream()
-                .sorted(Comparator.<Object2LongMap.Entry<T>>comparingLong(Object2LongMap.Entry::getLongValue).reversed())
-                .iterator();
+    public static void finalize_tick_report_for_chunks(MinecraftServer server)
+    {
+        double perTick = 1.0D / tick_health_requested;
+        List<ChunkLag> chunks = new ArrayList<>();
+        for (LevelSlot slot : allSlots)
+        {
+            if (slot.client)
+                continue;
+            for (Long2LongMap.Entry entry : Long2LongMaps.fastIterable(slot.chunkTimes))
+            {
+                long chunk = entry.getLongKey();
+                chunks.add(new ChunkLag(slot.dimension, ChunkPos.getX(chunk), ChunkPos.getZ(chunk),
+                        perTick * entry.getLongValue() / 1000000, perTick * slot.chunkCounts.get(chunk)));
+            }
+        }
+        chunks.sort(Comparator.comparingDouble(ChunkLag::time).reversed());
+        lastChunkReport = List.copyOf(chunks.subList(0, Math.min(chunks.size(), MAX_REPORTED_CHUNKS)));
+        if (currentRequester == null)
+            return;
+        Messenger.m(currentRequester, "w ");
+        Messenger.m(currentRequester, "wb Average tick time: ", String.format("yb %.3fms", perTick * TICK.totalTime / 1000000));
+        Messenger.m(currentRequester, "wb Top 10 chunks:");
+        for (ChunkLag chunk : lastChunkReport.subList(0, Math.min(10, lastChunkReport.size())))
+        {
+            Identifier dimkey = chunk.dimension().identifier();
+            String dim = "minecraft".equals(dimkey.getNamespace())?dimkey.getPath():dimkey.toString();
+            Messenger.m(currentRequester,
+                    "w - [%d, %d] in %s: ".formatted(chunk.x(), chunk.z(), dim),
+                    "?/execute in %s run tp @s %d ~ %d".formatted(dimkey, chunk.x() * 16 + 8, chunk.z() * 16 + 8),
+                    "^ %.1f entities and block entities per tick".formatted(chunk.count()),
+                    "y %.3fms".formatted(chunk.time())
+            );
+        }
+        ServerPlayer player = currentRequester.getPlayer();
+        if (player != null && !lastChunkReport.isEmpty())
+        {
+            send_chunk_heatmap(server, player, lastChunkReport);
+        }
+    }
+
+    /**
+     * @return chunks from the last chunk report, most expensive first
+     */
+    public static List<ChunkLag> chunk_lag()
+    {
+        return lastChunkReport;
+    }
+
+    /**
+     * Shows reported chunks of player's dimension as boxes, with height and color from green to red growing with their time
+     */
+    private static void send_chunk_heatmap(MinecraftServer server, ServerPlayer player, List<ChunkLag> chunks)
+    {
+        double max = chunks.get(0).time();
+        double y = player.getBlockY();
+        List<ShapeDispatcher.ShapeWithConfig> shapes = new ArrayList<>();
+        for (ChunkLag chunk : chunks)
+        {
+            if (chunk.dimension() != player.level().dimension())
+                continue;
+            double heat = max > 0 ? chunk.time() / max : 0;
+            // 0xRRGGBB00, red growing and green fading with heat
+            long color = ((long) (255 * heat) << 24) | ((long) (255 * (1 - heat)) << 16);
+            Map<String, Value> params = new HashMap<>();
+            params.put("from", ListValue.ofNums(chunk.x() * 16, y, chunk.z() * 16));
+            params.put("to", ListValue.ofNums(chunk.x() * 16 + 16, y + 1 + 31 * heat, chunk.z() * 16 + 16));
+            params.put("color", new NumericValue(color | 0xFF));
+            params.put("fill", new NumericValue(color | 0x50));
+            params.put("duration", new NumericValue(HEATMAP_DURATION));
+            params.put("dim", new StringValue(chunk.dimension().identifier().toString()));
+            shapes.add(new ShapeDispatcher.ShapeWithConfig(ShapeDispatcher.create(server, "box", params), params));
+        }
+        ShapeDispatcher.sendShape(List.of(player), shapes, server.registryAccess(), false);
+    }
+
+    private static List<ProfilerToken> topTen(List<ProfilerToken> tokens, ToLongFunction<ProfilerToken> value)
+    {
+        return tokens.stream().sorted(Comparator.comparingLong(value).reversed()).limit(10).toList();
+    }
+
+    public static void registerMetrics()
+    {
+        Metrics.register("carpet_profiler_section_ms", Metrics.Type.GAUGE, "Time per tick of profiled sections in the last minute, by percentile, with continuousProfiler",
+                (server, samples) -> latencies(1).forEach((section, summary) -> {
+                    samples.add(summary.p50() / 1000000.0, "section", section, "percentile", "50");
+                    samples.add(summary.p95() / 1000000.0, "section", section, "percentile", "95");
+                    samples.add(summary.p99() / 1000000.0, "section", section, "percentile", "99");
+                    samples.add(summary.max() / 1000000.0, "section", section, "percentile", "100");
+                }));
+    }
+
+    /**
+     * @param minutes window, up to {@link RollingHistogram#MAX_MINUTES}
+     * @return latency summaries of sections that ran in the last minutes, tick first, then general sections,
+     * then sections of each dimension, by their full names
+     */
+    public static Map<String, RollingHistogram.Summary> latencies(int minutes)
+    {
+        Map<String, RollingHistogram.Summary> summaries = new LinkedHashMap<>();
+        long now = System.nanoTime();
+        forEachSectionToken(token -> {
+            if (token.latency != null)
+            {
+                RollingHistogram.Summary summary = token.latency.summary(now, minutes);
+                if (summary.count() > 0)
+                {
+                    summaries.put(token.name(), summary);
+                }
+            }
+        });
+        return summaries;
+    }
+
+    public static void latency_report(CommandSourceStack source, int minutes)
+    {
+        if (!CarpetSettings.continuousProfiler)
+        {
+            Messenger.m(source, "r Section latencies are only kept with continuousProfiler rule enabled");
+            return;
+        }
+        Map<String, RollingHistogram.Summary> summaries = latencies(minutes);
+        Messenger.m(source, "w ");
+        Messenger.m(source, "wb Section latency in the last %d min, p50 / p95 / p99 / max:".formatted(minutes));
+        summaries.forEach((name, summary) -> {
+            boolean cli = name.endsWith("(Client)") || name.equals(Section.SCARPET_CLIENT.name);
+            Messenger.m(source,
+                    "%s %s: ".formatted(cli ? "gi" : "w", name),
+                    "^ %d ticks".formatted(summary.count()),
+                    "%s %.3f / %.3f / %.3f / %.3fms".formatted(cli ? "di" : "y",
+                            summary.p50() / 1000000.0, summary.p95() / 1000000.0, summary.p99() / 1000000.0, summary.max() / 1000000.0
+                    )
+            );
+        });
     }
 }
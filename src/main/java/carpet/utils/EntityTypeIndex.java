@@ -0,0 +1,76 @@
+package carpet.utils;
+
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceLinkedOpenHashSet;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.EntityType;
+import net.minecraft.world.entity.MobCategory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Entities loaded in a level, grouped by their type. Kept up to date as entities are added to and removed
+ * from the level entity lookup, so finding entities of a type goes only through these entities, and counts are known.
+ * Same as the lookup itself, it should only be used from the thread that runs the level.
+ */
+public class EntityTypeIndex
+{
+    private final Map<EntityType<?>, Set<Entity>> byType = new Reference2ObjectOpenHashMap<>();
+    private final int[] categoryCounts = new int[MobCategory.values().length];
+
+    public void add(Entity entity)
+    {
+        EntityType<?> type = entity.getType();
+        if (byType.computeIfAbsent(type, t -> new ReferenceLinkedOpenHashSet<>()).add(entity))
+        {
+            categoryCounts[type.getCategory().ordinal()]++;
+        }
+    }
+
+    public void remove(Entity entity)
+    {
+        EntityType<?> type = entity.getType();
+        Set<Entity> entities = byType.get(type);
+        if (entities != null && entities.remove(entity))
+        {
+            categoryCounts[type.getCategory().ordinal()]--;
+        }
+    }
+
+    /**
+     * @return view of loaded entities of the type, in the order they were loaded
+     */
+    public Collection<Entity> entitiesOf(EntityType<?> type)
+    {
+        Set<Entity> entities = byType.get(type);
+        return entities == null ? Collections.emptySet() : Collections.unmodifiableSet(entities);
+    }
+
+    public List<Entity> entitiesOf(MobCategory category)
+    {
+        List<Entity> entities = new ArrayList<>(count(category));
+        byType.forEach((type, ofType) -> {
+            if (type.getCategory() == category)
+            {
+                entities.addAll(ofType);
+            }
+        });
+        return entities;
+    }
+
+    public int count(EntityType<?> type)
+    {
+        Set<Entity> entities = byType.get(type);
+        return entities == null ? 0 : entities.size();
+    }
+
+    public int count(MobCategory category)
+    {
+        return categoryCounts[category.ordinal()];
+    }
+}
@@ -0,0 +1,247 @@
+package carpet.utils;
+
+import carpet.CarpetSettings;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.Util;
+import net.minecraft.world.level.storage.LevelResource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps profiler timings of the last ticks, and saves them to the world folder when a tick takes longer than
+ * {@link CarpetSettings#lagSpikeThreshold}. While a tick runs over the threshold, a background thread also samples
+ * the server thread stack, so reports show what the server was busy with.
+ * <p>
+ * Timings are stored by profiler token index, in arrays reused for each tick.
+ */
+public class FlightRecorder
+{
+    public static final int TICKS = 100;
+    private static final long DUMP_COOLDOWN_MS = 60_000L;
+    private static final long SAMPLE_INTERVAL_MS = 25L;
+    private static final int MAX_SAMPLES = 20;
+    private static final int MAX_STACK_DEPTH = 64;
+    // sampler stops when the server stopped ticking for that long
+    private static final long SAMPLER_IDLE_NANOS = 5_000_000_000L;
+    private static final int MAX_ENTRIES_PER_TICK = 30;
+    private static final DateTimeFormatter FILE_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+
+    private static final long[][] times = new long[TICKS][0];
+    private static final int[][] calls = new int[TICKS][0];
+    private static final long[] tickTimes = new long[TICKS];
+    private static int current = 0;
+    private static int recorded = 0;
+    private static long lastDump = 0L;
+
+    private static volatile long tickStart = 0L;
+    private static volatile long lastTickStart = 0L;
+    private static volatile Thread tickThread = null;
+    private static Thread sampler = null;
+    private static final List<Sample> samples = new ArrayList<>();
+
+    private record Sample(long elapsed, StackTraceElement[] stack)
+    {
+    }
+
+    /**
+     * Copy of recorded ticks, so the report can be put together off the server thread, which keeps reusing the arrays
+     */
+    private record Snapshot(LocalDateTime time, long tickTime, long[][] times, int[][] calls, long[] tickTimes, String[] names,
+                            int current, int recorded, List<Sample> samples)
+    {
+    }
+
+    public static boolean isEnabled()
+    {
+        return CarpetSettings.lagSpikeThreshold > 0;
+    }
+
+    static void tickStarted(long start)
+    {
+        synchronized (samples)
+        {
+            samples.clear();
+        }
+        tickThread = Thread.currentThread();
+        tickStart = start;
+        lastTickStart = start;
+        if (sampler == null || !sampler.isAlive())
+        {
+            sampler = new Thread(FlightRecorder::sample, "Carpet lag spike sampler");
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+    }
+
+    /**
+     * Starts storing timings of a finished tick, before its tokens are folded
+     */
+    static void beginFrame(int tokens)
+    {
+        current = (current + 1) % TICKS;
+        if (times[current].length < tokens)
+        {
+            times[current] = new long[tokens + 64];
+            calls[current] = new int[tokens + 64];
+        }
+        else
+        {
+            Arrays.fill(times[current], 0L);
+            Arrays.fill(calls[current], 0);
+        }
+    }
+
+    static void record(int token, long time, int count)
+    {
+        if (token < times[current].length)
+        {
+            times[current][token] = time;
+            calls[current][token] = count;
+        }
+    }
+
+    static void endFrame(MinecraftServer server, long tickTime)
+    {
+        tickStart = 0L;
+        tickTimes[current] = tickTime;
+        recorded = Math.min(TICKS, recorded + 1);
+        long threshold = CarpetSettings.lagSpikeThreshold * 1000000L;
+        long now = System.currentTimeMillis();
+        if (tickTime < threshold || now - lastDump < DUMP_COOLDOWN_MS)
+        {
+            return;
+        }
+        lastDump = now;
+        Snapshot snapshot = snapshot(tickTime);
+        Path file = server.getWorldPath(LevelResource.ROOT).resolve("lag_spikes").resolve("spike-" + snapshot.time().format(FILE_DATE) + ".txt");
+        Util.backgroundExecutor().execute(() -> {
+            try
+            {
+                Files.createDirectories(file.getParent());
+                Files.writeString(file, report(snapshot));
+                CarpetSettings.LOG.warn("Tick took {}ms, saved lag spike report to {}", tickTime / 1000000, file);
+            }
+            catch (IOException e)
+            {
+                CarpetSettings.LOG.error("Failed to save lag spike report", e);
+            }
+        });
+    }
+
+    private static Snapshot snapshot(long tickTime)
+    {
+        long[][] timesCopy = new long[TICKS][];
+        int[][] callsCopy = new int[TICKS][];
+        int tokenCount = 0;
+        for (int frame = 0; frame < TICKS; frame++)
+        {
+            timesCopy[frame] = times[frame].clone();
+            callsCopy[frame] = calls[frame].clone();
+            tokenCount = Math.max(tokenCount, calls[frame].length);
+        }
+        // only tokens that were recorded exist in the profiler
+        String[] names = new String[tokenCount];
+        for (int[] frameCalls : callsCopy)
+        {
+            for (int token = 0; token < frameCalls.length; token++)
+            {
+                if (frameCalls[token] > 0 && names[token] == null)
+                {
+                    names[token] = CarpetProfiler.tokenName(token);
+                }
+            }
+        }
+        List<Sample> taken;
+        synchronized (samples)
+        {
+            taken = List.copyOf(samples);
+        }
+        return new Snapshot(LocalDateTime.now(), tickTime, timesCopy, callsCopy, tickTimes.clone(), names, current, recorded, taken);
+    }
+
+    private static String report(Snapshot snapshot)
+    {
+        StringBuilder report = new StringBuilder();
+        report.append("Lag spike at %s, tick took %.3fms (threshold %dms)%n".formatted(
+                snapshot.time(), snapshot.tickTime() / 1000000.0, CarpetSettings.lagSpikeThreshold
+        ));
+        List<Sample> taken = snapshot.samples();
+        report.append("%nServer thread samples (%d):%n".formatted(taken.size()));
+        for (Sample sample : taken)
+        {
+            report.append("  %.1fms into the tick:%n".formatted(sample.elapsed() / 1000000.0));
+            for (int i = 0; i < Math.min(MAX_STACK_DEPTH, sample.stack().length); i++)
+            {
+                report.append("    at ").append(sample.stack()[i]).append(System.lineSeparator());
+            }
+        }
+        report.append("%nLast %d ticks, most recent first:%n".formatted(snapshot.recorded()));
+        for (int age = 0; age < snapshot.recorded(); age++)
+        {
+            int frame = Math.floorMod(snapshot.current() - age, TICKS);
+            long[] frameTimes = snapshot.times()[frame];
+            int[] frameCalls = snapshot.calls()[frame];
+            report.append("%nTick -%d: %.3fms%n".formatted(age, snapshot.tickTimes()[frame] / 1000000.0));
+            List<Integer> used = new ArrayList<>();
+            for (int token = 0; token < frameTimes.length; token++)
+            {
+                if (frameCalls[token] > 0)
+                {
+                    used.add(token);
+                }
+            }
+            used.sort(Comparator.comparingLong((Integer token) -> frameTimes[token]).reversed());
+            // whole spike tick is shown, other ticks only with their top entries
+            int shown = age == 0 ? used.size() : Math.min(used.size(), MAX_ENTRIES_PER_TICK);
+            for (int i = 0; i < shown; i++)
+            {
+                int token = used.get(i);
+                report.append("    %s: %.3fms (%d calls)%n".formatted(
+                        snapshot.names()[token], frameTimes[token] / 1000000.0, frameCalls[token]
+                ));
+            }
+        }
+        return report.toString();
+    }
+
+    private static void sample()
+    {
+        while (isEnabled() && System.nanoTime() - lastTickStart < SAMPLER_IDLE_NANOS)
+        {
+            try
+            {
+                Thread.sleep(SAMPLE_INTERVAL_MS);
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            long start = tickStart;
+            Thread thread = tickThread;
+            if (start == 0L || thread == null)
+            {
+                continue;
+            }
+            long elapsed = System.nanoTime() - start;
+            if (elapsed < CarpetSettings.lagSpikeThreshold * 1000000L)
+            {
+                continue;
+            }
+            synchronized (samples)
+            {
+                if (samples.size() < MAX_SAMPLES && tickStart == start)
+                {
+                    samples.add(new Sample(elapsed, thread.getStackTrace()));
+                }
+            }
+        }
+    }
+}
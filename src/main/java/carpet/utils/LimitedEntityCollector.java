@@ -0,0 +1,81 @@
+package carpet.utils;
+
+import net.minecraft.util.AbortableIterationConsumer;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Collects entities from entity section walks, aborting the walk once more than a limit of entities were checked.
+ * One collector is meant to be reused for consecutive lookups, see {@link #reset}.
+ *
+ * @param <T> entity type
+ */
+public class LimitedEntityCollector<T> implements AbortableIterationConsumer<T>
+{
+    private final Function<? super T, ? extends T[]> parts;
+    @Nullable
+    private T except;
+    private Predicate<? super T> predicate;
+    private int limit;
+    private int checked;
+    private List<T> result;
+
+    /**
+     * @param parts entities that are part of a checked entity, like dragon parts, or null if it has none
+     */
+    public LimitedEntityCollector(Function<? super T, ? extends T[]> parts)
+    {
+        this.parts = parts;
+    }
+
+    /**
+     * Prepares the collector for a new walk, adding matching entities to the result
+     */
+    public LimitedEntityCollector<T> reset(@Nullable T except, Predicate<? super T> predicate, int limit, List<T> result)
+    {
+        this.except = except;
+        this.predicate = predicate;
+        this.limit = limit;
+        this.checked = 0;
+        this.result = result;
+        return this;
+    }
+
+    @Override
+    public Continuation accept(T entity)
+    {
+        if (checked++ > limit)
+        {
+            return Continuation.ABORT;
+        }
+        if (entity != except && predicate.test(entity))
+        {
+            result.add(entity);
+        }
+        T[] entityParts = parts.apply(entity);
+        if (entityParts != null)
+        {
+            for (T part : entityParts)
+            {
+                if (entity != except && predicate.test(part))
+                {
+                    result.add(part);
+                }
+            }
+        }
+        return Continuation.CONTINUE;
+    }
+
+    /**
+     * Drops references to the last walk's entities and filter, so a reused collector doesn't keep them alive
+     */
+    public void clear()
+    {
+        except = null;
+        predicate = null;
+        result = null;
+    }
+}
@@ -21,6 +21,8 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.regex.Matcher;
@@ -31,6 +33,8 @@ public class Messenger
     public static final Logger LOG = LoggerFactory.getLogger("Messaging System");
 
     private static final Pattern colorExtract = Pattern.compile("#([0-9a-fA-F]{6})");
+    private static final int MAX_PARSED_STYLES = 1024;
+    private static final Map<String, Style> parsedStyles = new ConcurrentHashMap<>();
     public enum CarpetFormatting
     {
         ITALIC      ('i', (s, f) -> s.withItalic(true)),
@@ -96,10 +100,87 @@ public class Messenger
 
     public static Style parseStyle(String style)
     {
-        Style myStyle= Style.EMPTY.withColor(ChatFormatting.WHITE);
+        Style myStyle = parsedStyles.get(style);
+        if (myStyle != null) return myStyle;
+        myStyle = Style.EMPTY.withColor(ChatFormatting.WHITE);
         for (CarpetFormatting cf: CarpetFormatting.values()) myStyle = cf.apply(style, myStyle);
+        // styles are immutable, but descriptors from scripts are not bounded
+        if (parsedStyles.size() < MAX_PARSED_STYLES) parsedStyles.put(style, myStyle);
         return myStyle;
     }
+
+    /**
+     * Message in the format of {@link #c}, parsed once to be filled many times. Parts with {} as their text are
+     * slots, filled with the arguments of {@link #apply} in their style, or replaced when the argument is a
+     * component. Other parts, with their hover and click events, are composed once and shared by all messages.
+     */
+    public static final class Template
+    {
+        // null for slots
+        private final Component[] parts;
+        private final Style[] slotStyles;
+
+        private Template(Object... fields)
+        {
+            List<Component> parts = new ArrayList<>();
+            List<Style> slotStyles = new ArrayList<>();
+            List<Object> fixed = new ArrayList<>();
+            for (Object o : fields)
+            {
+                String txt = o instanceof Component ? null : o.toString();
+                if (txt != null && txt.endsWith(" {}") && txt.indexOf(' ') == txt.length() - 3)
+                {
+                    if (!fixed.isEmpty())
+                    {
+                        parts.add(c(fixed.toArray()));
+                        slotStyles.add(null);
+                        fixed.clear();
+                    }
+                    parts.add(null);
+                    String desc = txt.substring(0, txt.length() - 3);
+                    slotStyles.add(parseStyle(desc.isEmpty() ? "w" : desc));
+                }
+                else
+                {
+                    fixed.add(o);
+                }
+            }
+            if (!fixed.isEmpty())
+            {
+                parts.add(c(fixed.toArray()));
+                slotStyles.add(null);
+            }
+            this.parts = parts.toArray(new Component[0]);
+            this.slotStyles = slotStyles.toArray(new Style[0]);
+        }
+
+        public MutableComponent apply(Object... args)
+        {
+            MutableComponent message = Component.literal("");
+            int arg = 0;
+            for (int i = 0; i < parts.length; i++)
+            {
+                if (parts[i] != null)
+                {
+                    message.append(parts[i]);
+                }
+                else
+                {
+                    Object value = args[arg++];
+                    message.append(value instanceof Component component ? component : Component.literal(String.valueOf(value)).setStyle(slotStyles[i]));
+                }
+            }
+            return message;
+        }
+    }
+
+    /**
+     * @see Template
+     */
+    public static Template template(Object... fields)
+    {
+        return new Template(fields);
+    }
     public static String heatmap_color(double actual, double reference)
     {
         String color = "g";
@@ -0,0 +1,139 @@
+package carpet.utils;
+
+import carpet.CarpetSettings;
+import net.minecraft.server.MinecraftServer;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Registry of metrics published by carpet and its extensions, rendered in Prometheus text format by {@link MetricsExporter}.
+ * <p>
+ * Each metric family has a collector, called on the server thread whenever metrics are exported, which adds
+ * its current samples, optionally with labels. Families are registered by the subsystems they measure.
+ */
+public class Metrics
+{
+    public enum Type
+    {
+        GAUGE,
+        COUNTER
+    }
+
+    @FunctionalInterface
+    public interface Collector
+    {
+        void collect(MinecraftServer server, Samples samples);
+    }
+
+    /**
+     * Samples of one metric family
+     */
+    public static final class Samples
+    {
+        private final StringBuilder out;
+        private final String name;
+
+        private Samples(StringBuilder out, String name)
+        {
+            this.out = out;
+            this.name = name;
+        }
+
+        public void add(double value)
+        {
+            out.append(name).append(' ').append(format(value)).append('\n');
+        }
+
+        /**
+         * @param labels label names followed by their values
+         */
+        public void add(double value, String... labels)
+        {
+            out.append(name).append('{');
+            for (int i = 0; i + 1 < labels.length; i += 2)
+            {
+                if (i > 0)
+                {
+                    out.append(',');
+                }
+                out.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+            }
+            out.append("} ").append(format(value)).append('\n');
+        }
+    }
+
+    private record Family(String name, Type type, String help, Collector collector)
+    {
+    }
+
+    private static final Map<String, Family> FAMILIES = new LinkedHashMap<>();
+
+    /**
+     * Adds a metric family, replacing one with the same name
+     *
+     * @param name metric name, with _total suffix for counters
+     */
+    public static void register(String name, Type type, String help, Collector collector)
+    {
+        synchronized (FAMILIES)
+        {
+            FAMILIES.put(name, new Family(name, type, help, collector));
+        }
+    }
+
+    public static void unregister(String name)
+    {
+        synchronized (FAMILIES)
+        {
+            FAMILIES.remove(name);
+        }
+    }
+
+    /**
+     * @return current values of all metrics in Prometheus text format
+     */
+    public static String render(MinecraftServer server)
+    {
+        StringBuilder out = new StringBuilder();
+        synchronized (FAMILIES)
+        {
+            for (Family family : FAMILIES.values())
+            {
+                StringBuilder samples = new StringBuilder();
+                try
+                {
+                    family.collector().collect(server, new Samples(samples, family.name()));
+                }
+                catch (RuntimeException e)
+                {
+                    CarpetSettings.LOG.warn("Failed to collect metric {}", family.name(), e);
+                    continue;
+                }
+                out.append("# HELP ").append(family.name()).append(' ').append(family.help()).append('\n');
+                out.append("# TYPE ").append(family.name()).append(' ').append(family.type().name().toLowerCase(Locale.ROOT)).append('\n');
+                out.append(samples);
+            }
+        }
+        return out.toString();
+    }
+
+    private static String format(double value)
+    {
+        if (Double.isNaN(value))
+        {
+            return "NaN";
+        }
+        if (Double.isInfinite(value))
+        {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    private static String escape(String value)
+    {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
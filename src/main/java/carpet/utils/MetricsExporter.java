@@ -0,0 +1,112 @@
+package carpet.utils;
+
+import carpet.CarpetSettings;
+import com.sun.net.httpserver.HttpServer;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.Util;
+import net.minecraft.world.level.storage.LevelResource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Exports {@link Metrics} with {@link CarpetSettings#metricsFile} to a file in the world folder, and with
+ * {@link CarpetSettings#metricsPort} over HTTP on the loopback interface, for a local Prometheus scraper.
+ * <p>
+ * Metrics are collected on the server thread every second, and the HTTP endpoint serves the last collected text.
+ */
+public class MetricsExporter
+{
+    private static final int COLLECT_INTERVAL = 20;
+    private static final int FILE_INTERVAL = 200;
+    private static final String FILE_NAME = "carpet_metrics.prom";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static volatile String latest = "";
+    private static HttpServer httpServer = null;
+    private static int httpPort = 0;
+
+    public static void tick(MinecraftServer server)
+    {
+        if (CarpetSettings.metricsPort != httpPort)
+        {
+            stopHttp();
+            if (CarpetSettings.metricsPort > 0)
+            {
+                startHttp(CarpetSettings.metricsPort);
+            }
+        }
+        boolean toFile = CarpetSettings.metricsFile && server.getTickCount() % FILE_INTERVAL == 0;
+        if (!toFile && (httpServer == null || server.getTickCount() % COLLECT_INTERVAL != 0))
+        {
+            return;
+        }
+        latest = Metrics.render(server);
+        if (toFile)
+        {
+            String text = latest;
+            Path file = server.getWorldPath(LevelResource.ROOT).resolve(FILE_NAME);
+            Util.backgroundExecutor().execute(() -> {
+                try
+                {
+                    // scrapers reading the file never see it half written
+                    Path temporary = file.resolveSibling(FILE_NAME + ".tmp");
+                    Files.writeString(temporary, text);
+                    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                catch (IOException e)
+                {
+                    CarpetSettings.LOG.warn("Failed to write metrics to {}", file, e);
+                }
+            });
+        }
+    }
+
+    public static void stop()
+    {
+        stopHttp();
+        latest = "";
+    }
+
+    private static void startHttp(int port)
+    {
+        // remembered even when failing, not to retry every tick
+        httpPort = port;
+        try
+        {
+            HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = latest.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody())
+                {
+                    out.write(body);
+                }
+            });
+            server.start();
+            httpServer = server;
+            CarpetSettings.LOG.info("Serving carpet metrics on http://localhost:{}/metrics", port);
+        }
+        catch (IOException e)
+        {
+            CarpetSettings.LOG.warn("Failed to serve carpet metrics on port {}", port, e);
+        }
+    }
+
+    private static void stopHttp()
+    {
+        if (httpServer != null)
+        {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+        httpPort = 0;
+    }
+}
@@ -0,0 +1,126 @@
+package carpet.utils;
+
+import java.util.Arrays;
+
+/**
+ * Latency histogram over the last 15 minutes of wall time, kept in 15 second slots that are reused as time goes on.
+ * Values are counted in logarithmic buckets, four per doubling, so percentiles are accurate to about 10%,
+ * while the maximum of each slot is kept exactly.
+ * <p>
+ * Recording does not allocate. Not thread safe - values should be recorded from one thread.
+ */
+public class RollingHistogram
+{
+    public static final long SLOT_NANOS = 15_000_000_000L;
+    public static final int MAX_MINUTES = 15;
+    private static final int SLOTS = MAX_MINUTES * 4;
+    // first bucket holds everything below 1024ns, following ones cover 26 doublings, up to over a minute
+    private static final int MIN_SHIFT = 10;
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = 1 + 26 * SUB_BUCKETS;
+
+    private final int[] counts = new int[SLOTS * BUCKETS];
+    private final long[] maxima = new long[SLOTS];
+    private final long[] epochs = new long[SLOTS];
+
+    public RollingHistogram()
+    {
+        Arrays.fill(epochs, Long.MIN_VALUE);
+    }
+
+    public record Summary(long count, long p50, long p95, long p99, long max)
+    {
+    }
+
+    /**
+     * @param value recorded time in nanoseconds
+     * @param now current {@link System#nanoTime()}
+     */
+    public void record(long value, long now)
+    {
+        long epoch = Math.floorDiv(now, SLOT_NANOS);
+        int slot = (int) Math.floorMod(epoch, SLOTS);
+        if (epochs[slot] != epoch)
+        {
+            epochs[slot] = epoch;
+            maxima[slot] = 0L;
+            Arrays.fill(counts, slot * BUCKETS, (slot + 1) * BUCKETS, 0);
+        }
+        counts[slot * BUCKETS + bucket(value)]++;
+        maxima[slot] = Math.max(maxima[slot], value);
+    }
+
+    /**
+     * @param minutes length of the window, up to {@link #MAX_MINUTES}
+     * @return percentiles of values recorded in the last minutes, including the current, partially filled slot
+     */
+    public Summary summary(long now, int minutes)
+    {
+        long epoch = Math.floorDiv(now, SLOT_NANOS);
+        int window = Math.min(SLOTS, minutes * 4);
+        int[] merged = new int[BUCKETS];
+        long count = 0L;
+        long max = 0L;
+        for (int i = 0; i < window; i++)
+        {
+            int slot = (int) Math.floorMod(epoch - i, SLOTS);
+            if (epochs[slot] != epoch - i)
+            {
+                continue;
+            }
+            for (int b = 0; b < BUCKETS; b++)
+            {
+                merged[b] += counts[slot * BUCKETS + b];
+                count += counts[slot * BUCKETS + b];
+            }
+            max = Math.max(max, maxima[slot]);
+        }
+        if (count == 0L)
+        {
+            return new Summary(0L, 0L, 0L, 0L, 0L);
+        }
+        return new Summary(count,
+                percentile(merged, count, 0.50, max),
+                percentile(merged, count, 0.95, max),
+                percentile(merged, count, 0.99, max),
+                max
+        );
+    }
+
+    private static long percentile(int[] merged, long count, double quantile, long max)
+    {
+        long rank = Math.max(1L, (long) Math.ceil(quantile * count));
+        long seen = 0L;
+        for (int b = 0; b < BUCKETS; b++)
+        {
+            seen += merged[b];
+            if (seen >= rank)
+            {
+                return Math.min(max, (lowerBound(b) + lowerBound(b + 1)) / 2);
+            }
+        }
+        return max;
+    }
+
+    private static int bucket(long value)
+    {
+        if (value < (1L << MIN_SHIFT))
+        {
+            return 0;
+        }
+        int highest = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (highest - 2)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, 1 + (highest - MIN_SHIFT) * SUB_BUCKETS + sub);
+    }
+
+    private static long lowerBound(int bucket)
+    {
+        if (bucket == 0)
+        {
+            return 0L;
+        }
+        int octave = (bucket - 1) / SUB_BUCKETS;
+        int sub = (bucket - 1) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (octave + MIN_SHIFT - 2);
+    }
+}
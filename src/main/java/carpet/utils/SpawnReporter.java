@@ -1,12 +1,16 @@
 package carpet.utils;
 
 import carpet.CarpetSettings;
+import carpet.fakes.LevelInterface;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2LongMap;
 import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Holder;
+import net.minecraft.core.registries.BuiltInRegistries;
 import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.MutableComponent;
 import net.minecraft.resources.ResourceKey;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerLevel;
@@ -33,7 +37,6 @@ import net.minecraft.world.level.block.Blocks;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.chunk.ChunkAccess;
 import net.minecraft.world.level.chunk.ChunkGenerator;
-import net.minecraft.world.level.entity.EntityTypeTest;
 import net.minecraft.world.level.levelgen.Heightmap;
 import net.minecraft.world.level.levelgen.structure.BoundingBox;
 import net.minecraft.world.level.levelgen.structure.structures.NetherFortressStructure;
@@ -43,35 +46,186 @@ import org.jetbrains.annotations.Nullable;
 import static net.minecraft.world.entity.MobCategory.*;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
 
 public class SpawnReporter
 {
     private static final MobCategory[] CACHED_MOBCATEGORY_VALUES = MobCategory.values();
+    private static final Messenger.Template MOBCAP_FORMAT = Messenger.template("w {}", "g /", "w {}");
+    private static final Component MOBCAP_SEPARATOR = Messenger.c("g ,");
     public static boolean mockSpawns = false;
 
-    public static final HashMap<ResourceKey<Level>, Integer> chunkCounts = new HashMap<>();
+    public static final Reference2IntOpenHashMap<ResourceKey<Level>> chunkCounts = new Reference2IntOpenHashMap<>();
 
-    public static final HashMap<Pair<ResourceKey<Level>, MobCategory>, Object2LongOpenHashMap<EntityType<?>>> spawn_stats = new HashMap<>();
     public static double mobcap_exponent = 0.0D;
-    
-    public static final Object2LongOpenHashMap<Pair<ResourceKey<Level>, MobCategory>> spawn_attempts = new Object2LongOpenHashMap<>();
-    public static final Object2LongOpenHashMap<Pair<ResourceKey<Level>, MobCategory>> overall_spawn_ticks = new Object2LongOpenHashMap<>();
-    public static final Object2LongOpenHashMap<Pair<ResourceKey<Level>, MobCategory>> spawn_ticks_full = new Object2LongOpenHashMap<>();
-    public static final Object2LongOpenHashMap<Pair<ResourceKey<Level>, MobCategory>> spawn_ticks_fail = new Object2LongOpenHashMap<>();
-    public static final Object2LongOpenHashMap<Pair<ResourceKey<Level>, MobCategory>> spawn_ticks_succ = new Object2LongOpenHashMap<>();
-    public static final Object2LongOpenHashMap<Pair<ResourceKey<Level>, MobCategory>> spawn_ticks_spawns = new Object2LongOpenHashMap<>();
-    public static final Object2LongOpenHashMap<Pair<ResourceKey<Level>, MobCategory>> spawn_cap_count = new Object2LongOpenHashMap<>();
-    public static final HashMap<Pair<ResourceKey<Level>, MobCategory>, EvictingQueue<Pair<EntityType<?>, BlockPos>>> spawned_mobs = new HashMap<>();
-    public static final HashMap<MobCategory, Integer> spawn_tries = new HashMap<>();
+
+    // spawning rounds per tick, by mob category ordinal
+    public static final int[] spawn_tries = new int[CACHED_MOBCATEGORY_VALUES.length];
+
+    /**
+     * Spawn tracking statistics of one dimension, indexed by mob category ordinal
+     */
+    public static final class DimensionStats
+    {
+        public final long[] spawn_attempts = new long[CACHED_MOBCATEGORY_VALUES.length];
+        public final long[] overall_spawn_ticks = new long[CACHED_MOBCATEGORY_VALUES.length];
+        public final long[] spawn_ticks_full = new long[CACHED_MOBCATEGORY_VALUES.length];
+        public final long[] spawn_ticks_fail = new long[CACHED_MOBCATEGORY_VALUES.length];
+        public final long[] spawn_ticks_succ = new long[CACHED_MOBCATEGORY_VALUES.length];
+        public final long[] spawn_ticks_spawns = new long[CACHED_MOBCATEGORY_VALUES.length];
+        public final long[] spawn_cap_count = new long[CACHED_MOBCATEGORY_VALUES.length];
+        public final List<Object2LongOpenHashMap<EntityType<?>>> spawn_stats = new ArrayList<>(CACHED_MOBCATEGORY_VALUES.length);
+        public final List<EvictingQueue<Pair<EntityType<?>, BlockPos>>> spawned_mobs = new ArrayList<>(CACHED_MOBCATEGORY_VALUES.length);
+
+        private DimensionStats()
+        {
+            for (int i = 0; i < CACHED_MOBCATEGORY_VALUES.length; i++)
+            {
+                spawn_stats.add(new Object2LongOpenHashMap<>());
+                spawned_mobs.add(new EvictingQueue<>());
+            }
+        }
+    }
+
+    // dense ids of dimensions, indexing dimension_stats
+    private static final Reference2IntOpenHashMap<ResourceKey<Level>> dimension_ids = new Reference2IntOpenHashMap<>();
+    private static DimensionStats[] dimension_stats = new DimensionStats[0];
 
     private static int spawnTrackingStartTime = 0;
     private static BoundingBox trackedSpawningArea = null;
     // in case game gets each thread for each world - these need to belong to workd.
-    public static Object2LongOpenHashMap<MobCategory> local_spawns = null; // per world
-    public static HashSet<MobCategory> first_chunk_marker = null;
+    // statistics of the level in its spawning cycle, null outside of tracked spawning cycles
+    public static DimensionStats cycle_stats = null;
+    // spawns in the current spawning cycle by category ordinal, -1 when the category didn't try to spawn
+    public static final long[] local_spawns = new long[CACHED_MOBCATEGORY_VALUES.length];
+    public static final boolean[] first_chunk_marker = new boolean[CACHED_MOBCATEGORY_VALUES.length];
+
+    static
+    {
+        Arrays.fill(spawn_tries, 1);
+        dimension_ids.defaultReturnValue(-1);
+    }
+
+    public static void registerMetrics()
+    {
+        Metrics.register("carpet_mobcap_current", Metrics.Type.GAUGE, "Mobs counted towards the mobcap",
+                (server, samples) -> {
+                    for (ServerLevel level : server.getAllLevels())
+                    {
+                        NaturalSpawner.SpawnState state = level.getChunkSource().getLastSpawnState();
+                        if (state == null)
+                        {
+                            continue;
+                        }
+                        Object2IntMap<MobCategory> counts = state.getMobCategoryCounts();
+                        for (MobCategory category : cachedMobCategories())
+                        {
+                            samples.add(counts.getOrDefault(category, 0), "dimension", level.dimension().identifier().toString(), "category", category.getName());
+                        }
+                    }
+                });
+        Metrics.register("carpet_mobcap_max", Metrics.Type.GAUGE, "Mobcap for the chunks eligible for spawning",
+                (server, samples) -> {
+                    for (ServerLevel level : server.getAllLevels())
+                    {
+                        int chunks = chunkCounts.getOrDefault(level.dimension(), -1);
+                        if (chunks < 0)
+                        {
+                            continue;
+                        }
+                        for (MobCategory category : cachedMobCategories())
+                        {
+                            samples.add(getMobcap(chunks, category), "dimension", level.dimension().identifier().toString(), "category", category.getName());
+                        }
+                    }
+                });
+        Metrics.register("carpet_spawn_tracked_total", Metrics.Type.COUNTER, "Mobs spawned since spawn tracking started",
+                (server, samples) -> {
+                    for (ResourceKey<Level> dimension : server.levelKeys())
+                    {
+                        DimensionStats stats = getStats(dimension);
+                        if (stats == null)
+                        {
+                            continue;
+                        }
+                        for (MobCategory category : cachedMobCategories())
+                        {
+                            samples.add(stats.spawn_stats.get(category.ordinal()).values().longStream().sum(), "dimension", dimension.identifier().toString(), "category", category.getName());
+                        }
+                    }
+                });
+    }
+
+    /**
+     * @return spawn tracking statistics of the dimension, or {@code null} when it didn't exist when tracking was reset
+     */
+    @Nullable
+    public static DimensionStats getStats(ResourceKey<Level> dimension)
+    {
+        int id = dimension_ids.getInt(dimension);
+        return id < 0 ? null : dimension_stats[id];
+    }
+
+    /**
+     * Starts a tracked spawning cycle of a level, called once per tick before it spawns mobs
+     */
+    public static void startSpawnCycle(ResourceKey<Level> dimension)
+    {
+        cycle_stats = getStats(dimension);
+        if (cycle_stats == null)
+        {
+            return;
+        }
+        Arrays.fill(local_spawns, -1L);
+        Arrays.fill(first_chunk_marker, false);
+        for (int i = 0; i < CACHED_MOBCATEGORY_VALUES.length; i++)
+        {
+            cycle_stats.overall_spawn_ticks[i] += spawn_tries[i];
+        }
+    }
+
+    /**
+     * Ends the spawning cycle of a level, counting how each category's spawning went
+     *
+     * @param persistentCycle whether persistent mobs, like animals, could spawn in that tick
+     */
+    public static void endSpawnCycle(boolean persistentCycle)
+    {
+        if (cycle_stats == null)
+        {
+            return;
+        }
+        for (MobCategory cat : CACHED_MOBCATEGORY_VALUES)
+        {
+            int i = cat.ordinal();
+            if (local_spawns[i] < 0)
+            {
+                if (!cat.isPersistent() || persistentCycle) // isAnimal
+                {
+                    // fill mobcaps for that category so spawn got cancelled
+                    cycle_stats.spawn_ticks_full[i] += spawn_tries[i];
+                }
+            }
+            else if (local_spawns[i] > 0)
+            {
+                // tick spawned mobs for that type
+                cycle_stats.spawn_ticks_succ[i] += spawn_tries[i];
+                cycle_stats.spawn_ticks_spawns[i] += local_spawns[i];
+                    // this will be off comparing to 1.13 as that would succeed if
+                    // ANY tries in that round were successful.
+                    // there will be much more difficult to mix in
+                    // considering spawn tries to remove, as with warp
+                    // there is little need for them anyways.
+            }
+            else // spawn no mobs despite trying
+            {
+                //tick didn's spawn mobs of that type
+                cycle_stats.spawn_ticks_fail[i] += spawn_tries[i];
+            }
+        }
+        cycle_stats = null;
+    }
 
     public static void registerSpawn(Mob mob, MobCategory cat, BlockPos pos)
     {
@@ -79,15 +233,20 @@ public class SpawnReporter
         {
             return;
         }
-        Pair<ResourceKey<Level>, MobCategory> key = Pair.of(mob.level().dimension(), cat);
-        spawn_stats.get(key).addTo(mob.getType(), 1);
-        spawned_mobs.get(key).put(Pair.of(mob.getType(), pos));
-        if (!local_spawns.containsKey(cat))
+        DimensionStats stats = getStats(mob.level().dimension());
+        if (stats == null)
+        {
+            return;
+        }
+        int i = cat.ordinal();
+        stats.spawn_stats.get(i).addTo(mob.getType(), 1);
+        stats.spawned_mobs.get(i).put(Pair.of(mob.getType(), pos));
+        if (local_spawns[i] < 0)
         {
             CarpetSettings.LOG.error("Rogue spawn detected for category "+cat.getName()+" for mob "+mob.getType().getDescription().getString()+". If you see this message let carpet peeps know about it on github issues.");
-            local_spawns.put(cat, 0L);
+            local_spawns[i] = 0L;
         }
-        local_spawns.addTo(cat, 1);
+        local_spawns[i]++;
     }
 
     public static final int MAGIC_NUMBER = (int)Math.pow(17.0D, 2.0D);
@@ -96,6 +255,11 @@ public class SpawnReporter
         return MAGIC_NUMBER / (Math.pow(2.0,(SpawnReporter.mobcap_exponent/4)));
     }*/
 
+    public static int getMobcap(int chunkcount, MobCategory category)
+    {
+        return (int)(chunkcount * ((double)category.getMaxInstancesPerChunk() / MAGIC_NUMBER)); // from ServerChunkManager.CHUNKS_ELIGIBLE_FOR_SPAWNING
+    }
+
     public static List<Component> printMobcapsForDimension(ServerLevel world, boolean multiline)
     {
         ResourceKey<Level> dim = world.dimension();
@@ -112,35 +276,40 @@ public class SpawnReporter
             return lst;
         }
 
-        List<String> shortCodes = new ArrayList<>();
+        MutableComponent shortCodes = null;
         for (MobCategory category : cachedMobCategories())
         {
             int cur = dimCounts.getOrDefault(category, -1);
-            int max = (int)(chunkcount * ((double)category.getMaxInstancesPerChunk() / MAGIC_NUMBER)); // from ServerChunkManager.CHUNKS_ELIGIBLE_FOR_SPAWNING
+            int max = getMobcap(chunkcount, category);
             String color = Messenger.heatmap_color(cur, max);
             String mobColor = Messenger.creatureTypeColor(category);
             if (multiline)
             {
-                int rounds = spawn_tries.get(category);
+                int rounds = spawn_tries[category.ordinal()];
                 lst.add(Messenger.c(String.format("w   %s: ", category.getName()),
                         (cur < 0) ? "g -" : (color + " " + cur), "g  / ", mobColor + " " + max,
-                        (rounds == 1) ? "w " : String.format("gi  (%d rounds/tick)", spawn_tries.get(category))
+                        (rounds == 1) ? "w " : String.format("gi  (%d rounds/tick)", rounds)
                 ));
             }
             else
             {
-                shortCodes.add(color+" "+((cur<0)?"-":cur));
-                shortCodes.add("g /");
-                shortCodes.add(mobColor+" "+max);
-                shortCodes.add("g ,");
+                Component mobcap = MOBCAP_FORMAT.apply(Messenger.s((cur<0)?"-":Integer.toString(cur), color), Messenger.s(Integer.toString(max), mobColor));
+                if (shortCodes == null)
+                {
+                    shortCodes = Component.literal("");
+                }
+                else
+                {
+                    shortCodes.append(MOBCAP_SEPARATOR);
+                }
+                shortCodes.append(mobcap);
             }
         }
         if (!multiline)
         {
-            if (shortCodes.size() > 0)
+            if (shortCodes != null)
             {
-                shortCodes.remove(shortCodes.size() - 1);
-                lst.add(Messenger.c(shortCodes.toArray(new Object[0])));
+                lst.add(shortCodes);
             }
             else
             {
@@ -162,7 +331,8 @@ public class SpawnReporter
         String categoryName = category.getName();
         
         lst.add(Messenger.s(String.format("Recent %s spawns:", categoryName)));
-        for (Pair<EntityType<?>, BlockPos> pair : spawned_mobs.get(Pair.of(world.dimension(), category)).keySet())
+        DimensionStats stats = getStats(world.dimension());
+        for (Pair<EntityType<?>, BlockPos> pair : stats == null ? List.<Pair<EntityType<?>, BlockPos>>of() : stats.spawned_mobs.get(category.ordinal()).keySet())
         {
             lst.add( Messenger.c(
                     "w  - ",
@@ -233,9 +403,10 @@ public class SpawnReporter
     
     public static List<Component> printEntitiesByType(MobCategory cat, ServerLevel worldIn, boolean all)
     {
+        EntityTypeIndex index = ((LevelInterface) worldIn).getEntityTypeIndexCM();
         List<Component> lst = new ArrayList<>();
-        lst.add( Messenger.s(String.format("Loaded entities for %s category:", cat)));
-        for (Entity entity : worldIn.getEntities(EntityTypeTest.forClass(Entity.class), (e) -> e.getType().getCategory() == cat))
+        lst.add( Messenger.s(String.format("Loaded entities for %s category: %d", cat, index.count(cat))));
+        for (Entity entity : index.entitiesOf(cat))
         {
             boolean persistent = entity instanceof Mob mob && ( mob.isPersistenceRequired() || mob.requiresCustomPersistence());
             if (!all && persistent)
@@ -254,6 +425,18 @@ public class SpawnReporter
         {
             lst.add(Messenger.s(" - Empty."));
         }
+        if (index.count(cat) > 0)
+        {
+            lst.add(Messenger.s("Loaded by type:"));
+            for (EntityType<?> type : BuiltInRegistries.ENTITY_TYPE)
+            {
+                int count = index.count(type);
+                if (type.getCategory() == cat && count > 0)
+                {
+                    lst.add(Messenger.c("w  - ", "w " + type.getDescription().getString() + ": ", "wb " + count));
+                }
+            }
+        }
         return lst;
     }
     
@@ -270,25 +453,19 @@ public class SpawnReporter
     {
         if (full)
         {
-            for (MobCategory category : cachedMobCategories())
-                spawn_tries.put(category, 1);
+            Arrays.fill(spawn_tries, 1);
         }
-        overall_spawn_ticks.clear();
-        spawn_attempts.clear();
-        spawn_ticks_full.clear();
-        spawn_ticks_fail.clear();
-        spawn_ticks_succ.clear();
-        spawn_ticks_spawns.clear();
-        spawn_cap_count.clear();
 
         // can't fast-path to clear given different worlds could have different amount of worlds
-        for (MobCategory category : cachedMobCategories()) {
-            for (ResourceKey<Level> world : server.levelKeys()) {
-                Pair<ResourceKey<Level>, MobCategory> key = Pair.of(world, category);
-                spawn_stats.put(key, new Object2LongOpenHashMap<>());
-                spawned_mobs.put(key, new EvictingQueue<>());
-            }
+        dimension_ids.clear();
+        List<DimensionStats> stats = new ArrayList<>();
+        for (ResourceKey<Level> world : server.levelKeys())
+        {
+            dimension_ids.put(world, stats.size());
+            stats.add(new DimensionStats());
         }
+        dimension_stats = stats.toArray(new DimensionStats[0]);
+        cycle_stats = null;
         spawnTrackingStartTime = 0;
     }
 
@@ -339,23 +516,24 @@ public class SpawnReporter
 
         for (MobCategory category : cachedMobCategories())
         {
+            int i = category.ordinal();
             for (ResourceKey<Level> dim : worldIn.getServer().levelKeys())
             {
-                Pair<ResourceKey<Level>, MobCategory> key = Pair.of(dim, category);
-                if (spawn_ticks_spawns.getLong(key) > 0L)
+                DimensionStats stats = getStats(dim);
+                if (stats != null && stats.spawn_ticks_spawns[i] > 0L)
                 {
-                    double hours = overall_spawn_ticks.getLong(key)/72000.0;
-                    long spawnAttemptsForCategory = spawn_attempts.getLong(key);
+                    double hours = stats.overall_spawn_ticks[i]/72000.0;
+                    long spawnAttemptsForCategory = stats.spawn_attempts[i];
                     report.add(Messenger.s(String.format(" > %s%s (%.1f min), %.1f m/t, %%{%.1fF %.1f- %.1f+}; %.2f s/att",
                         category.getName().substring(0,3), getWorldCode(dim),
                         60*hours,
-                        (1.0D * spawn_cap_count.getLong(key)) / spawnAttemptsForCategory,
-                        (100.0D * spawn_ticks_full.getLong(key)) / spawnAttemptsForCategory,
-                        (100.0D * spawn_ticks_fail.getLong(key)) / spawnAttemptsForCategory,
-                        (100.0D * spawn_ticks_succ.getLong(key)) / spawnAttemptsForCategory,
-                        (1.0D * spawn_ticks_spawns.getLong(key)) / (spawn_ticks_fail.getLong(key) + spawn_ticks_succ.getLong(key))
+                        (1.0D * stats.spawn_cap_count[i]) / spawnAttemptsForCategory,
+                        (100.0D * stats.spawn_ticks_full[i]) / spawnAttemptsForCategory,
+                        (100.0D * stats.spawn_ticks_fail[i]) / spawnAttemptsForCategory,
+                        (100.0D * stats.spawn_ticks_succ[i]) / spawnAttemptsForCategory,
+                        (1.0D * stats.spawn_ticks_spawns[i]) / (stats.spawn_ticks_fail[i] + stats.spawn_ticks_succ[i])
                     )));
-                    for (Object2LongMap.Entry<EntityType<?>> entry: spawn_stats.get(key).object2LongEntrySet())
+                    for (Object2LongMap.Entry<EntityType<?>> entry: stats.spawn_stats.get(i).object2LongEntrySet())
                     {
                         report.add(Messenger.s(String.format("   - %s: %d spawns, %d per hour",
                                 entry.getKey().getDescription().getString(),
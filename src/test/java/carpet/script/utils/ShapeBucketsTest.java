@@ -0,0 +1,174 @@
+package carpet.script.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShapeBucketsTest
+{
+    private static Set<String> near(ShapeBuckets<String> buckets, double x, double y, double z, int range)
+    {
+        Set<String> visited = new HashSet<>();
+        buckets.forEachNear(x, y, z, range, visited::add);
+        return visited;
+    }
+
+    @Test
+    void putReplacesShapesWithTheSameKey()
+    {
+        ShapeBuckets<String> buckets = new ShapeBuckets<>(0);
+        buckets.put(1, "a", ShapeBuckets.section(0, 0, 0), 100);
+        buckets.put(2, "b", 100);
+        buckets.put(1, "c", ShapeBuckets.section(64, 0, 0), 100);
+        assertEquals(2, buckets.size());
+        assertEquals("c", buckets.get(1));
+        assertEquals(Set.of("b"), near(buckets, 0, 0, 0, 0));
+        assertEquals(Set.of("b", "c"), near(buckets, 64, 0, 0, 0));
+    }
+
+    @Test
+    void removeKeepsOtherShapesOfTheBucket()
+    {
+        ShapeBuckets<String> buckets = new ShapeBuckets<>(0);
+        long section = ShapeBuckets.section(0, 0, 0);
+        buckets.put(1, "a", section, 100);
+        buckets.put(2, "b", section, 100);
+        buckets.put(3, "c", section, 100);
+        buckets.remove(1);
+        buckets.remove(4);
+        assertNull(buckets.get(1));
+        assertEquals(2, buckets.size());
+        assertEquals(Set.of("b", "c"), near(buckets, 0, 0, 0, 0));
+        buckets.remove(2);
+        buckets.remove(3);
+        assertTrue(buckets.isEmpty());
+        assertEquals(Set.of(), near(buckets, 0, 0, 0, 0));
+    }
+
+    @Test
+    void shapesExpireAfterTheirExpiryTick()
+    {
+        ShapeBuckets<String> buckets = new ShapeBuckets<>(0);
+        buckets.put(1, "a", 10);
+        buckets.expire(10);
+        assertEquals("a", buckets.get(1));
+        buckets.expire(11);
+        assertNull(buckets.get(1));
+    }
+
+    @Test
+    void setExpiryEarlierReschedules()
+    {
+        ShapeBuckets<String> buckets = new ShapeBuckets<>(0);
+        buckets.put(1, "a", 100);
+        assertTrue(buckets.setExpiry(1, 10));
+        buckets.expire(10);
+        assertEquals("a", buckets.get(1));
+        buckets.expire(11);
+        assertNull(buckets.get(1));
+        assertFalse(buckets.setExpiry(1, 20));
+    }
+
+    @Test
+    void setExpiryLaterKeepsShape()
+    {
+        ShapeBuckets<String> buckets = new ShapeBuckets<>(0);
+        buckets.put(1, "a", 10);
+        assertTrue(buckets.setExpiry(1, 50));
+        for (long tick = 1; tick <= 50; tick++)
+        {
+            buckets.expire(tick);
+        }
+        assertEquals("a", buckets.get(1));
+        buckets.expire(51);
+        assertNull(buckets.get(1));
+    }
+
+    @Test
+    void longLivingShapesSurviveWheelTurns()
+    {
+        ShapeBuckets<String> buckets = new ShapeBuckets<>(0);
+        buckets.put(1, "a", 1000);
+        buckets.put(2, "b", 300);
+        for (long tick = 1; tick <= 1000; tick++)
+        {
+            buckets.expire(tick);
+            assertEquals(tick <= 300, buckets.get(2) != null, "at tick " + tick);
+        }
+        assertEquals("a", buckets.get(1));
+        buckets.expire(1001);
+        assertTrue(buckets.isEmpty());
+    }
+
+    @Test
+    void skippingMoreThanAWheelTurnExpiresShapes()
+    {
+        ShapeBuckets<String> buckets = new ShapeBuckets<>(0);
+        buckets.put(1, "a", 500);
+        buckets.put(2, "b", 800);
+        buckets.expire(600);
+        assertNull(buckets.get(1));
+        assertEquals("b", buckets.get(2));
+        buckets.expire(801);
+        assertTrue(buckets.isEmpty());
+    }
+
+    @Test
+    void delayMakesShapesLiveLonger()
+    {
+        ShapeBuckets<String> buckets = new ShapeBuckets<>(0);
+        buckets.put(1, "a", 10);
+        buckets.delay();
+        buckets.expire(11);
+        assertEquals("a", buckets.get(1));
+        buckets.expire(12);
+        assertNull(buckets.get(1));
+    }
+
+    @Test
+    void forEachNearVisitsSectionsInRange()
+    {
+        ShapeBuckets<String> buckets = new ShapeBuckets<>(0);
+        buckets.put(1, "here", ShapeBuckets.section(8, 8, 8), 100);
+        buckets.put(2, "east", ShapeBuckets.section(24, 8, 8), 100);
+        buckets.put(3, "far east", ShapeBuckets.section(40, 8, 8), 100);
+        buckets.put(4, "above", ShapeBuckets.section(8, 24, 8), 100);
+        buckets.put(5, "far below", ShapeBuckets.section(8, -24, 8), 100);
+        buckets.put(6, "everywhere", 100);
+        assertEquals(Set.of("here", "everywhere"), near(buckets, 0, 0, 0, 0));
+        assertEquals(Set.of("here", "east", "above", "everywhere"), near(buckets, 0, 0, 0, 1));
+        assertEquals(Set.of("here", "east", "far east", "above", "far below", "everywhere"), near(buckets, 0, 0, 0, 2));
+        assertEquals(Set.of("far east", "everywhere"), near(buckets, 40, 0, 0, 0));
+    }
+
+    @Test
+    void forEachNearWithManyBucketsLooksUpSectionsInRange()
+    {
+        ShapeBuckets<String> buckets = new ShapeBuckets<>(0);
+        // more buckets than sections within range, so sections in range are looked up instead of checking buckets
+        Set<String> expected = new HashSet<>();
+        int key = 0;
+        for (int x = -3; x <= 3; x++)
+        {
+            for (int y = -3; y <= 3; y++)
+            {
+                for (int z = -3; z <= 3; z++)
+                {
+                    String name = x + " " + y + " " + z;
+                    buckets.put(key++, name, ShapeBuckets.section(x * 16, y * 16, z * 16), 100);
+                    if (Math.abs(x - 1) <= 1 && Math.abs(y) <= 1 && Math.abs(z) <= 1)
+                    {
+                        expected.add(name);
+                    }
+                }
+            }
+        }
+        assertEquals(expected, near(buckets, 16, 0, 0, 1));
+    }
+}
@@ -0,0 +1,223 @@
+package carpet.script.utils;
+
+import net.minecraft.SharedConstants;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.DoubleTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.StringTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.server.Bootstrap;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShapeCodecTest
+{
+    @BeforeAll
+    static void bootstrap()
+    {
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+    }
+
+    private static ListTag vec(double x, double y, double z)
+    {
+        ListTag vec = new ListTag();
+        vec.add(DoubleTag.valueOf(x));
+        vec.add(DoubleTag.valueOf(y));
+        vec.add(DoubleTag.valueOf(z));
+        return vec;
+    }
+
+    private static CompoundTag box(ListTag from, ListTag to, int color)
+    {
+        CompoundTag shape = new CompoundTag();
+        shape.putString("shape", "box");
+        shape.putString("dim", "minecraft:overworld");
+        shape.putInt("color", color);
+        shape.putInt("duration", 100);
+        shape.put("from", from);
+        shape.put("to", to);
+        return shape;
+    }
+
+    // boxes around a grid of blocks, offset from block corners by the given fraction
+    private static ListTag boxes(int count, double fraction)
+    {
+        ListTag batch = new ListTag();
+        for (int i = 0; i < count; i++)
+        {
+            double x = 1000 + (i % 32) + fraction;
+            double z = -2000 + (i / 32) + fraction;
+            batch.add(box(vec(x, 64 + fraction, z), vec(x + 1, 65 + fraction, z + 1), 0xFF0000FF + i * 0x100));
+        }
+        return batch;
+    }
+
+    private static byte[] bytes(long... varLongs) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (long value : varLongs)
+        {
+            while ((value & ~0x7FL) != 0)
+            {
+                out.writeByte((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+        return bytes.toByteArray();
+    }
+
+    // undeflated batch header, with the shape count and an origin at zero, followed by the given bytes
+    private static byte[] batch(long count, byte[] shapes) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(bytes(0, count));
+        out.writeDouble(0);
+        out.writeDouble(0);
+        out.writeDouble(0);
+        out.write(shapes);
+        return bytes.toByteArray();
+    }
+
+    private static void assertRoundTrip(ListTag batch) throws IOException
+    {
+        assertEquals(batch, ShapeCodec.decode(ShapeCodec.encode(batch)));
+    }
+
+    @Test
+    void integralCoordinatesRoundTrip() throws IOException
+    {
+        assertRoundTrip(boxes(10, 0));
+    }
+
+    @Test
+    void floatExactCoordinatesRoundTrip() throws IOException
+    {
+        assertRoundTrip(boxes(10, 0.5));
+        assertRoundTrip(boxes(10, 0.0625));
+    }
+
+    @Test
+    void otherCoordinatesRoundTrip() throws IOException
+    {
+        assertRoundTrip(boxes(10, 0.1));
+        ListTag batch = new ListTag();
+        batch.add(box(vec(Math.PI, -0.0, 1e300), vec(Double.MIN_VALUE, Double.MAX_VALUE, -1e-300), 0));
+        batch.add(box(vec(1L << 60, 0.3, -7), vec(Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY), 0));
+        assertRoundTrip(batch);
+    }
+
+    @Test
+    void emptyBatchesAndShapesWithoutCoordinatesRoundTrip() throws IOException
+    {
+        assertRoundTrip(new ListTag());
+        ListTag batch = new ListTag();
+        CompoundTag shape = new CompoundTag();
+        shape.putString("shape", "sphere");
+        shape.putInt("color", Integer.MIN_VALUE);
+        shape.putInt("level", Integer.MAX_VALUE);
+        batch.add(shape);
+        batch.add(new CompoundTag());
+        assertRoundTrip(batch);
+    }
+
+    @Test
+    void unknownKeysAndValuesRoundTrip() throws IOException
+    {
+        ListTag batch = boxes(2, 0);
+        CompoundTag shape = batch.getCompound(0).orElseThrow();
+        shape.putString("not_a_shape_parameter", "value");
+        shape.putLong("duration", 5);
+        ListTag points = new ListTag();
+        points.add(vec(1, 2, 3));
+        points.add(vec(4.5, 5.5, 6.5));
+        shape.put("points", points);
+        ListTag mixed = new ListTag();
+        mixed.add(vec(1, 2, 3));
+        mixed.add(StringTag.valueOf("not a vector"));
+        batch.getCompound(1).orElseThrow().put("mixed", mixed);
+        assertRoundTrip(batch);
+    }
+
+    @Test
+    void batchesPastThresholdAreDeflated() throws IOException
+    {
+        ListTag small = boxes(1, 0);
+        byte[] encodedSmall = ShapeCodec.encode(small);
+        assertTrue(encodedSmall.length < ShapeCodec.DEFLATE_THRESHOLD);
+        assertEquals(0, encodedSmall[0] & ShapeCodec.FLAG_DEFLATED);
+
+        ListTag large = boxes(1000, 0.1);
+        byte[] encodedLarge = ShapeCodec.encode(large);
+        assertNotEquals(0, encodedLarge[0] & ShapeCodec.FLAG_DEFLATED);
+        assertEquals(large, ShapeCodec.decode(encodedLarge));
+    }
+
+    @Test
+    void largeBatchesAreSeveralfoldSmallerThanNbt() throws IOException
+    {
+        ListTag batch = boxes(1000, 0);
+        ByteArrayOutputStream nbt = new ByteArrayOutputStream();
+        NbtIo.writeAnyTag(batch, new DataOutputStream(nbt));
+        byte[] encoded = ShapeCodec.encode(batch);
+        assertTrue(encoded.length * 4 < nbt.size(), encoded.length + " bytes encoded, " + nbt.size() + " bytes of NBT");
+    }
+
+    @Test
+    void corruptDataIsRejected() throws IOException
+    {
+        assertThrows(IOException.class, () -> ShapeCodec.decode(new byte[0]));
+        // unknown parameter id
+        assertThrows(IOException.class, () -> ShapeCodec.decode(batch(1, bytes(1, 1000))));
+        // unknown value type
+        assertThrows(IOException.class, () -> ShapeCodec.decode(batch(1, new byte[]{1, 1, 100})));
+        // varint that doesn't end
+        byte[] endless = new byte[16];
+        Arrays.fill(endless, (byte) 0xFF);
+        assertThrows(IOException.class, () -> ShapeCodec.decode(batch(1, endless)));
+
+        byte[] encoded = ShapeCodec.encode(boxes(1000, 0.1));
+        assertThrows(IOException.class, () -> ShapeCodec.decode(Arrays.copyOf(encoded, encoded.length / 2)));
+        byte[] small = ShapeCodec.encode(boxes(2, 0));
+        assertThrows(IOException.class, () -> ShapeCodec.decode(Arrays.copyOf(small, small.length - 1)));
+    }
+
+    @Test
+    void oversizedCountsAreRejected() throws IOException
+    {
+        // more shapes than a batch may have, and a negative count
+        assertThrows(IOException.class, () -> ShapeCodec.decode(batch(1L << 40, new byte[0])));
+        assertThrows(IOException.class, () -> ShapeCodec.decode(batch(-1, new byte[0])));
+        // more shapes than the data has
+        byte[] encoded = ShapeCodec.encode(boxes(1, 0));
+        // skips the flags, the count and the origin
+        byte[] shape = Arrays.copyOfRange(encoded, 1 + 1 + 3 * Double.BYTES, encoded.length);
+        assertThrows(IOException.class, () -> ShapeCodec.decode(batch(2, shape)));
+        // more parameters than a shape may have
+        assertThrows(IOException.class, () -> ShapeCodec.decode(batch(1, bytes(1L << 30))));
+        // NBT list longer than the data read from packets may be
+        ByteArrayOutputStream nbtList = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(nbtList);
+        out.write(bytes(1, 0));
+        out.writeUTF("custom");
+        out.writeByte(0);
+        out.writeByte(Tag.TAG_LIST);
+        out.writeByte(Tag.TAG_LONG);
+        out.writeInt(Integer.MAX_VALUE);
+        assertThrows(IOException.class, () -> ShapeCodec.decode(batch(1, nbtList.toByteArray())));
+    }
+}
@@ -0,0 +1,145 @@
+package carpet.utils;
+
+import net.minecraft.util.AbortableIterationConsumer;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Entity sections crammed with entities, looked up the way maxEntityCollisions does, both with {@link LimitedEntityCollector}
+ * and with the implementation that stopped section walks by throwing.
+ */
+class CrammedSections
+{
+    static final int SECTIONS = 8;
+    static final int ENTITIES_PER_SECTION = 64;
+    static final int LIMIT = 24;
+
+    private static final RuntimeException CONTROL_FLOW_EXCEPTION = new RuntimeException("Should be caught for control flow");
+
+    /**
+     * Compared by identity, like entities, with parts like the ender dragon has
+     */
+    static final class StubEntity
+    {
+        final int id;
+        @Nullable
+        final StubEntity[] parts;
+
+        StubEntity(int id, @Nullable StubEntity[] parts)
+        {
+            this.id = id;
+            this.parts = parts;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "entity " + id;
+        }
+    }
+
+    final List<List<StubEntity>> sections = new ArrayList<>();
+    final List<StubEntity> entities = new ArrayList<>();
+    private final Predicate<StubEntity> predicate = entity -> (entity.id & 3) != 0;
+
+    CrammedSections()
+    {
+        int id = 0;
+        for (int s = 0; s < SECTIONS; s++)
+        {
+            List<StubEntity> section = new ArrayList<>();
+            for (int e = 0; e < ENTITIES_PER_SECTION; e++)
+            {
+                StubEntity[] parts = null;
+                if (e % 20 == 5)
+                {
+                    parts = new StubEntity[]{new StubEntity(id++, null), new StubEntity(id++, null), new StubEntity(id++, null)};
+                }
+                StubEntity entity = new StubEntity(id++, parts);
+                section.add(entity);
+                entities.add(entity);
+            }
+            sections.add(section);
+        }
+    }
+
+    // walk of the old lookup, which couldn't be aborted
+    private void walkAll(Consumer<StubEntity> consumer)
+    {
+        for (List<StubEntity> section : sections)
+        {
+            section.forEach(consumer);
+        }
+    }
+
+    // walk of EntitySectionStorage, like the one the collector is used with
+    private void walk(AbortableIterationConsumer<StubEntity> consumer)
+    {
+        for (List<StubEntity> section : sections)
+        {
+            for (StubEntity entity : section)
+            {
+                if (consumer.accept(entity).shouldAbort())
+                {
+                    return;
+                }
+            }
+        }
+    }
+
+    List<StubEntity> oldLookup(@Nullable StubEntity except, int limit)
+    {
+        AtomicInteger checkedEntities = new AtomicInteger();
+        List<StubEntity> list = new ArrayList<>();
+        try
+        {
+            walkAll(entity -> {
+                if (checkedEntities.getAndIncrement() > limit)
+                {
+                    throw CONTROL_FLOW_EXCEPTION;
+                }
+                if (entity != except && predicate.test(entity))
+                {
+                    list.add(entity);
+                }
+                if (entity.parts != null)
+                {
+                    for (StubEntity part : entity.parts)
+                    {
+                        if (entity != except && predicate.test(part))
+                        {
+                            list.add(part);
+                        }
+                    }
+                }
+            });
+        }
+        catch (RuntimeException e)
+        {
+            if (e != CONTROL_FLOW_EXCEPTION)
+            {
+                throw e;
+            }
+        }
+        return list;
+    }
+
+    private final LimitedEntityCollector<StubEntity> collector = new LimitedEntityCollector<>(entity -> entity.parts);
+    private final List<StubEntity> result = new ArrayList<>();
+
+    /**
+     * @return list reused by the next lookup
+     */
+    List<StubEntity> newLookup(@Nullable StubEntity except, int limit)
+    {
+        result.clear();
+        walk(collector.reset(except, predicate, limit, result));
+        collector.clear();
+        return result;
+    }
+}
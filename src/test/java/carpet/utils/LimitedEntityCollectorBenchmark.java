@@ -0,0 +1,51 @@
+package carpet.utils;
+
+import carpet.utils.CrammedSections.StubEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares limited entity lookups of maxEntityCollisions with the implementation that stopped section walks by throwing,
+ * on walks over crammed entity sections. Run with {@code gradlew benchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LimitedEntityCollectorBenchmark
+{
+    private final CrammedSections sections = new CrammedSections();
+    private int next = 0;
+
+    // each entity takes its turn in the lookups, like each entity in a cramming farm does
+    private StubEntity nextEntity()
+    {
+        StubEntity entity = sections.entities.get(next);
+        next = (next + 1) % sections.entities.size();
+        return entity;
+    }
+
+    @Benchmark
+    public void throwing(Blackhole blackhole)
+    {
+        blackhole.consume(sections.oldLookup(nextEntity(), CrammedSections.LIMIT));
+    }
+
+    @Benchmark
+    public void aborting(Blackhole blackhole)
+    {
+        blackhole.consume(sections.newLookup(nextEntity(), CrammedSections.LIMIT));
+    }
+}
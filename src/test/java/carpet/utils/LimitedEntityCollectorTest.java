@@ -0,0 +1,41 @@
+package carpet.utils;
+
+import carpet.utils.CrammedSections.StubEntity;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LimitedEntityCollectorTest
+{
+    private final CrammedSections sections = new CrammedSections();
+
+    @Test
+    void findsSameEntitiesAsThrowingLookup()
+    {
+        List<StubEntity> excluded = new ArrayList<>(sections.entities);
+        excluded.add(null);
+        excluded.add(new StubEntity(-1, null));
+        int all = CrammedSections.SECTIONS * CrammedSections.ENTITIES_PER_SECTION;
+        for (int limit : new int[]{0, 1, CrammedSections.LIMIT, all - 1, all, all + 1})
+        {
+            for (StubEntity except : excluded)
+            {
+                assertEquals(sections.oldLookup(except, limit), sections.newLookup(except, limit), "limit " + limit + ", except " + except);
+            }
+        }
+    }
+
+    @Test
+    void checksOneEntityMoreThanTheLimitWithItsParts()
+    {
+        List<StubEntity> entities = sections.entities;
+        StubEntity withParts = entities.get(5);
+        List<StubEntity> expected = List.of(entities.get(1), entities.get(2), entities.get(3), withParts.parts[0], withParts.parts[1], withParts.parts[2]);
+        assertEquals(expected, sections.newLookup(null, 5));
+        // parts of the excluded entity are excluded with it
+        assertEquals(expected.subList(0, 3), sections.newLookup(withParts, 5));
+    }
+}
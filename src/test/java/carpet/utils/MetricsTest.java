@@ -0,0 +1,127 @@
+package carpet.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsTest
+{
+    private static final Pattern SAMPLE = Pattern.compile("([a-zA-Z_:][a-zA-Z0-9_:]*)(?:\\{(.*)})? (\\S+)");
+    private static final Pattern LABEL = Pattern.compile("([a-zA-Z_][a-zA-Z0-9_]*)=\"((?:[^\"\\\\]|\\\\.)*)\",?");
+
+    private record Sample(String name, Map<String, String> labels, double value)
+    {
+    }
+
+    private record Family(String name, String help, String type, List<Sample> samples)
+    {
+    }
+
+    /**
+     * Parses Prometheus text format, checking that each family is declared before its samples
+     */
+    private static Map<String, Family> parse(String text)
+    {
+        Map<String, Family> families = new LinkedHashMap<>();
+        String help = null;
+        Family family = null;
+        for (String line : text.split("\n"))
+        {
+            if (line.startsWith("# HELP "))
+            {
+                help = line.substring("# HELP ".length()).split(" ", 2)[1];
+            }
+            else if (line.startsWith("# TYPE "))
+            {
+                String[] declaration = line.substring("# TYPE ".length()).split(" ");
+                family = new Family(declaration[0], help, declaration[1], new ArrayList<>());
+                families.put(family.name(), family);
+            }
+            else
+            {
+                Matcher sample = SAMPLE.matcher(line);
+                assertTrue(sample.matches(), "not a sample: " + line);
+                assertTrue(family != null && family.name().equals(sample.group(1)), "sample outside its family: " + line);
+                Map<String, String> labels = new LinkedHashMap<>();
+                if (sample.group(2) != null)
+                {
+                    Matcher label = LABEL.matcher(sample.group(2));
+                    int end = 0;
+                    while (label.find() && label.start() == end)
+                    {
+                        labels.put(label.group(1), label.group(2).replace("\\n", "\n").replace("\\\"", "\"").replace("\\\\", "\\"));
+                        end = label.end();
+                    }
+                    assertEquals(sample.group(2).length(), end, "bad labels: " + line);
+                }
+                double value = switch (sample.group(3))
+                {
+                    case "+Inf" -> Double.POSITIVE_INFINITY;
+                    case "-Inf" -> Double.NEGATIVE_INFINITY;
+                    default -> Double.parseDouble(sample.group(3));
+                };
+                family.samples().add(new Sample(sample.group(1), labels, value));
+            }
+        }
+        return families;
+    }
+
+    @AfterEach
+    void unregister()
+    {
+        Metrics.unregister("test_gauge");
+        Metrics.unregister("test_events_total");
+        Metrics.unregister("test_empty");
+    }
+
+    @Test
+    void renderedMetricsParse()
+    {
+        Metrics.register("test_gauge", Metrics.Type.GAUGE, "A gauge", (server, samples) -> {
+            samples.add(1.5);
+            samples.add(Double.POSITIVE_INFINITY);
+            samples.add(Double.NaN);
+        });
+        Metrics.register("test_events_total", Metrics.Type.COUNTER, "Events by kind", (server, samples) -> {
+            samples.add(42, "kind", "plain");
+            samples.add(1e20, "kind", "quote\" and \\ back\nslash", "other", "x");
+        });
+        Metrics.register("test_empty", Metrics.Type.GAUGE, "Nothing yet", (server, samples) -> {});
+
+        Map<String, Family> families = parse(Metrics.render(null));
+
+        Family gauge = families.get("test_gauge");
+        assertEquals("A gauge", gauge.help());
+        assertEquals("gauge", gauge.type());
+        assertEquals(3, gauge.samples().size());
+        assertEquals(1.5, gauge.samples().get(0).value());
+        assertEquals(Double.POSITIVE_INFINITY, gauge.samples().get(1).value());
+        assertTrue(Double.isNaN(gauge.samples().get(2).value()));
+
+        Family counter = families.get("test_events_total");
+        assertEquals("counter", counter.type());
+        assertEquals(new Sample("test_events_total", Map.of("kind", "plain"), 42), counter.samples().get(0));
+        assertEquals(new Sample("test_events_total", Map.of("kind", "quote\" and \\ back\nslash", "other", "x"), 1e20), counter.samples().get(1));
+
+        assertTrue(families.get("test_empty").samples().isEmpty());
+    }
+
+    @Test
+    void registeringAgainReplacesFamily()
+    {
+        Metrics.register("test_gauge", Metrics.Type.GAUGE, "Old", (server, samples) -> samples.add(1));
+        Metrics.register("test_gauge", Metrics.Type.GAUGE, "New", (server, samples) -> samples.add(2));
+        Family gauge = parse(Metrics.render(null)).get("test_gauge");
+        assertEquals("New", gauge.help());
+        assertEquals(List.of(new Sample("test_gauge", Map.of(), 2)), gauge.samples());
+    }
+}